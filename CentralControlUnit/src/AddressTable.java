@@ -0,0 +1,82 @@
+/**
+ * The AddressTable class maps 64-bit radio addresses, held as longs, to the
+ * lot entities that own them. Unlike a HashMap it does not box the address or
+ * create any objects when an entry is looked up, so it can be used for every
+ * packet that is received.
+ *
+ * @author Elliot Dean
+ */
+public class AddressTable<V> {
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+
+	/**
+	 * Creates an empty table.
+	 */
+	public AddressTable() {
+		this.keys = new long[16];
+		this.values = new Object[16];
+	} // AddressTable
+
+	/**
+	 * Adds or replaces the value for an address.
+	 *
+	 * @param address: The 64-bit address
+	 * @param value: The value for the address, which must not be null
+	 */
+	public void put(long address, V value) {
+
+		if ((this.size + 1) * 2 > this.keys.length)
+			this.grow();
+		int slot = this.slot(address);
+		if (this.values[slot] == null)
+			this.size++;
+		this.keys[slot] = address;
+		this.values[slot] = value;
+
+	} // put
+
+	/**
+	 * Gets the value for an address.
+	 *
+	 * @param address: The 64-bit address
+	 * @return the value for the address, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long address) {
+		return (V) this.values[this.slot(address)];
+	} // get
+
+	/**
+	 * Finds the slot that holds an address, or the empty slot where it would
+	 * be added.
+	 */
+	private int slot(long address) {
+		long hash = address * 0x9E3779B97F4A7C15L;
+		int mask = this.keys.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+		while (this.values[slot] != null && this.keys[slot] != address)
+			slot = (slot + 1) & mask;
+		return slot;
+	} // slot
+
+	/**
+	 * Doubles the size of the table.
+	 */
+	private void grow() {
+		long[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new long[oldKeys.length * 2];
+		this.values = new Object[oldValues.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = this.slot(oldKeys[i]);
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			} // if - slot in use
+		} // for - each old slot
+	} // grow
+
+} // AddressTable - Class
@@ -0,0 +1,443 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The AdminCommands class carries out the commands typed into the Central
+ * Control Unit's administrative control panel. Queries only read the lot
+ * state, and listings of spaces can be narrowed down by group controller,
+ * zone, state or region of the lot and are shown a page at a time. Counts
+ * come from the unit's LotCounters, so they never look at every space.
+ * Commands that change a space are handed to the main program loop through
+ * its events, so the lot state is only ever changed by the main loop. The
+ * destination listing is handed over the same way, since the best spaces and
+ * the suggestion cache are only used by the main loop. The main loop runs its
+ * events between radio messages, and waits up to a second for a message when
+ * none arrive, so such a command may take up to a second to take effect when
+ * the lot is quiet.
+ *
+ * All output is written through a ConsoleWriter, so a long listing never
+ * holds up the panel or the main program loop.
+ *
+ * @author Elliot Dean
+ */
+public class AdminCommands {
+
+	/** The number of spaces shown on each page unless another is given */
+	static final int PAGE_SIZE = 20;
+
+	/** The names of the OccupancyHistory states */
+	static final String[] STATE_NAMES = {"Available", "Occupied", "Reserved"};
+
+	/** The error shown when a space is changed on a standby */
+	static final String CHANGE_REFUSED = "Spaces can only be changed on the "
+			+ "primary Central Control Unit";
+
+	CentralControlUnit CCU;
+	private final ConsoleWriter out;
+
+	/**
+	 * Creates a command engine for a Central Control Unit.
+	 *
+	 * @param CCU: The Central Control Unit that is being monitored
+	 * @param out: The writer that all output is sent to
+	 */
+	public AdminCommands(CentralControlUnit CCU, ConsoleWriter out) {
+		this.CCU = CCU;
+		this.out = out;
+	} // AdminCommands
+
+	/**
+	 * Carries out a single command. The commands are as follows:
+	 *
+	 * 'H': Shows the list of commands
+	 * 'D': Shows each destination and its best space of each category, and
+	 * the first and second choice of each destination kept ready for each
+	 * entrance
+	 * 'S' [filters] [page=n] [size=n]: Shows a page of parking spaces, where
+	 * the filters are any of controller=id, zone=id,
+	 * state=available|occupied|reserved and region=x1,y1,x2,y2
+	 * 'C' [zone|controller]: Shows the number of spaces in each state
+	 * 'O': Shows zone occupancy for the last hour
+	 * 'L': Shows radio link health
+	 * 'M': Shows how long received messages waited in each queue
+	 * 'F' space available|occupied: Forces the state of a space until its
+	 * group controller next reports it
+	 * 'R' space: Makes a reserved space available again
+	 *
+	 * @param line: The command as it was typed
+	 */
+	public void execute(String line) {
+
+		String[] words = line.trim().split("\\s+");
+		String command = words[0].toUpperCase();
+		try {
+			if (command.equals("H"))
+				this.help();
+			else if (command.equals("D"))
+				this.destinations();
+			else if (command.equals("S"))
+				this.spaces(words);
+			else if (command.equals("C"))
+				this.counts(words);
+			else if (command.equals("O"))
+				this.occupancy();
+			else if (command.equals("L"))
+				this.out.print(CCU.health.describe());
+			else if (command.equals("M"))
+				this.out.print(CCU.dispatcher.describe());
+			else if (command.equals("F"))
+				this.forceState(words);
+			else if (command.equals("R"))
+				this.release(words);
+			else if (!command.isEmpty())
+				this.out.println("Unknown command: " + words[0]
+						+ " (type h for help)");
+		} catch (IllegalArgumentException e) {
+			this.out.println("Error: " + e.getMessage());
+		} // try-catch
+
+	} // execute
+
+	/**
+	 * Shows the list of commands.
+	 */
+	private void help() {
+		StringBuilder text = new StringBuilder();
+		line(text, "'D': Show destination info");
+		line(text, "'S' [controller=id] [zone=id] [state=available|occupied|"
+				+ "reserved] [region=x1,y1,x2,y2] [page=n] [size=n]: Show "
+				+ "parking space info");
+		line(text, "'C' [zone|controller]: Show the number of spaces in each "
+				+ "state");
+		line(text, "'O': Show zone occupancy for the last hour");
+		line(text, "'L': Show radio link health");
+		line(text, "'M': Show message queue waits");
+		line(text, "'F' space available|occupied: Force the state of a space");
+		line(text, "'R' space: Release a space's reservation");
+		line(text, "'Q': Exit administrative control");
+		this.out.print(text.toString());
+	} // help
+
+	/**
+	 * Shows each destination and its best space of each category, and the
+	 * suggestion kept ready for each entrance, as seen by the main program
+	 * loop.
+	 */
+	private void destinations() {
+		this.onMainLoop("Destinations can only be shown on the primary "
+				+ "Central Control Unit", new Runnable() {
+					@Override
+					public void run() {
+						out.print(describeDestinations());
+					} // run
+				});
+	} // destinations
+
+	/**
+	 * Describes each destination and the suggestion kept ready for each
+	 * entrance. This must be called by the main program loop.
+	 */
+	private String describeDestinations() {
+		StringBuilder text = new StringBuilder();
+		for (Destination dest : CCU.destinations) {
+			line(text, "Destination: " + dest.getId());
+			text.append("\tX: " + dest.getX() + "\tY: " + dest.getY());
+			for (int category = 0; category < ParkingSpace.CATEGORIES;
+					category++) {
+				ParkingSpace best = dest.getBestSpace(category);
+				if (best != null)
+					text.append("\tBest " + ParkingSpace.CATEGORY_CODES
+							.charAt(category) + ": " + best.getId());
+			} // for - each category
+			line(text, "");
+		} // for each - destinations
+		for (Entrance entrance : CCU.entrances) {
+			line(text, "Entrance: " + entrance.getId());
+			int i = 0;
+			for (Destination dest : CCU.destinations) {
+				line(text, "\t" + dest.getId() + "\tFirst: "
+						+ id(CCU.suggestions.getFirstChoice(
+								entrance.getNumber(), i))
+						+ "\tSecond: " + id(CCU.suggestions.getSecondChoice(
+								entrance.getNumber(), i)));
+				i++;
+			} // for each - destination
+		} // for each - entrance
+		return text.toString();
+	} // describeDestinations
+
+	/**
+	 * Gets the identifier of a space, or None if there is no space.
+	 */
+	private static String id(ParkingSpace space) {
+		return (space == null) ? "None" : space.getId();
+	} // id
+
+	/**
+	 * Shows one page of the spaces that match the filters.
+	 */
+	private void spaces(String[] words) {
+
+		String controller = null, zone = null;
+		int state = -1, page = 1, size = PAGE_SIZE;
+		int[] region = null;
+		for (int i = 1; i < words.length; i++) {
+			String[] option = words[i].split("=", 2);
+			if (option.length != 2)
+				throw new IllegalArgumentException("Expected name=value but "
+						+ "got " + words[i]);
+			String name = option[0].toLowerCase(), value = option[1];
+			if (name.equals("controller"))
+				controller = value;
+			else if (name.equals("zone"))
+				zone = value;
+			else if (name.equals("state"))
+				state = state(value);
+			else if (name.equals("region"))
+				region = region(value);
+			else if (name.equals("page"))
+				page = positive(name, value);
+			else if (name.equals("size"))
+				size = positive(name, value);
+			else
+				throw new IllegalArgumentException("Unknown filter " + name);
+		} // for - each option
+
+		// Only the spaces on the requested page are kept
+		HashMap<GroupController, LotZone> zoneMap = CCU.zoneMap;
+		ArrayList<ParkingSpace> shown = new ArrayList<ParkingSpace>(size);
+		int matches = 0, first = (page - 1) * size;
+		for (ParkingSpace space : CCU.spaces) {
+			if (controller != null
+					&& !space.getController().getId().equals(controller))
+				continue;
+			LotZone spaceZone = zoneMap.get(space.getController());
+			if (zone != null
+					&& (spaceZone == null || !spaceZone.getId().equals(zone)))
+				continue;
+			if (state >= 0 && this.stateOf(space) != state)
+				continue;
+			if (region != null && (space.getX() < region[0]
+					|| space.getY() < region[1] || space.getX() > region[2]
+					|| space.getY() > region[3]))
+				continue;
+			if (matches >= first && shown.size() < size)
+				shown.add(space);
+			matches++;
+		} // for each - space
+
+		StringBuilder text = new StringBuilder();
+		for (ParkingSpace space : shown) {
+			LotZone spaceZone = zoneMap.get(space.getController());
+			line(text, "Space: " + space.getId() + "\tX: " + space.getX()
+					+ "\tY: " + space.getY() + "\tController ID: "
+					+ space.getController().getId() + "\tZone: "
+					+ ((spaceZone == null) ? "-" : spaceZone.getId())
+					+ "\t" + STATE_NAMES[this.stateOf(space)]);
+		} // for each - space on the page
+		int pages = Math.max(1, (matches + size - 1) / size);
+		line(text, (shown.isEmpty() ? "No spaces" : "Spaces " + (first + 1)
+				+ "-" + (first + shown.size())) + " of " + matches
+				+ " matching (page " + page + " of " + pages + ")");
+		this.out.print(text.toString());
+
+	} // spaces
+
+	/**
+	 * Shows the number of spaces in each state for the lot, and for each zone
+	 * or controller if asked for.
+	 */
+	private void counts(String[] words) {
+
+		StringBuilder text = new StringBuilder();
+		line(text, "Lot:" + describe(CCU.counters.totals()));
+		if (words.length > 1) {
+			HashMap<String, int[]> counts;
+			if (words[1].equalsIgnoreCase("zone"))
+				counts = CCU.counters.byZone();
+			else if (words[1].equalsIgnoreCase("controller"))
+				counts = CCU.counters.byController();
+			else
+				throw new IllegalArgumentException("Expected zone or "
+						+ "controller but got " + words[1]);
+			for (Map.Entry<String, int[]> entry
+					: new TreeMap<String, int[]>(counts).entrySet())
+				line(text, entry.getKey() + ":" + describe(entry.getValue()));
+		} // if - counts broken down
+		this.out.print(text.toString());
+
+	} // counts
+
+	/**
+	 * Shows each zone's arrivals, departures and peak occupancy over the last
+	 * hour.
+	 */
+	private void occupancy() {
+
+		StringBuilder text = new StringBuilder();
+		long now = CCU.clock.millis();
+		for (LotZone zone : CCU.zones) {
+			int arrivals = 0, departures = 0, peak = 0;
+			for (int[] rollup : CCU.history.rollups(zone.getId(),
+					now - 3600000, now, false).values()) {
+				arrivals += rollup[0];
+				departures += rollup[1];
+				peak = Math.max(peak, rollup[2]);
+			} // for each - minute in the last hour
+			line(text, "Zone: " + zone.getId());
+			line(text, "\tArrivals: " + arrivals
+					+ "\tDepartures: " + departures
+					+ "\tPeak occupied: " + peak + "/"
+					+ zone.size() + "\tPeak fill rate: "
+					+ CCU.history.peakFillRate(zone.getId(),
+							now - 3600000, now) + "/min"
+					+ "\tExpected departures: " + String.format(
+							"%.1f", CCU.forecaster
+							.expectedDepartures(zone.getId(), now,
+									CentralControlUnit.SUGGESTION_HORIZON))
+					+ "/min");
+		} // for each - zone
+		this.out.print(text.toString());
+
+	} // occupancy
+
+	/**
+	 * Forces the state of a space on the main program loop.
+	 */
+	private void forceState(String[] words) {
+
+		if (words.length != 3)
+			throw new IllegalArgumentException(
+					"Expected F space available|occupied");
+		final ParkingSpace space = this.space(words[1]);
+		final boolean available;
+		if (words[2].equalsIgnoreCase("available"))
+			available = true;
+		else if (words[2].equalsIgnoreCase("occupied"))
+			available = false;
+		else
+			throw new IllegalArgumentException("Expected available or "
+					+ "occupied but got " + words[2]);
+
+		this.onMainLoop(CHANGE_REFUSED, new Runnable() {
+			@Override
+			public void run() {
+				out.println(CCU.forceSpaceState(space, available));
+			} // run
+		});
+
+	} // forceState
+
+	/**
+	 * Releases a space's reservation on the main program loop.
+	 */
+	private void release(String[] words) {
+
+		if (words.length != 2)
+			throw new IllegalArgumentException("Expected R space");
+		final ParkingSpace space = this.space(words[1]);
+		this.onMainLoop(CHANGE_REFUSED, new Runnable() {
+			@Override
+			public void run() {
+				out.println(CCU.releaseReservation(space));
+			} // run
+		});
+
+	} // release
+
+	/**
+	 * Hands a task to the main program loop. Standbys take their state from
+	 * the primary and do not run the main loop, so only the primary accepts
+	 * tasks.
+	 *
+	 * @param refusal: The error to show on a standby
+	 * @param task: The task to run
+	 */
+	private void onMainLoop(String refusal, Runnable task) {
+		if (!CCU.leader)
+			throw new IllegalArgumentException(refusal);
+		CCU.events.add(task);
+	} // onMainLoop
+
+	/**
+	 * Finds a space by its identifier.
+	 */
+	private ParkingSpace space(String id) {
+		ParkingSpace space = CCU.spaceMap.get(id);
+		if (space == null)
+			throw new IllegalArgumentException("No space " + id);
+		return space;
+	} // space
+
+	/**
+	 * Gets the state of a space, falling back to its availability if it is
+	 * not being counted.
+	 */
+	private int stateOf(ParkingSpace space) {
+		int state = CCU.counters.stateOf(space.getId());
+		if (state >= 0)
+			return state;
+		return space.isAvailable()
+				? OccupancyHistory.AVAILABLE : OccupancyHistory.OCCUPIED;
+	} // stateOf
+
+	/**
+	 * Reads a state name.
+	 */
+	private static int state(String value) {
+		for (int i = 0; i < STATE_NAMES.length; i++)
+			if (STATE_NAMES[i].equalsIgnoreCase(value))
+				return i;
+		throw new IllegalArgumentException("Unknown state " + value);
+	} // state
+
+	/**
+	 * Reads a region given as x1,y1,x2,y2.
+	 */
+	private static int[] region(String value) {
+		String[] corners = value.split(",");
+		if (corners.length != 4)
+			throw new IllegalArgumentException("Expected region=x1,y1,x2,y2");
+		int[] region = new int[4];
+		for (int i = 0; i < 4; i++)
+			region[i] = Integer.parseInt(corners[i].trim());
+		return new int[] {Math.min(region[0], region[2]),
+				Math.min(region[1], region[3]), Math.max(region[0], region[2]),
+				Math.max(region[1], region[3])};
+	} // region
+
+	/**
+	 * Reads a number that must be at least 1.
+	 */
+	private static int positive(String name, String value) {
+		int number = Integer.parseInt(value);
+		if (number < 1)
+			throw new IllegalArgumentException(name + " must be at least 1");
+		return number;
+	} // positive
+
+	/**
+	 * Describes the number of spaces in each state.
+	 */
+	private static String describe(int[] counts) {
+		StringBuilder text = new StringBuilder();
+		int total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			text.append("\t" + STATE_NAMES[i] + ": " + counts[i]);
+			total += counts[i];
+		} // for - each state
+		return text.append("\tTotal: " + total).toString();
+	} // describe
+
+	/**
+	 * Adds a line to some output.
+	 */
+	private static void line(StringBuilder text, String line) {
+		text.append(line).append(System.lineSeparator());
+	} // line
+
+} // AdminCommands - Class
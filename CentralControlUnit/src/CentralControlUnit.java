@@ -1,16 +1,31 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import com.rapplogic.xbee.XBeeConnection;
 import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.PacketListener;
 import com.rapplogic.xbee.api.XBee;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeException;
 import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.XBeeTimeoutException;
 import com.rapplogic.xbee.api.zigbee.ZNetRxResponse;
 import com.rapplogic.xbee.api.zigbee.ZNetTxRequest;
 import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
@@ -24,17 +39,109 @@ import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
  * components and also contains the main programming loop that runs the entire 
  * time that the Smart Parking Lot is active.
  * 
+ * Several Central Control Units can be run together so that the lot keeps
+ * running if one of them fails. One of them, the primary, holds the radio role
+ * and streams every change to the lot state to the others, the standbys. If
+ * the primary is lost, a standby takes over the radio role with the lot state
+ * that it has already been given, including the reserved spaces and when their
+ * reservations run out.
+ * 
+ * Setting the ccu.conversations system property to true runs the unit with a
+ * ConversationRuntime, where every radio has its own conversation and a slow
+ * or unreachable controller never holds up the main program loop. Setting the
+ * ccu.radio system property to raw talks to the XBee through a RawRadio
+ * instead of the xbee-api library, so that received packets are decoded
+ * without creating any objects. Either radio can be given a connection, such
+ * as a SimulatedNetwork's coordinator, to use in place of the serial port.
+ * 
+ * The lot file is watched while the unit runs, and any changes to it are
+ * applied without a restart and without losing the state of the lot.
+ * 
+ * Received messages are not handled in the order they arrive, but are passed
+ * through a MessageDispatcher, so that vehicles waiting at an entrance are
+ * answered ahead of a flood of status updates from the group controllers.
+ * 
+ * A LotSimulator can run the unit's decision logic on simulated time, with a 
+ * simulated radio in place of the XBee, to see how a larger lot would cope.
+ * 
  * @author Elliot Dean
  */
 public class CentralControlUnit {
 
-	LinkedList<Destination> destinations;
-	LinkedList<ParkingSpace> spaces;
-	HashMap<XBeeAddress64, GroupController> addressMap;
+	volatile LinkedList<Destination> destinations;
+	volatile LinkedList<Entrance> entrances;
+	volatile HashMap<Integer, List<Route>> routes;
+	volatile LinkedList<ParkingSpace> spaces;
+	volatile AddressTable<GroupController> addressMap;
+	AddressTable<XBeeAddress64> entranceAddresses;
+	volatile HashMap<String, ParkingSpace> spaceMap;
+	volatile LinkedList<LotZone> zones;
+	volatile HashMap<GroupController, LotZone> zoneMap;
 	XBee xBee;
+	ReplicationServer replication;
+	OccupancyHistory history;
+	DemandForecaster forecaster;
+	LinkHealth health;
+	LotCounters counters;
+	Clock clock;
+	File historyDirectory;
+	MessageSender runtime;
+	RawRadio radio;
+	XBeeConnection connection;
+	LinkedBlockingQueue<Runnable> events;
+	MessageDispatcher dispatcher;
+	MessageDispatcher.Handler dispatchHandler;
+	SuggestionCache suggestions;
+	ConcurrentHashMap<String, Long> reservations; // Reserved until, by space
+	long reservationTime;
+	volatile boolean leader;
+	
+	/** The earliest time that a reservation in reservations runs out */
+	private long nextExpiry = Long.MAX_VALUE;
 	
 	int[] lastEntranceId = {-1}; // Add -1's for each lot entrance controller
 	
+	/** How far ahead to prepare suggestions for, in milliseconds */
+	static final long SUGGESTION_HORIZON = 60 * 1000;
+	
+	/** The most times a single message is sent before giving up */
+	static final int MAX_TX_ATTEMPTS = 5;
+	
+	/** The longest a single message is tried for, in milliseconds */
+	static final long MAX_TX_TIME = ReplicationClient.FAILOVER_TIMEOUT / 3;
+	
+	/** How long a group controller keeps a space reserved, in milliseconds */
+	static final long RESERVATION_TIME = 20 * 1000;
+	
+	/** Time past a reservation's end before it is released regardless, in ms */
+	static final long RESERVATION_GRACE = 2000;
+	
+	/** The key of the routes that only count the walk to each destination */
+	static final int ANY_ENTRANCE = -1;
+	
+	/**
+	 * The Clock interface gives the time that changes to the lot are recorded
+	 * at, so that the unit can be run on simulated time by a LotSimulator.
+	 */
+	interface Clock {
+		
+		/**
+		 * Gets the current time.
+		 * 
+		 * @return the time in milliseconds
+		 */
+		long millis();
+		
+	} // Clock - Interface
+	
+	/** The clock that reads the system time */
+	static final Clock SYSTEM_CLOCK = new Clock() {
+		@Override
+		public long millis() {
+			return System.currentTimeMillis();
+		} // millis
+	};
+	
 	/**
 	 * The main program that will run while the Smart Lot is active. It begins
 	 * by reading a text file with the required information for all of the lot
@@ -43,154 +150,1171 @@ public class CentralControlUnit {
 	 * continuously checks for messages from the XBee radio and performs the 
 	 * correct actions when one is received.
 	 * 
+	 * When run without any arguments the Central Control Unit runs on its own.
+	 * To run it with replication, the arguments are:
+	 * 		primary|standby lotFile serialPort replicationPort rank peers...
+	 * where each peer is the host:port replication address of another unit.
+	 * Only one unit should be started as the primary, and a primary that has
+	 * failed should be restarted as a standby. A primary keeps the radio role
+	 * while it has no standbys, and only steps down once it hears from a
+	 * standby that has taken over with a newer epoch.
+	 * 
+	 * Diagnostic events are written to the console and to log files in the 
+	 * logs directory. The state of the lot is kept in an OccupancyMap, in the
+	 * file named by the ccu.occupancyMap system property or occupancy.map, for
+	 * other programs on the same computer to read.
+	 * 
 	 * @throws IOException 
 	 * @throws XBeeException 
 	 */
 	public static void main(String[] args) throws IOException, XBeeException {
 		
+		EventLog.open(new File("logs"), "ccu");
 		CentralControlUnit CCU = new CentralControlUnit();
-		CCU.initialize("SmallLot.txt");
-		CCU.xBee.open("COM4", 9600);
+		CCU.counters.setMap(new OccupancyMap(new File(
+				System.getProperty("ccu.occupancyMap", "occupancy.map"))));
+		
+		if (args.length == 0) {
+			CCU.initialize("SmallLot.txt");
+			CCU.watchLotFile("SmallLot.txt");
+			Thread admin = new Thread(CCU.new AdminControl(CCU));
+			admin.start();
+			CCU.lead("COM4", -1, 0);
+			return;
+		} // if - running on its own
+		
+		CCU.initialize(args[1]);
+		CCU.watchLotFile(args[1]);
 		Thread admin = new Thread(CCU.new AdminControl(CCU));
 		admin.start();
-		CCU.updateBestSpaces();
 		
+		int replicationPort = Integer.parseInt(args[3]);
+		int rank = Integer.parseInt(args[4]);
+		ArrayList<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+		for (int i = 5; i < args.length; i++) {
+			String[] hostPort = args[i].split(":");
+			peers.add(new InetSocketAddress(hostPort[0], 
+					Integer.parseInt(hostPort[1])));
+		} // for - each peer address
+		
+		boolean primary = args[0].equalsIgnoreCase("primary");
+		long epoch = primary ? 1 : 0;
 		while (true) {
+			if (!primary)
+				epoch = new ReplicationClient(CCU, peers, rank, epoch).follow();
+			EventLog.info("radio_role_taken", "epoch", epoch);
+			CCU.lead(args[2], replicationPort, epoch);
+			primary = false;
+		} // while - switching between primary and standby
+		
+	} // main
+	
+	/**
+	 * Takes the radio role and runs the main program loop until this unit is
+	 * replaced by another primary. If a replication port is given, every
+	 * change to the lot state is streamed to the standbys.
+	 * 
+	 * @param serialPort: The serial port that the XBee is connected to
+	 * @param replicationPort: The port to accept standbys on, or -1 for none
+	 * @param epoch: The epoch of this primary
+	 * @throws IOException
+	 * @throws XBeeException
+	 */
+	void lead(String serialPort, int replicationPort, long epoch) 
+			throws IOException, XBeeException {
+		
+		this.leader = true;
+		if (replicationPort >= 0)
+			this.replication = new ReplicationServer(this, replicationPort, 
+					epoch);
+		if ("raw".equals(System.getProperty("ccu.radio"))) {
+			if (this.connection != null)
+				this.radio = new RawRadio(this.connection.getInputStream(), 
+						this.connection.getOutputStream());
+			else
+				this.radio = RawRadio.open(serialPort);
+			this.leadRaw();
+			return;
+		} // if - not using the xbee-api library
+		
+		this.xBee = new XBee();
+		if (this.connection != null)
+			this.xBee.initProviderConnection(this.connection);
+		else
+			this.xBee.open(serialPort, 9600);
+		if (Boolean.getBoolean("ccu.conversations")) {
+			final Runnable dispatch = new Runnable() {
+				@Override
+				public void run() {
+					dispatchNext();
+				} // run
+			};
+			this.runtime = new ConversationRuntime(this.xBee, this.health, 
+					new PacketListener() {
+						@Override
+						public void processResponse(XBeeResponse response) {
+							queueResponse(response);
+							events.add(dispatch);
+						} // processResponse
+					});
+		} // if - using the conversation runtime
+		this.updateBestSpaces();
+		
+		while (this.leader) {
+			
+			if (this.runtime != null) {
+				Runnable event;
+				try {
+					event = this.events.poll(1000, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					break;
+				} // try-catch
+				if (event == null)
+					this.prepareSuggestions(); // Use the idle time to plan
+				else
+					event.run();
+				this.expireReservations();
+				continue;
+			} // if - radio read by the conversation runtime
 			
-			// Check for input to enter admin control (could be separate thread)
-			XBeeResponse response = CCU.xBee.getResponse();
-			CCU.processResponse(response);
+			this.runEvents();
+			this.expireReservations();
+			try {
+				if (this.dispatcher.isEmpty())
+					this.queueResponse(this.xBee.getResponse(1000));
+				XBeeResponse response;
+				while ((response = this.xBee.getResponse(0)) != null)
+					this.queueResponse(response); // Take all that arrived
+			} catch (XBeeTimeoutException e) {
+				this.prepareSuggestions(); // Use the idle time to plan ahead
+				continue;
+			} // try-catch
+			this.dispatchNext();
 			
 		} // while - main program loop
 		
-	} // main
+		if (this.runtime != null) {
+			this.runtime.close();
+			this.runtime = null;
+		} // if - using the conversation runtime
+		this.xBee.close();
+		if (this.replication != null) {
+			this.replication.close();
+			this.replication = null;
+		} // if - replicating
+		
+	} // lead
+	
+	/**
+	 * Runs the main program loop with a RawRadio until this unit is replaced
+	 * by another primary.
+	 */
+	private void leadRaw() {
+		
+		this.updateBestSpaces();
+		while (this.leader) {
+			
+			this.runEvents();
+			this.expireReservations();
+			RadioFrame frame;
+			try {
+				frame = this.radio.poll(this.dispatcher.isEmpty() ? 1000 : 0);
+				while (frame != null) {
+					try {
+						this.queueFrame(frame); // Take all that arrived
+					} finally {
+						frame.release();
+					} // try-finally
+					frame = this.radio.poll(0);
+				} // while - frames received
+			} catch (InterruptedException e) {
+				break;
+			} // try-catch
+			
+			if (!this.dispatchNext())
+				this.prepareSuggestions(); // Use the idle time to plan ahead
+			
+		} // while - main program loop
+		
+		this.radio.close();
+		this.radio = null;
+		if (this.replication != null) {
+			this.replication.close();
+			this.replication = null;
+		} // if - replicating
+		
+	} // leadRaw
+	
+	/**
+	 * Stops this unit from acting as the primary once another unit has taken
+	 * over the radio role. Nothing more is written to the radio, even by a
+	 * transmission that is already being retried, and the main program loop
+	 * will exit and the unit will continue as a standby.
+	 */
+	void stepDown() {
+		this.leader = false;
+		MessageSender runtime = this.runtime;
+		if (runtime != null)
+			runtime.close();
+	} // stepDown
+	
+	/**
+	 * Applies a space state that was received from the primary.
+	 * 
+	 * @param spaceId: The identifier of the space
+	 * @param state: The OccupancyHistory state of the space
+	 * @param remaining: The time left before a reserved space's reservation
+	 * runs out in ms, or -1 if the space is not reserved
+	 */
+	void applySpaceState(String spaceId, int state, long remaining) {
+		ParkingSpace space = this.spaceMap.get(spaceId);
+		if (space != null) {
+			await(this.zoneMap.get(space.getController())
+					.setAvailable(space, state == OccupancyHistory.AVAILABLE));
+			this.counters.set(spaceId, state);
+			this.trackReservation(spaceId, 
+					(state == OccupancyHistory.RESERVED && remaining >= 0)
+							? this.clock.millis() + remaining : -1);
+		} // if - known space
+	} // applySpaceState
+	
+	/**
+	 * Applies an entrance message identifier that was received from the
+	 * primary.
+	 * 
+	 * @param controller: The entrance controller number
+	 * @param lastId: The last message identifier processed for the entrance
+	 */
+	void applyEntranceId(int controller, int lastId) {
+		if (controller >= 0 && controller < this.lastEntranceId.length)
+			this.lastEntranceId[controller] = lastId;
+	} // applyEntranceId
+	
+	/**
+	 * Adds the change to the occupancy history, the lot counters, the
+	 * reservations and the suggestion cache, and then streams it to the
+	 * standbys, if there are any. It is streamed last so that a standby that
+	 * is sent a snapshot in between still gets the new state.
+	 * 
+	 * @param space: The space whose state has changed
+	 * @param state: The new state of the space, as an OccupancyHistory state
+	 */
+	private void publishChange(ParkingSpace space, int state) {
+		long now = this.clock.millis();
+		long deadline = (state == OccupancyHistory.RESERVED) 
+				? now + this.reservationTime : -1;
+		this.history.record(space.getId(), state, now);
+		this.counters.set(space.getId(), state);
+		this.trackReservation(space.getId(), deadline);
+		this.suggestions.spaceChanged(space, state);
+		if (this.replication != null)
+			this.replication.publishSpace(space, state, deadline);
+	} // publishChange
+	
+	/**
+	 * Records when a space's reservation runs out, or that it has none.
+	 * 
+	 * @param spaceId: The identifier of the space
+	 * @param deadline: The time the reservation runs out, or -1 for none
+	 */
+	private void trackReservation(String spaceId, long deadline) {
+		if (deadline < 0)
+			this.reservations.remove(spaceId);
+		else {
+			this.reservations.put(spaceId, deadline);
+			this.nextExpiry = Math.min(this.nextExpiry, deadline);
+		} // else - reserved
+	} // trackReservation
+	
+	/**
+	 * Releases any reserved space that its group controller has not reported
+	 * as available by RESERVATION_GRACE after its reservation ran out, such as
+	 * when the report was sent to a primary that has since failed.
+	 */
+	private void expireReservations() {
+		
+		long now = this.clock.millis();
+		if (now - RESERVATION_GRACE < this.nextExpiry)
+			return;
+		
+		ArrayList<ParkingSpace> expired = new ArrayList<ParkingSpace>();
+		this.nextExpiry = Long.MAX_VALUE;
+		for (Map.Entry<String, Long> entry : this.reservations.entrySet()) {
+			if (now - RESERVATION_GRACE >= entry.getValue()) {
+				ParkingSpace space = this.spaceMap.get(entry.getKey());
+				if (space != null)
+					expired.add(space);
+				else
+					this.reservations.remove(entry.getKey());
+			} // if - ran out
+			else
+				this.nextExpiry = Math.min(this.nextExpiry, entry.getValue());
+		} // for each - reservation
+		
+		if (!expired.isEmpty()) {
+			EventLog.warning("reservations_expired", "spaces", expired.size());
+			this.releaseSpaces(expired.toArray(
+					new ParkingSpace[expired.size()]));
+		} // if - any to release
+		
+	} // expireReservations
 	
 	/**
 	 * Creates a CentralControlUnit object
 	 */
-	private CentralControlUnit() {
+	CentralControlUnit() {
 		destinations = new LinkedList<Destination>();
+		entrances = new LinkedList<Entrance>();
+		routes = new HashMap<Integer, List<Route>>();
 		spaces = new LinkedList<ParkingSpace>();
-		addressMap = new HashMap<XBeeAddress64, GroupController>();
-		xBee = new XBee();
+		addressMap = new AddressTable<GroupController>();
+		entranceAddresses = new AddressTable<XBeeAddress64>();
+		spaceMap = new HashMap<String, ParkingSpace>();
+		zones = new LinkedList<LotZone>();
+		zoneMap = new HashMap<GroupController, LotZone>();
+		forecaster = new DemandForecaster();
+		health = new LinkHealth(new Clock() {
+			@Override
+			public long millis() {
+				return clock.millis(); // Follows a clock set later
+			} // millis
+		});
+		counters = new LotCounters();
+		clock = SYSTEM_CLOCK;
+		historyDirectory = new File("history");
+		events = new LinkedBlockingQueue<Runnable>();
+		dispatcher = new MessageDispatcher();
+		dispatchHandler = new MessageDispatcher.Handler() {
+			@Override
+			public void handle(int queue, long source, int type, int first, 
+					int second, int third) {
+				if (queue != MessageDispatcher.TX_STATUS)
+					processMessage(source, type, first, second, third);
+			} // handle
+		};
+		suggestions = new SuggestionCache(health);
+		reservations = new ConcurrentHashMap<String, Long>();
+		reservationTime = RESERVATION_TIME;
 	} // CentralControlUnit
 
 	/**
 	 * Adds Destination, Group Controller, and ParkingSpace objects to the 
-	 * CentralControlUnit based on input from a file.
+	 * CentralControlUnit based on input from a file. The file may also have a
+	 * ZONES section where each line names a zone followed by the identifiers
+	 * of the group controllers that belong to it. Any controllers that are not
+	 * listed are placed together in a single default zone. An ENTRANCES
+	 * section gives the position of each entrance so that the spaces that are
+	 * suggested at an entrance are the best ones for drivers coming in there.
 	 * 
 	 * @param fileName: The name of the file with the lot information
 	 * @throws IOException
 	 */
-	private void initialize(String fileName) throws IOException {
-		
-		BufferedReader br = new BufferedReader(new FileReader(fileName));
-		String nextLine;
-		
-		while ((nextLine = br.readLine()) != null) {
-		
-			if (nextLine.trim().equals("DESTINATIONS")) {
-				while (!(nextLine = br.readLine().trim())
-						.equals("END_DESTINATIONS")) {
-					if (!nextLine.isEmpty()) {
-						
-						String[] destParams = nextLine.split(" ");
-						this.destinations.add(new Destination(
-								Integer.parseInt(destParams[1]), 
-								Integer.parseInt(destParams[2]), 
-								destParams[0]));
-					
-					} // if - line not empty
-				} // while - still loading destinations
-			} // if - loading destinations
-			
-			else if (nextLine.trim().equals("GROUP_CONTROLLERS")) {
-				while (!(nextLine = br.readLine().trim())
-						.equals("END_GROUP_CONTROLLERS")) {
-					if (!nextLine.isEmpty()) {
-						
-						String[] gcParams = nextLine.split(" ", 4);
-						GroupController controller = new GroupController(
-								Integer.parseInt(gcParams[1]), 
-								Integer.parseInt(gcParams[2]), 
-								gcParams[0], gcParams[3]);
-						addressMap.put(
-								new XBeeAddress64(gcParams[3]), controller);
-						
-						while (!(nextLine = br.readLine().trim())
-								.equals("END_SPACES")) {
-							String[] spaceParams = nextLine.split(" ");
-							this.spaces.add(controller.addSpace(
-									Integer.parseInt(spaceParams[1]), 
-									Integer.parseInt(spaceParams[2]), 
-									controller.getId() + "." + spaceParams[0]));
-						} // while - adding spaces
-					
-					} // if - line not empty
-				} // while - still loading group controllers/parking spaces
-			} // else if - loading group controllers/parking spaces
-		
-		} // while - not end of file
-		br.close();
+	void initialize(String fileName) throws IOException {
+		
+		LotLayout layout = LotLayout.read(fileName);
+		HashMap<String, LotZone> zoneAssignments = 
+				new HashMap<String, LotZone>();
+		HashMap<String, LotZone> zonesById = new HashMap<String, LotZone>();
+		for (String zoneId : layout.zoneIds) {
+			LotZone zone = new LotZone(zoneId, this.health);
+			this.zones.add(zone);
+			zonesById.put(zoneId, zone);
+		} // for each - listed zone
+		for (Map.Entry<String, String> entry 
+				: layout.zoneAssignments.entrySet())
+			zoneAssignments.put(entry.getKey(), 
+					zonesById.get(entry.getValue()));
+		
+		this.destinations.addAll(layout.destinations);
+		this.entrances.addAll(layout.entrances);
+		this.routes = buildRoutes(this.destinations, this.entrances, 
+				this.routes);
+		this.addEntranceIds(this.entrances);
+		for (GroupController controller : layout.controllers.values())
+			this.addressMap.put(controller.getAddress(), controller);
+		this.spaces.addAll(layout.spaces);
+		
+		this.buildZones(zoneAssignments);
 		
 	} // initialize
 	
 	/**
-	 * Finds the current closest available parking space to each of the 
-	 * lot destinations.
+	 * Places each group controller and its parking spaces into a zone and
+	 * builds each zone's index once all of the spaces have been added.
+	 * 
+	 * @param zoneAssignments: The zone of each listed controller identifier
 	 */
-	private void updateBestSpaces() {
+	private void buildZones(HashMap<String, LotZone> zoneAssignments) {
 		
-		for (Destination dest : this.destinations) {
-			this.updateBestSpaces(dest);
-		} // for each - destination
+		LotZone defaultZone = null;
+		for (ParkingSpace space : this.spaces) {
+			
+			GroupController controller = space.getController();
+			LotZone zone = this.zoneMap.get(controller);
+			if (zone == null) {
+				zone = zoneAssignments.get(controller.getId());
+				if (zone == null) {
+					if (defaultZone == null) {
+						defaultZone = new LotZone(LotLayout.DEFAULT_ZONE, 
+								this.health);
+						this.zones.add(defaultZone);
+					} // if - default zone not created yet
+					zone = defaultZone;
+				} // if - controller not assigned to a zone
+				zone.addController(controller);
+				this.zoneMap.put(controller, zone);
+			} // if - first space of this controller
+			
+			zone.addSpace(space);
+			this.spaceMap.put(space.getId(), space);
+			
+		} // for each - space
+		
+		HashMap<String, String> spaceZones = new HashMap<String, String>();
+		for (ParkingSpace space : this.spaces)
+			spaceZones.put(space.getId(), 
+					this.zoneMap.get(space.getController()).getId());
+		this.history = new OccupancyHistory(this.historyDirectory, 
+				spaceZones);
+		
+		for (LotZone zone : this.zones)
+			zone.buildIndex(allRoutes(this.routes));
+		this.counters.rebuild(this.spaces, this.zoneMap);
+		
+	} // buildZones
+	
+	/**
+	 * Creates a route from each entrance to each destination, along with the
+	 * routes that only count the walk to each destination. A route that is
+	 * already in use is kept if its entrance and destination have not been
+	 * replaced, so that the zones can keep its index.
+	 * 
+	 * @param destinations: The destinations of the lot
+	 * @param entrances: The entrances of the lot
+	 * @param old: The routes currently in use
+	 * @return the routes of each entrance number, in destination order
+	 */
+	private static HashMap<Integer, List<Route>> buildRoutes(
+			List<Destination> destinations, List<Entrance> entrances, 
+			HashMap<Integer, List<Route>> old) {
+		
+		HashMap<Entrance, HashMap<Destination, Route>> kept = 
+				new HashMap<Entrance, HashMap<Destination, Route>>();
+		for (List<Route> list : old.values())
+			for (Route route : list) {
+				if (!kept.containsKey(route.getEntrance()))
+					kept.put(route.getEntrance(), 
+							new HashMap<Destination, Route>());
+				kept.get(route.getEntrance()).put(route.getDestination(), 
+						route);
+			} // for each - route in use
+		
+		HashMap<Integer, List<Route>> routes = 
+				new HashMap<Integer, List<Route>>();
+		ArrayList<Entrance> starts = new ArrayList<Entrance>(entrances);
+		starts.add(null);
+		for (Entrance entrance : starts) {
+			HashMap<Destination, Route> keptRoutes = kept.get(entrance);
+			ArrayList<Route> list = new ArrayList<Route>();
+			for (Destination dest : destinations) {
+				Route route = (keptRoutes == null) ? null : keptRoutes.get(dest);
+				list.add((route == null) ? new Route(entrance, dest) : route);
+			} // for each - destination
+			routes.put((entrance == null) 
+					? ANY_ENTRANCE : entrance.getNumber(), list);
+		} // for each - entrance
+		return routes;
+		
+	} // buildRoutes
+	
+	/**
+	 * Gathers every route into a single list.
+	 */
+	private static List<Route> allRoutes(HashMap<Integer, List<Route>> routes) {
+		ArrayList<Route> all = new ArrayList<Route>();
+		for (List<Route> list : routes.values())
+			all.addAll(list);
+		return all;
+	} // allRoutes
+	
+	/**
+	 * Gets the routes from an entrance to each of the destinations. If the
+	 * entrance is not in the lot file, the routes only count the walk.
+	 * 
+	 * @param entrance: The entrance number
+	 * @return the routes, in destination order
+	 */
+	private List<Route> routesFor(int entrance) {
+		List<Route> list = this.routes.get(entrance);
+		return (list == null) ? this.routes.get(ANY_ENTRANCE) : list;
+	} // routesFor
+	
+	/**
+	 * Makes room to track the message identifiers of every entrance in the
+	 * lot file.
+	 */
+	private void addEntranceIds(List<Entrance> entrances) {
+		int count = this.lastEntranceId.length;
+		for (Entrance entrance : entrances)
+			count = Math.max(count, entrance.getNumber() + 1);
+		if (count > this.lastEntranceId.length) {
+			int[] ids = Arrays.copyOf(this.lastEntranceId, count);
+			Arrays.fill(ids, this.lastEntranceId.length, count, -1);
+			this.lastEntranceId = ids;
+		} // if - more entrances than before
+	} // addEntranceIds
+	
+	/**
+	 * Starts watching the lot file so that any changes to it are applied while
+	 * the Central Control Unit is running.
+	 * 
+	 * @param fileName: The name of the file with the lot information
+	 */
+	void watchLotFile(String fileName) {
+		Thread watcher = new Thread(new ConfigWatcher(this, fileName), 
+				"ConfigWatcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	} // watchLotFile
+	
+	/**
+	 * Runs any events that other threads have queued for the main program
+	 * loop, such as a reloaded lot layout.
+	 */
+	void runEvents() {
+		Runnable event;
+		while ((event = this.events.poll()) != null)
+			event.run();
+	} // runEvents
+	
+	/**
+	 * Applies a layout that has been reloaded from the lot file. Controllers,
+	 * spaces and destinations that have not changed are kept as they are, 
+	 * along with their occupancy and reservations, and a space that has moved
+	 * keeps its state. New lookup structures are built to one side and then
+	 * swapped in, while each zone merges its part of the change into its index
+	 * on its own worker, ahead of any later searches. This is run on the main
+	 * program loop so that no message is handled part way through a change.
+	 * 
+	 * @param next: The layout read from the lot file
+	 */
+	void applyLayout(LotLayout next) {
+		
+		// Keeps each controller whose position and address are unchanged
+		HashMap<String, GroupController> oldControllers = 
+				new HashMap<String, GroupController>();
+		for (GroupController controller : this.zoneMap.keySet())
+			oldControllers.put(controller.getId(), controller);
+		HashMap<String, GroupController> controllers = 
+				new HashMap<String, GroupController>();
+		for (GroupController controller : next.controllers.values()) {
+			GroupController old = oldControllers.get(controller.getId());
+			if (old != null && samePlace(old, controller) 
+					&& old.getAddress() == controller.getAddress())
+				controller = old;
+			controllers.put(controller.getId(), controller);
+		} // for each - controller in the file
+		
+		// Keeps each unchanged space and carries over the state of moved ones
+		LinkedList<ParkingSpace> spaces = new LinkedList<ParkingSpace>();
+		HashMap<String, ParkingSpace> spaceMap = 
+				new HashMap<String, ParkingSpace>();
+		int added = 0, moved = 0;
+		for (ParkingSpace space : next.spaces) {
+			GroupController controller = 
+					controllers.get(space.getController().getId());
+			ParkingSpace old = this.spaceMap.get(space.getId());
+			if (controller != space.getController()) {
+				if (old != null && old.getController() == controller 
+						&& samePlace(old, space) 
+						&& old.getCategories() == space.getCategories())
+					space = old;
+				else
+					space = controller.addSpace(
+							space.getX() - controller.getX(), 
+							space.getY() - controller.getY(), space.getId(), 
+							space.getCategories());
+			} // if - controller kept
+			if (old == null)
+				added++;
+			else if (space != old) {
+				space.setAvailable(old.isAvailable());
+				moved++;
+			} // else if - space moved
+			spaces.add(space);
+			spaceMap.put(space.getId(), space);
+		} // for each - space in the file
+		int removed = 0;
+		for (ParkingSpace old : this.spaces) {
+			if (!spaceMap.containsKey(old.getId())) {
+				old.getController().removeSpace(number(old));
+				this.history.setZone(old.getId(), null);
+				removed++;
+			} // if - space no longer in the file
+		} // for each - old space
+		
+		// Keeps each destination that has not moved
+		HashMap<String, Destination> oldDestinations = 
+				new HashMap<String, Destination>();
+		for (Destination dest : this.destinations)
+			oldDestinations.put(dest.getId(), dest);
+		LinkedList<Destination> destinations = new LinkedList<Destination>();
+		List<Destination> addedDestinations = new ArrayList<Destination>();
+		for (Destination dest : next.destinations) {
+			Destination old = oldDestinations.remove(dest.getId());
+			if (old != null && samePlace(old, dest))
+				dest = old;
+			else
+				addedDestinations.add(dest);
+			destinations.add(dest);
+		} // for each - destination in the file
+		List<Destination> removedDestinations = 
+				new ArrayList<Destination>(oldDestinations.values());
+		
+		// Keeps each entrance that has not moved, and the routes between
+		// entrances and destinations that were both kept
+		HashMap<String, Entrance> oldEntrances = new HashMap<String, Entrance>();
+		for (Entrance entrance : this.entrances)
+			oldEntrances.put(entrance.getId(), entrance);
+		LinkedList<Entrance> entrances = new LinkedList<Entrance>();
+		for (Entrance entrance : next.entrances) {
+			Entrance old = oldEntrances.get(entrance.getId());
+			entrances.add((old != null && samePlace(old, entrance)) 
+					? old : entrance);
+		} // for each - entrance in the file
+		HashMap<Integer, List<Route>> routes = 
+				buildRoutes(destinations, entrances, this.routes);
+		List<Route> allRoutes = allRoutes(routes);
+		HashSet<Route> oldRoutes = new HashSet<Route>(allRoutes(this.routes));
+		List<Route> addedRoutes = new ArrayList<Route>();
+		for (Route route : allRoutes)
+			if (!oldRoutes.remove(route))
+				addedRoutes.add(route);
+		List<Route> removedRoutes = new ArrayList<Route>(oldRoutes);
+		
+		// Finds the zone of every controller, creating any new zones
+		HashMap<String, LotZone> zonesById = new HashMap<String, LotZone>();
+		for (LotZone zone : this.zones)
+			zonesById.put(zone.getId(), zone);
+		HashMap<GroupController, LotZone> zoneMap = 
+				new HashMap<GroupController, LotZone>();
+		LinkedHashSet<LotZone> zones = new LinkedHashSet<LotZone>();
+		for (ParkingSpace space : spaces) {
+			GroupController controller = space.getController();
+			if (!zoneMap.containsKey(controller)) {
+				String zoneId = next.getZone(controller.getId());
+				LotZone zone = zonesById.get(zoneId);
+				if (zone == null) {
+					zone = new LotZone(zoneId, this.health);
+					zonesById.put(zoneId, zone);
+				} // if - new zone
+				zoneMap.put(controller, zone);
+				zones.add(zone);
+			} // if - first space of this controller
+		} // for each - space
+		
+		// Works out what joined and left each zone
+		HashMap<LotZone, List<GroupController>> removedControllers = 
+				new HashMap<LotZone, List<GroupController>>();
+		HashMap<LotZone, List<GroupController>> addedControllers = 
+				new HashMap<LotZone, List<GroupController>>();
+		HashMap<LotZone, List<ParkingSpace>> removedSpaces = 
+				new HashMap<LotZone, List<ParkingSpace>>();
+		HashMap<LotZone, List<ParkingSpace>> addedSpaces = 
+				new HashMap<LotZone, List<ParkingSpace>>();
+		for (Map.Entry<GroupController, LotZone> entry 
+				: this.zoneMap.entrySet())
+			if (zoneMap.get(entry.getKey()) != entry.getValue())
+				addTo(removedControllers, entry.getValue(), entry.getKey());
+		for (Map.Entry<GroupController, LotZone> entry : zoneMap.entrySet())
+			if (this.zoneMap.get(entry.getKey()) != entry.getValue())
+				addTo(addedControllers, entry.getValue(), entry.getKey());
+		for (ParkingSpace old : this.spaces) {
+			LotZone zone = this.zoneMap.get(old.getController());
+			if (spaceMap.get(old.getId()) != old 
+					|| zoneMap.get(old.getController()) != zone)
+				addTo(removedSpaces, zone, old);
+		} // for each - old space
+		for (ParkingSpace space : spaces) {
+			LotZone zone = zoneMap.get(space.getController());
+			if (this.spaceMap.get(space.getId()) != space 
+					|| this.zoneMap.get(space.getController()) != zone) {
+				addTo(addedSpaces, zone, space);
+				this.history.setZone(space.getId(), zone.getId());
+			} // if - space joined the zone
+		} // for each - space
 		
+		// Hands each zone its part of the change
+		List<ParkingSpace> noSpaces = Collections.emptyList();
+		List<GroupController> noControllers = Collections.emptyList();
+		HashSet<LotZone> allZones = new HashSet<LotZone>(this.zones);
+		allZones.addAll(zones);
+		for (LotZone zone : allZones) {
+			List<GroupController> zoneRemovedControllers = 
+					removedControllers.get(zone);
+			List<GroupController> zoneAddedControllers = 
+					addedControllers.get(zone);
+			List<ParkingSpace> zoneRemovedSpaces = removedSpaces.get(zone);
+			List<ParkingSpace> zoneAddedSpaces = addedSpaces.get(zone);
+			zone.update(
+					(zoneRemovedControllers == null) 
+							? noControllers : zoneRemovedControllers, 
+					(zoneAddedControllers == null) 
+							? noControllers : zoneAddedControllers, 
+					(zoneRemovedSpaces == null) ? noSpaces : zoneRemovedSpaces, 
+					(zoneAddedSpaces == null) ? noSpaces : zoneAddedSpaces, 
+					removedRoutes, 
+					this.zones.contains(zone) ? addedRoutes : allRoutes);
+			if (!zones.contains(zone))
+				zone.close();
+		} // for each - zone
+		
+		// Swaps in the new layout
+		AddressTable<GroupController> addressMap = 
+				new AddressTable<GroupController>();
+		for (GroupController controller : controllers.values())
+			addressMap.put(controller.getAddress(), controller);
+		this.destinations = destinations;
+		this.entrances = entrances;
+		this.routes = routes;
+		this.addEntranceIds(entrances);
+		this.spaces = spaces;
+		this.addressMap = addressMap;
+		this.spaceMap = spaceMap;
+		this.zoneMap = zoneMap;
+		this.zones = new LinkedList<LotZone>(zones);
+		this.counters.rebuild(spaces, zoneMap);
+		this.updateBestSpaces();
+		
+		EventLog.info("lot_reloaded", "spaces_added", added, 
+				"spaces_removed", removed, "spaces_moved", moved, 
+				"destinations_added", addedDestinations.size(), 
+				"destinations_removed", removedDestinations.size());
+		
+	} // applyLayout
+	
+	/**
+	 * Checks if two lot entities are at the same position.
+	 */
+	private static boolean samePlace(LotEntity a, LotEntity b) {
+		return a.getX() == b.getX() && a.getY() == b.getY();
+	} // samePlace
+	
+	/**
+	 * Adds an item to a zone's list in a map, creating the list if needed.
+	 */
+	private static <T> void addTo(HashMap<LotZone, List<T>> map, 
+			LotZone zone, T item) {
+		List<T> list = map.get(zone);
+		if (list == null) {
+			list = new ArrayList<T>();
+			map.put(zone, list);
+		} // if - first item for the zone
+		list.add(item);
+	} // addTo
+	
+	/**
+	 * Gets the number that a space's group controller uses for it.
+	 */
+	private static int number(ParkingSpace space) {
+		return Integer.parseInt(space.getId().substring(
+				space.getId().lastIndexOf('.') + 1));
+	} // number
+	
+	/**
+	 * Finds the current closest available parking space of each category to
+	 * each of the lot destinations, and fills the suggestion cache for every
+	 * entrance.
+	 */
+	void updateBestSpaces() {
+		this.updateBestSpaces(this.routes.get(ANY_ENTRANCE));
+		this.suggestions.rebuild(this.routes);
+		this.refillSuggestions(SuggestionCache.MIN_CANDIDATES, null);
 	} // updateBestSpaces
 	
 	/**
-	 * Finds the current closest available parking space to a single 
-	 * destination.
+	 * Finds the current closest available parking space of each category to
+	 * a single destination.
 	 * 
-	 * @param dest: The destination who's best space should be found
+	 * @param dest: The destination who's best spaces should be found
 	 */
 	private void updateBestSpaces(Destination dest) {
+		for (Route route : this.routes.get(ANY_ENTRANCE))
+			if (route.getDestination() == dest)
+				this.updateBestSpaces(Collections.singletonList(route));
+	} // updateBestSpaces - single destination
+	
+	/**
+	 * Finds the current closest available parking space of each category to
+	 * the destination of each of the given walking routes. Every zone is
+	 * asked for its best space of every category at once, and the closest of
+	 * those is kept.
+	 * 
+	 * @param walks: The routes that only count the walk to each destination
+	 */
+	private void updateBestSpaces(List<Route> walks) {
 		
-		Double shortestDistance = -1.0;
-		ParkingSpace bestSpace = null;
+		HashMap<Route, List<Future<ParkingSpace[]>>> searches = 
+				new HashMap<Route, List<Future<ParkingSpace[]>>>();
+		for (Route walk : walks) {
+			List<Future<ParkingSpace[]>> zoneSearches = 
+					new ArrayList<Future<ParkingSpace[]>>();
+			for (LotZone zone : this.zones)
+				zoneSearches.add(zone.bestOfEachCategory(walk));
+			searches.put(walk, zoneSearches);
+		} // for each - destination
 		
-		for (ParkingSpace space : this.spaces) {
-			if (space.isAvailable()) {
-		
-				Double distance = dest.distance(space);
-				if (distance < shortestDistance 
-						|| shortestDistance < 0.0) {
-					shortestDistance = distance;
-					bestSpace = space;
-				} // if - space is closer than previous best
+		for (Route walk : walks) {
+			Destination dest = walk.getDestination();
+			ParkingSpace[] best = new ParkingSpace[ParkingSpace.CATEGORIES];
+			for (Future<ParkingSpace[]> search : searches.get(walk)) {
+				ParkingSpace[] zoneBest = await(search);
+				for (int i = 0; i < best.length; i++)
+					if (zoneBest[i] != null && (best[i] == null 
+							|| dest.distance(zoneBest[i]) 
+							< dest.distance(best[i])))
+						best[i] = zoneBest[i];
+			} // for each - zone's best spaces
+			for (int i = 0; i < best.length; i++)
+				dest.setBestSpace(i, best[i]);
+		} // for each - destination
+		
+	} // updateBestSpaces - several destinations
+	
+	/**
+	 * Finds up to k of the available spaces of a category that cost the least
+	 * on each of the given routes. The search is handed out to every zone at
+	 * once so that the zones are searched in parallel, and then the results
+	 * of each zone are merged into a single list for each route.
+	 * 
+	 * @param routes: The routes to find spaces for
+	 * @param k: The maximum number of spaces to find for each route
+	 * @param category: The category of the spaces
+	 * @return the best available spaces for each route, best first
+	 */
+	private HashMap<Route, List<ParkingSpace>> findBestSpaces(
+			List<Route> routes, int k, int category) {
+		
+		// Starts the search of every zone for every route
+		HashMap<Route, List<Future<List<ParkingSpace>>>> searches = 
+				new HashMap<Route, List<Future<List<ParkingSpace>>>>();
+		for (Route route : routes) {
+			List<Future<List<ParkingSpace>>> zoneSearches = 
+					new ArrayList<Future<List<ParkingSpace>>>();
+			for (LotZone zone : this.zones)
+				zoneSearches.add(zone.bestSpaces(route, k, category));
+			searches.put(route, zoneSearches);
+		} // for each - route
+		
+		// Merges the results of each zone
+		HashMap<Route, List<ParkingSpace>> best = 
+				new HashMap<Route, List<ParkingSpace>>();
+		for (final Route route : routes) {
+			
+			ArrayList<ParkingSpace> merged = new ArrayList<ParkingSpace>();
+			for (Future<List<ParkingSpace>> search : searches.get(route))
+				merged.addAll(await(search));
+			
+			Collections.sort(merged, new Comparator<ParkingSpace>() {
+				@Override
+				public int compare(ParkingSpace a, ParkingSpace b) {
+					return Double.compare(route.cost(a), route.cost(b));
+				} // compare
+			});
+			best.put(route, merged.size() > k 
+					? new ArrayList<ParkingSpace>(merged.subList(0, k)) 
+					: merged);
+			
+		} // for each - route
+		
+		return best;
+	} // findBestSpaces
+	
+	/**
+	 * Chooses a different space for each destination, cheapest first on the
+	 * route from the vehicle's entrance, and takes all of them at once so
+	 * that no other request can be given the same spaces. If a space is taken
+	 * by something else between being chosen and being reserved, nothing is
+	 * reserved and the spaces are chosen again.
+	 * 
+	 * @param entrance: The entrance that the vehicle came in through
+	 * @param category: The category of space that the vehicle asked for
+	 * @return the reserved spaces, in destination order
+	 */
+	private ParkingSpace[] reserveBestSpaces(int entrance, int category) {
+		
+		List<Route> routes = this.routesFor(entrance);
+		while (true) {
+			
+			// Gets enough candidates that each destination can have its own
+			HashMap<Route, List<ParkingSpace>> candidates = 
+					this.findBestSpaces(routes, routes.size(), category);
+			LinkedHashSet<ParkingSpace> chosen = 
+					new LinkedHashSet<ParkingSpace>();
+			for (Route route : routes) {
+				for (ParkingSpace space : candidates.get(route)) {
+					if (chosen.add(space))
+						break;
+				} // for each - candidate, best first
+			} // for each - destination
 			
-			} // if - space is available
+			if (this.commitReservations(this.groupByZone(chosen)))
+				return chosen.toArray(new ParkingSpace[chosen.size()]);
+			
+		} // while - reservation not committed
+		
+	} // reserveBestSpaces
+	
+	/**
+	 * Reserves the best space of a category that is kept for each
+	 * destination, so that the lot does not have to be searched. These are
+	 * the closest spaces to walk from, so the drive from the entrance is not
+	 * counted.
+	 * 
+	 * @param category: The category of space that the vehicle asked for
+	 * @return the reserved spaces, in destination order, or null if a
+	 * destination has no best space, two destinations share one, or one of
+	 * them could not be reserved
+	 */
+	private ParkingSpace[] reserveIndexedSpaces(int category) {
+		
+		LinkedHashSet<ParkingSpace> chosen = new LinkedHashSet<ParkingSpace>();
+		for (Destination dest : this.destinations) {
+			ParkingSpace best = dest.getBestSpace(category);
+			if (best == null || !chosen.add(best))
+				return null;
+		} // for each - destination
+		
+		if (chosen.isEmpty() 
+				|| !this.commitReservations(this.groupByZone(chosen)))
+			return null;
+		return chosen.toArray(new ParkingSpace[chosen.size()]);
+		
+	} // reserveIndexedSpaces
+	
+	/**
+	 * Tops up the suggestion cache for each entrance that vehicles are
+	 * expected at soon, so that a rush of arrivals can be answered from the
+	 * cache for longer before a route runs low. Any route that has run low is
+	 * refilled as well.
+	 */
+	void prepareSuggestions() {
+		
+		long now = this.clock.millis();
+		this.refillSuggestions(SuggestionCache.MIN_CANDIDATES, null);
+		for (int i = 0; i < this.lastEntranceId.length; i++)
+			if (this.forecaster.expectedArrivals(i, now, SUGGESTION_HORIZON) 
+					>= 1)
+				this.refillSuggestions(this.suggestions.getCapacity(), i);
+		
+	} // prepareSuggestions
+	
+	/**
+	 * Searches the zones for the routes of the suggestion cache that have too
+	 * few spaces, all at once.
+	 * 
+	 * @param minimum: The fewest spaces a route should have
+	 * @param entrance: The entrance number, or null for every entrance
+	 */
+	private void refillSuggestions(int minimum, Integer entrance) {
+		
+		List<Route> low = this.suggestions.routesBelow(minimum, entrance);
+		if (low.isEmpty())
+			return;
+		for (Map.Entry<Route, List<ParkingSpace>> entry : this.findBestSpaces(
+				low, this.suggestions.getCapacity(), ParkingSpace.GENERAL)
+				.entrySet())
+			this.suggestions.refill(entry.getKey(), entry.getValue());
+		
+	} // refillSuggestions
+	
+	/**
+	 * Groups a set of spaces by the zone that owns them.
+	 * 
+	 * @param spaces: The spaces to group
+	 * @return the spaces of each zone
+	 */
+	private HashMap<LotZone, List<ParkingSpace>> groupByZone(
+			Iterable<ParkingSpace> spaces) {
+		
+		HashMap<LotZone, List<ParkingSpace>> byZone = 
+				new HashMap<LotZone, List<ParkingSpace>>();
+		for (ParkingSpace space : spaces) {
+			LotZone zone = this.zoneMap.get(space.getController());
+			if (!byZone.containsKey(zone))
+				byZone.put(zone, new ArrayList<ParkingSpace>());
+			byZone.get(zone).add(space);
 		} // for each - space
+		return byZone;
 		
-		dest.setBestSpace(bestSpace);
+	} // groupByZone
+	
+	/**
+	 * Reserves spaces across several zones so that either every space is
+	 * reserved or none of them are.
+	 * 
+	 * @param byZone: The spaces to reserve, grouped by zone
+	 * @return true if all of the spaces were reserved
+	 */
+	private boolean commitReservations(
+			HashMap<LotZone, List<ParkingSpace>> byZone) {
 		
-	} // updateBestSpaces - single destination
+		HashMap<LotZone, Future<Boolean>> results = 
+				new HashMap<LotZone, Future<Boolean>>();
+		for (Map.Entry<LotZone, List<ParkingSpace>> entry : byZone.entrySet())
+			results.put(entry.getKey(), 
+					entry.getKey().reserve(entry.getValue()));
+		
+		boolean committed = true;
+		for (Future<Boolean> result : results.values())
+			committed &= await(result);
+		
+		// Gives back the spaces of any zone that succeeded if one failed
+		if (!committed) {
+			for (Map.Entry<LotZone, Future<Boolean>> entry : results.entrySet())
+				if (await(entry.getValue()))
+					await(entry.getKey().release(byZone.get(entry.getKey())));
+		} // if - a zone could not reserve its spaces
+		
+		return committed;
+	} // commitReservations
+	
+	/**
+	 * Waits for a task on one of the zone workers to complete and returns its
+	 * result.
+	 * 
+	 * @param future: The pending result of the task
+	 * @return the result of the task
+	 */
+	private static <T> T await(Future<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} // try-catch
+	} // await
 	
 	/**
-	 * Checks if a newly available space is the best available space for any of
-	 * the lot destinations and sets it as the destinations bestSpace if so.
+	 * Checks if a newly available space is the best available space of any of
+	 * its categories for any of the lot destinations and sets it as the 
+	 * destinations best space of that category if so.
 	 * 
 	 * @param space: The space to check
 	 */
 	private void checkIfBestSpace(ParkingSpace space) {
 		for (Destination dest : this.destinations)
-			if (dest.getBestSpace() == null || 
-			dest.distance(space) < dest.distance(dest.getBestSpace()))
-				dest.setBestSpace(space);
+			for (int category = 0; category < ParkingSpace.CATEGORIES; 
+					category++) {
+				ParkingSpace best = dest.getBestSpace(category);
+				if (space.isIn(category) && (best == null || 
+				dest.distance(space) < dest.distance(best)))
+					dest.setBestSpace(category, space);
+			} // for - each category
 	} // checkIfBestSpace
-
+	
+	/**
+	 * Finds new best spaces for any destination that a space which is no
+	 * longer available was one of the best spaces of.
+	 * 
+	 * @param space: The space that was taken
+	 */
+	private void replaceBestSpace(ParkingSpace space) {
+		for (Destination dest : this.destinations) {
+			for (int category = 0; category < ParkingSpace.CATEGORIES; 
+					category++)
+				if (dest.getBestSpace(category) == space) {
+					this.updateBestSpaces(dest);
+					break;
+				} // if - space was one of the destination's best
+		} // for - check if space was any destination's best
+	} // replaceBestSpace
+	
+	/**
+	 * Takes an XBee response from the xbee-api library and queues it to be
+	 * processed. Transmit statuses that were not taken by a sender are queued
+	 * as well, on their own, so that they are cleared without getting in the
+	 * way of the lot. This may be called from any thread.
+	 * 
+	 * @param response: The XBee response object received from the radio.
+	 */
+	private void queueResponse(XBeeResponse response) {
+		
+		if (response.getApiId() == ApiId.ZNET_RX_RESPONSE) {
+			ZNetRxResponse rxResponse = (ZNetRxResponse)response;
+			int[] data = rxResponse.getData();
+			this.queueMessage(
+					RadioFrame.toLong(rxResponse.getRemoteAddress64()), 
+					data[0], data.length > 1 ? data[1] : 0, 
+					data.length > 2 ? data[2] : 0, 
+					data.length > 3 ? data[3] : 0);
+		} // if - RX response
+		
+		else if (response.getApiId() == ApiId.ZNET_TX_STATUS_RESPONSE) {
+			this.dispatcher.add(MessageDispatcher.TX_STATUS, 
+					this.clock.millis(), 0, 
+					((ZNetTxStatusResponse)response).getFrameId(), 0, 0, 0);
+		} // else if - TX status
+		
+		else {
+			EventLog.warning("unexpected_api_id", "api_id", 
+					response.getApiId());
+		} // else - error
+		
+	} // queueResponse
+	
 	/**
-	 * Takes an XBee response and processes it. The different types of messages
-	 * that are expected and their formats are as follows:
+	 * Takes a frame from a RawRadio and queues it to be processed. The frame
+	 * can be released as soon as this returns.
+	 * 
+	 * @param frame: The frame received from the radio
+	 */
+	private void queueFrame(RadioFrame frame) {
+		
+		int length = frame.getPayloadLength();
+		if (length == 0)
+			return;
+		this.queueMessage(frame.getSource(), frame.getPayload(0), 
+				length > 1 ? frame.getPayload(1) : 0, 
+				length > 2 ? frame.getPayload(2) : 0, 
+				length > 3 ? frame.getPayload(3) : 0);
+		
+	} // queueFrame
+	
+	/**
+	 * Queues a message received from another radio to be processed once its
+	 * turn comes. Messages are queued by their type, so that vehicles at an
+	 * entrance are not held up behind status updates.
+	 * 
+	 * @param source: The 64-bit address of the radio that sent the message
+	 * @param type: The first integer of the message
+	 * @param first: The second integer of the message, or 0
+	 * @param second: The third integer of the message, or 0
+	 * @param third: The fourth integer of the message, or 0
+	 */
+	void queueMessage(long source, int type, int first, int second, 
+			int third) {
+		this.dispatcher.add(MessageDispatcher.queueOf(type), 
+				this.clock.millis(), source, type, first, second, third);
+	} // queueMessage
+	
+	/**
+	 * Processes the queued message whose turn it is.
+	 * 
+	 * @return true if a message was processed, false if none were queued
+	 */
+	boolean dispatchNext() {
+		return this.dispatcher.dispatch(this.clock.millis(), 
+				this.dispatchHandler);
+	} // dispatchNext
+	
+	/**
+	 * Processes a single message received from another radio. A message from
+	 * a group controller or an entrance shows that its radio can be reached,
+	 * so it is no longer treated as unreachable. The different types of
+	 * messages that are expected and their formats are as follows:
 	 * 
 	 * Vehicle detected at an entrance:
 	 * 		First integer = 'E'
@@ -199,12 +1323,25 @@ public class CentralControlUnit {
 	 * Entrance Controller is lost, causing the Entrance Controller to re-send
 	 * 'E' message. It is an integer between 0 and 255 and each Entrance 
 	 * Controller has it's own counter.)
-	 * 		- When this message is received, the coordinates of each
-	 * destinations best space will be sent back to the Entrance Controller
-	 * and each of these spaces will be set to not available. Then a
+	 * 		Third integer = the entrance number
+	 * 		Fourth integer (optional) = the category of space wanted: 'A' for
+	 * accessible, 'E' for an EV charger, 'C' for compact or 'P' for permit
+	 * holders. If it is left out, any space that is not accessible and does
+	 * not need a permit can be suggested.
+	 * 		- When this message is received, a different space of the category
+	 * is chosen for each destination, with the shortest drive from the
+	 * entrance plus walk to the destination, and set to not available, and the
+	 * coordinates of those spaces will be sent back to the Entrance
+	 * Controller. For a category, the best space of that category kept for
+	 * each destination is used if they are all different, and the lot is only
+	 * searched otherwise. If there are no available spaces of the category,
+	 * general spaces are chosen instead. For general spaces, the suggestion
+	 * kept ready for the entrance in the suggestion cache is used, along with
+	 * its encoded message, so the lot is not searched. If any of the entrance's
+	 * routes have run low, only those routes are searched first. Then a
 	 * reservation request message will be sent to each of those spaces Group
-	 * Controllers and new best spaces will be found for each of the
-	 * destinations.
+	 * Controllers, and any routes of the cache that have run low are
+	 * refilled.
 	 * 
 	 * Space status update:
 	 * 		First integer = 'S'
@@ -214,82 +1351,126 @@ public class CentralControlUnit {
 	 * number under the Group Controller that sent the message will be updated
 	 * to the specified state.
 	 * 
-	 * @param response: The XBee response object received from the radio.
+	 * @param source: The 64-bit address of the radio that sent the message
+	 * @param type: The first integer of the message
+	 * @param first: The second integer of the message
+	 * @param second: The third integer of the message
+	 * @param third: The fourth integer of the message, or 0 if there is none
 	 */
-	private void processResponse(XBeeResponse response) {
+	void processMessage(long source, int type, int first, 
+			int second, int third) {
 		
-		if (response.getApiId() == ApiId.ZNET_RX_RESPONSE) {
+		// Any message shows that its sender can be reached again
+		GroupController sender = this.addressMap.get(source);
+		XBeeAddress64 address = (sender != null) ? sender.getAddress64()
+				: (type == 'E') ? this.entranceAddress(source) : null;
+		if (address != null)
+			this.health.recordHeard(address, this.clock.millis());
+		
+		if (type == 'E') {
 			
-			ZNetRxResponse rxResponse = (ZNetRxResponse)response;
-			if (rxResponse.getData()[0] == 'E') {
+			int entranceId = first;
+			int entranceController = second;
+			int category = (third == 0) 
+					? ParkingSpace.GENERAL : ParkingSpace.category(third);
+			if (category < 0) {
+				EventLog.warning("unknown_space_category", 
+						"source", Long.toHexString(source), 
+						"category", third);
+				category = ParkingSpace.GENERAL;
+			} // if - unknown category
+			
+			if (entranceId > this.lastEntranceId[entranceController]) {
 				
-				int entranceId = rxResponse.getData()[1];
-				int entranceController = rxResponse.getData()[2];
+				// Update the lastEntranceId variable for the controller
+				this.lastEntranceId[entranceController]++;
+				if (entranceId >= 255)
+					this.lastEntranceId[entranceController] = -1;
+				if (this.replication != null)
+					this.replication.publishEntranceId(entranceController,
+							this.lastEntranceId[entranceController]);
 				
-				if (entranceId > this.lastEntranceId[entranceController]) {
-					
-					// Update the lastEntranceId variable for the controller
-					this.lastEntranceId[entranceController]++;
-					if (entranceId >= 255)
-						this.lastEntranceId[entranceController] = -1;
-					
-					ParkingSpace[] reservedSpaces = this.sendBestSpaces(
-							rxResponse.getRemoteAddress64());
-					this.sendReservationRequests(reservedSpaces);
-					this.updateBestSpaces();
-					
-				} // if - not a repeat message
+				this.forecaster.recordArrival(entranceController, 
+						this.clock.millis());
+				ParkingSpace[] reservedSpaces = null;
+				int[] reply = null;
+				if (category == ParkingSpace.GENERAL 
+						&& !this.suggestions.isReady(entranceController))
+					this.refillSuggestions(SuggestionCache.MIN_CANDIDATES, 
+							entranceController); // Only the routes run low
+				if (category == ParkingSpace.GENERAL 
+						&& this.suggestions.isReady(entranceController)) {
+					reservedSpaces = this.suggestions.getFirstChoices(
+							entranceController);
+					reply = this.suggestions.getReply(entranceController);
+					if (!this.commitReservations(this.groupByZone(
+							Arrays.asList(reservedSpaces)))) {
+						reservedSpaces = null;
+						reply = null;
+					} // if - a space was taken by something else
+				} // if - suggestion ready in the cache
+				if (category != ParkingSpace.GENERAL)
+					reservedSpaces = this.reserveIndexedSpaces(category);
+				if (reservedSpaces == null && category != ParkingSpace.GENERAL)
+					reservedSpaces = this.reserveBestSpaces(
+							entranceController, category);
+				if (reservedSpaces == null || reservedSpaces.length == 0)
+					reservedSpaces = this.reserveBestSpaces(
+							entranceController, ParkingSpace.GENERAL);
+				for (ParkingSpace space : reservedSpaces)
+					this.publishChange(space, OccupancyHistory.RESERVED);
+				this.sendBestSpaces(address, reservedSpaces, reply);
+				for (ParkingSpace space : reservedSpaces)
+					this.replaceBestSpace(space);
+				this.refillSuggestions(SuggestionCache.MIN_CANDIDATES, null);
 				
-			} // if - vehicle detected at entrance
+			} // if - not a repeat message
 			
-			else if (rxResponse.getData()[0] == 'S') {
-				
-				// Finds the correct parking space object
-				ParkingSpace updatedSpace = null;
-				for (ParkingSpace space : this.spaces)
-					if (space.getId().equals(this.addressMap.get(
-							rxResponse.getRemoteAddress64()).getId() 
-							+ "." + rxResponse.getData()[1]))
-						updatedSpace = space;
-				
-				// Changes the state of the space if it was found
-				if (updatedSpace == null)
-					System.out.println("Error: Unable to find updated space");
-				else {
-					if (rxResponse.getData()[2] == 'A') {
-						updatedSpace.setAvailable(true);
-						this.checkIfBestSpace(updatedSpace);
-					} // if - space became available
-					else if (rxResponse.getData()[2] == 'O') {
-						updatedSpace.setAvailable(false);
-						for (Destination dest : this.destinations) {
-							if (dest.getBestSpace() == updatedSpace)
-								this.updateBestSpaces(dest);
-						} // for - check if space was any destination's best
-					} // else if - space became occupied
-				} // else - space found and updated
-					
-			} // else if - space status update
+		} // if - vehicle detected at entrance
+		
+		else if (type == 'S') {
 			
-			else {
-				System.out.println("Unknown packet received:" + rxResponse.getData()[0]);
-			} // else - error
+			// Finds the correct parking space object
+			ParkingSpace updatedSpace = (sender == null) ? null
+					: sender.getSpace(first);
 			
-		} // if - RX response
-		
-		else if (response.getApiId() == ApiId.ZNET_TX_STATUS_RESPONSE)
-			return;
+			// Changes the state of the space if it was found
+			if (updatedSpace == null)
+				EventLog.warning("unknown_space", 
+						"source", Long.toHexString(source), "space", first);
+			else if (second == 'A' || second == 'O')
+				this.updateSpace(updatedSpace, second == 'A');
+				
+		} // else if - space status update
 		
 		else {
-			System.out.println("Error: unexpected ApiId:" + response.getApiId());
+			EventLog.warning("unknown_packet", 
+					"source", Long.toHexString(source), "type", type);
 		} // else - error
 		
-	} // processResponse
+	} // processMessage
+	
+	/**
+	 * Gets the address object of an entrance controller's radio, making it
+	 * the first time that the radio is heard from so that later requests do
+	 * not create one.
+	 * 
+	 * @param source: The 64-bit address of the radio
+	 * @return the address of the radio
+	 */
+	private XBeeAddress64 entranceAddress(long source) {
+		XBeeAddress64 address = this.entranceAddresses.get(source);
+		if (address == null) {
+			address = RadioFrame.toAddress64(source);
+			this.entranceAddresses.put(source, address);
+		} // if - first request from the radio
+		return address;
+	} // entranceAddress
 	
 	/**
-	 * This method takes each destinations best space, sets them as not 
-	 * available and sends their coordinates to the supplied address in a
-	 * "Display spaces" message. The format of this message type is:
+	 * This method sends the coordinates of each of the reserved spaces to the
+	 * supplied address in a "Display spaces" message. The format of this 
+	 * message type is:
 	 * 		First integer = 'D'
 	 * 		Second integer = x coordinate 0
 	 * 		Third integer = y coordinate 0
@@ -297,53 +1478,58 @@ public class CentralControlUnit {
 	 * 		...	
 	 * 		Last integer = y coordinate n
 	 * 
-	 * It then returns all of the ParkingSpace objects that were best spaces.
+	 * Once the entrance controller has received the message, reservation
+	 * requests are sent for each of the spaces. If it could not be reached,
+	 * the spaces are made available again instead.
 	 * 
-	 * @param dest: The address to send the message to
-	 * @return an array of ParkingSpace objects that were the best spaces
+	 * @param address: The address to send the message to
+	 * @param bestSpaces: The spaces that were reserved for the vehicle
+	 * @param message: The message already encoded by the suggestion cache,
+	 * or null to encode it here
 	 */
-	private ParkingSpace[] sendBestSpaces(XBeeAddress64 address) {
+	private void sendBestSpaces(XBeeAddress64 address, 
+			final ParkingSpace[] bestSpaces, int[] message) {
 		
-		// Gets a list of all spaces best spaces that exist
-		ArrayList<ParkingSpace> trimmedSpaces = new ArrayList<>();
-		for (int i = 0; i < this.destinations.size(); i++) {
-			if (this.destinations.get(i).getBestSpace() != null) {
-				trimmedSpaces.add(this.destinations.get(i).getBestSpace());
-				this.destinations.get(i).getBestSpace().setAvailable(false);
-			} // if - space exists
-		} // for - put each best space into an array list
-		
-		// Pack best spaces into an array to be returned
-		ParkingSpace[] bestSpaces = new ParkingSpace[trimmedSpaces.size()];
-		for (int i = 0; i < trimmedSpaces.size(); i++)
-			bestSpaces[i] = trimmedSpaces.get(i);
-		
-		int[] payload = new int[bestSpaces.length*4 + 1];
-		payload[0] = 'D';
-		for (int i = 0; i < bestSpaces.length; i++) {
-			if (bestSpaces[i] != null) {
-				payload[i*4 + 1] = (bestSpaces[i].getX() >> 8) & 0xFF;
-				payload[i*4 + 2] = bestSpaces[i].getX() & 0xFF;
-				payload[i*4 + 3] = (bestSpaces[i].getY() >> 8) & 0xFF;
-				payload[i*4 + 4] = bestSpaces[i].getY() & 0xFF;
-			} // if - space exists
-		} // for - add coordinates to the payload
+		int[] payload = message;
+		if (payload == null) {
+			payload = new int[bestSpaces.length*4 + 1];
+			payload[0] = 'D';
+			for (int i = 0; i < bestSpaces.length; i++) {
+				if (bestSpaces[i] != null) {
+					payload[i*4 + 1] = (bestSpaces[i].getX() >> 8) & 0xFF;
+					payload[i*4 + 2] = bestSpaces[i].getX() & 0xFF;
+					payload[i*4 + 3] = (bestSpaces[i].getY() >> 8) & 0xFF;
+					payload[i*4 + 4] = bestSpaces[i].getY() & 0xFF;
+				} // if - space exists
+			} // for - add coordinates to the payload
+		} // if - not encoded ahead of time
+		else if (this.runtime != null)
+			payload = payload.clone(); // Kept until the conversation is done
 		
-		ZNetTxRequest message = new ZNetTxRequest(address, payload);
-		while(true) {
-			try {
-				ZNetTxStatusResponse response = (ZNetTxStatusResponse)this.xBee
-						.sendSynchronous(message, 3000);
-				if (response.isSuccess())
-					break;
-				else
-					throw new XBeeException();
-			} catch (XBeeException e) {
-				continue; // Message failed, try again
-			} // try-catch
-		} // while - trying to send the message
+		if (this.runtime == null) {
+			if (this.transmit(address, payload))
+				this.sendReservationRequests(bestSpaces);
+			else
+				this.releaseSpaces(bestSpaces);
+			return;
+		} // if - sending on the main thread
+		
+		// Finishes on the main thread once the conversation is done
+		this.runtime.send(address, payload, new MessageSender.Callback() {
+			@Override
+			public void completed(final boolean delivered) {
+				events.add(new Runnable() {
+					@Override
+					public void run() {
+						if (delivered)
+							sendReservationRequests(bestSpaces);
+						else
+							releaseSpaces(bestSpaces);
+					} // run
+				});
+			} // completed
+		});
 		
-		return bestSpaces;
 	} // sendBestSpaces
 	
 	/**
@@ -357,33 +1543,168 @@ public class CentralControlUnit {
 	 */
 	private void sendReservationRequests(ParkingSpace[] spaces) {
 
-		for (ParkingSpace space : spaces) {
+		for (final ParkingSpace space : spaces) {
 			if (space != null) {
 				XBeeAddress64 address = space.getController().getAddress64();
-				ZNetTxRequest message = new ZNetTxRequest(address, new int[] {'R', 
+				int[] payload = new int[] {'R', 
 						Integer.parseInt(space.getId().substring(
-								space.getId().lastIndexOf('.') + 1))});
-				while(true) {
-					try {
-						ZNetTxStatusResponse response = (ZNetTxStatusResponse)this.xBee
-								.sendSynchronous(message, 3000);
-						if (response.isSuccess())
-							break;
-						else
-							throw new XBeeException();
-					} catch (XBeeException e) {
-						continue; // Message failed, try again
-					} // try-catch
-				} // while - trying to send the message
+								space.getId().lastIndexOf('.') + 1))};
+				if (this.runtime != null)
+					this.runtime.send(address, payload, 
+							new MessageSender.Callback() {
+								@Override
+								public void completed(boolean delivered) {
+									if (!delivered)
+										EventLog.error("reservation_failed",
+												"space", space.getId());
+								} // completed
+							});
+				else if (!this.transmit(address, payload))
+					EventLog.error("reservation_failed", 
+							"space", space.getId());
 			} // if - space exists
 		} // for - send reservation message to each spaces controller
 		
 	} // sendReservationRequests
 	
+	/**
+	 * Changes the state of a space that has been reported by its group 
+	 * controller, and finds new best spaces for any destinations that it 
+	 * affects.
+	 * 
+	 * @param space: The space that has changed
+	 * @param available: true if the space is available and false otherwise
+	 */
+	private void updateSpace(ParkingSpace space, boolean available) {
+		
+		LotZone zone = this.zoneMap.get(space.getController());
+		if (available) {
+			if (this.history.lastState(space.getId())
+					== OccupancyHistory.OCCUPIED)
+				this.forecaster.recordDeparture(zone.getId(), 
+						this.clock.millis());
+			await(zone.setAvailable(space, true));
+			this.publishChange(space, OccupancyHistory.AVAILABLE);
+			this.checkIfBestSpace(space);
+		} // if - space became available
+		else {
+			await(zone.setAvailable(space, false));
+			this.publishChange(space, OccupancyHistory.OCCUPIED);
+			this.replaceBestSpace(space);
+		} // else - space became occupied
+		
+	} // updateSpace
+	
+	/**
+	 * Forces the state of a space, as if its group controller had reported 
+	 * it. The space keeps this state until the group controller next reports
+	 * it. This must be called by the main program loop.
+	 * 
+	 * @param space: The space to change
+	 * @param available: true if the space is available and false otherwise
+	 * @return a description of the change
+	 */
+	String forceSpaceState(ParkingSpace space, boolean available) {
+		if (this.spaceMap.get(space.getId()) != space)
+			return "Space " + space.getId() + " is no longer in the lot";
+		this.updateSpace(space, available);
+		return "Space " + space.getId() + " forced " 
+				+ (available ? "available" : "occupied");
+	} // forceSpaceState
+	
+	/**
+	 * Makes a reserved space available again, such as when the vehicle it 
+	 * was reserved for has parked elsewhere. The space's light at its group
+	 * controller still times out on its own. This must be called by the main 
+	 * program loop.
+	 * 
+	 * @param space: The space to release
+	 * @return a description of the change
+	 */
+	String releaseReservation(ParkingSpace space) {
+		if (this.spaceMap.get(space.getId()) != space)
+			return "Space " + space.getId() + " is no longer in the lot";
+		if (this.counters.stateOf(space.getId()) != OccupancyHistory.RESERVED)
+			return "Space " + space.getId() + " is not reserved";
+		this.releaseSpaces(new ParkingSpace[] {space});
+		return "Space " + space.getId() + " released";
+	} // releaseReservation
+	
+	/**
+	 * Makes spaces that were reserved for a vehicle available again, used when
+	 * the vehicle's entrance controller could not be told about them.
+	 * 
+	 * @param spaces: the spaces to release
+	 */
+	private void releaseSpaces(ParkingSpace[] spaces) {
+		
+		for (Map.Entry<LotZone, List<ParkingSpace>> entry 
+				: this.groupByZone(Arrays.asList(spaces)).entrySet())
+			await(entry.getKey().release(entry.getValue()));
+		for (ParkingSpace space : spaces) {
+			this.publishChange(space, OccupancyHistory.AVAILABLE);
+			this.checkIfBestSpace(space);
+		} // for each - released space
+		
+	} // releaseSpaces
+	
+	/**
+	 * Sends a message and waits for the radio to acknowledge it, trying again
+	 * if it is not. The time waited for each acknowledgement is based on how
+	 * quickly the radio has answered before, and nothing is sent to a radio
+	 * that is currently unreachable. The message is given up on after
+	 * MAX_TX_TIME, and nothing is sent once this unit has stepped down, so a
+	 * replaced primary stops using the radio well before a standby takes over.
+	 * 
+	 * @param address: The address to send the message to
+	 * @param payload: The message to send
+	 * @return true if the message was acknowledged
+	 */
+	private boolean transmit(XBeeAddress64 address, int[] payload) {
+		
+		ZNetTxRequest message = null; // Only built when the xbee-api is used
+		long deadline = System.currentTimeMillis() + MAX_TX_TIME;
+		for (int attempt = 0; attempt < MAX_TX_ATTEMPTS; attempt++) {
+			
+			long startTime = System.currentTimeMillis();
+			if (startTime >= deadline || !this.leader 
+					|| !this.health.allowTransmit(address))
+				return false;
+			int timeout = (int) Math.min(this.health.timeout(address), 
+					deadline - startTime);
+			boolean delivered = false;
+			try {
+				if (this.radio != null)
+					delivered = this.radio.transmit(RadioFrame.toLong(address), 
+							payload, timeout);
+				else {
+					if (message == null)
+						message = new ZNetTxRequest(address, payload);
+					delivered = ((ZNetTxStatusResponse)this.xBee.sendSynchronous(
+							message, timeout)).isSuccess();
+				} // else - sent through the xbee-api
+			} catch (XBeeException e) {
+				// Timed out, try again
+			} catch (IOException e) {
+				EventLog.error("send_failed", "address", address, 
+						"error", e.getMessage());
+			} // try-catch
+			if (delivered) {
+				this.health.recordSuccess(address, 
+						System.currentTimeMillis() - startTime);
+				return true;
+			} // if - message acknowledged
+			this.health.recordFailure(address);
+			
+		} // for - each attempt
+		return false;
+		
+	} // transmit
+	
 	/**
 	 * This runnable inner class is meant to be ran as a thread beside the
 	 * Central Control Unit's main program. It allows lot conditions to be
-	 * monitored and (eventually) controlled.
+	 * monitored and controlled through an AdminCommands engine.
 	 */
 	private class AdminControl implements Runnable {
 
@@ -400,41 +1721,20 @@ public class CentralControlUnit {
 		
 		@Override
 		public void run() {
-				Scanner keyboard = new Scanner(System.in);
-				System.out.println("Welcome to the Smart Parking Lot "
-						+ "administrative control panel. (type h for help)");
-			while (true) {
+			ConsoleWriter out = new ConsoleWriter(System.out);
+			out.start();
+			AdminCommands commands = new AdminCommands(CCU, out);
+			Scanner keyboard = new Scanner(System.in);
+			out.println("Welcome to the Smart Parking Lot "
+					+ "administrative control panel. (type h for help)");
+			while (keyboard.hasNextLine()) {
 				String input = keyboard.nextLine();
-				if (input.equalsIgnoreCase("h")) {
-					System.out.println("'D': Show destination info");
-					System.out.println("'S': Show parking space info");
-					System.out.println("'Q': Exit administrative control");
-				} // if - help menu
-				else if (input.equalsIgnoreCase("D")) {
-					for (Destination dest : CCU.destinations) {
-						System.out.println("Destination: " + dest.getId());
-						System.out.println("\tX: " + dest.getX() + "\tY: " 
-						+ dest.getY());
-					} // for each - destinations
-				} // else if - Destination info
-				else if (input.equalsIgnoreCase("S")) {
-					for (ParkingSpace space : CCU.spaces) {
-						System.out.println("Space: " + space.getId());
-						String available = (space.isAvailable() ? 
-								"Available" : "Occupied");
-						System.out.println("\tX: " + space.getX()
-								+ "\tY: " + space.getY()
-								+ "\tController ID: " 
-								+ space.getController().getId()
-								+ "\t" + available);
-					} // for each - spaces
-				} // else if - Space info
-				
-				else if (input.equals("Q")) 
+				if (input.trim().equalsIgnoreCase("Q")) 
 					break;
-			} // while - true
+				commands.execute(input);
+			} // while - reading commands
 			keyboard.close();
-		}
+		} // run
 		
 	} // adminControl
 	
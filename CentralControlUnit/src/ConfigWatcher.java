@@ -0,0 +1,97 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ConfigWatcher class watches the Central Control Unit's lot file and
+ * reloads it whenever it is saved. The file is read and checked on the
+ * watcher's own thread, and only a layout that was read without any errors
+ * is handed to the Central Control Unit to be applied. A file that is saved
+ * several times in quick succession, as many editors do, is only read once.
+ *
+ * @author Elliot Dean
+ */
+public class ConfigWatcher implements Runnable {
+
+	/** The time to wait for a file to stop changing, in milliseconds */
+	static final long SETTLE_TIME = 250;
+
+	CentralControlUnit CCU;
+	private final File file;
+
+	/**
+	 * Creates a watcher for a lot file.
+	 *
+	 * @param CCU: The Central Control Unit that is given each new layout
+	 * @param fileName: The name of the lot file
+	 */
+	public ConfigWatcher(CentralControlUnit CCU, String fileName) {
+		this.CCU = CCU;
+		this.file = new File(fileName).getAbsoluteFile();
+	} // ConfigWatcher
+
+	/**
+	 * Watches the file's directory until the program ends.
+	 */
+	@Override
+	public void run() {
+
+		Path name = this.file.toPath().getFileName();
+		try {
+			WatchService watcher = FileSystems.getDefault().newWatchService();
+			this.file.getParentFile().toPath().register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+
+			while (true) {
+
+				WatchKey key = watcher.take();
+				boolean changed = false;
+				do {
+					for (WatchEvent<?> event : key.pollEvents())
+						if (name.equals(event.context()))
+							changed = true;
+					key.reset();
+				} while ((key = watcher.poll(SETTLE_TIME,
+						TimeUnit.MILLISECONDS)) != null);
+
+				if (changed)
+					this.reload();
+
+			} // while - watching
+
+		} catch (IOException e) {
+			EventLog.error("watch_failed", "file", this.file,
+					"error", e.getMessage());
+		} catch (InterruptedException e) {
+			return;
+		} // try-catch
+
+	} // run
+
+	/**
+	 * Reads the file and, if it is valid, hands it to the Central Control
+	 * Unit's main program loop to be applied.
+	 */
+	private void reload() {
+		try {
+			final LotLayout layout = LotLayout.read(this.file.getPath());
+			this.CCU.events.add(new Runnable() {
+				@Override
+				public void run() {
+					CCU.applyLayout(layout);
+				} // run
+			});
+		} catch (IOException e) {
+			EventLog.error("reload_failed", "file", this.file,
+					"error", e.getMessage());
+		} // try-catch
+	} // reload
+
+} // ConfigWatcher - Class
@@ -0,0 +1,78 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The ConsoleWriter class writes text to the console on its own thread, so
+ * that a long listing never holds up the thread that produced it. Each piece
+ * of text that is printed is written out whole, so the output of two commands
+ * is never mixed together, and everything that is waiting is written before
+ * the console is flushed.
+ *
+ * @author Elliot Dean
+ */
+public class ConsoleWriter implements Runnable {
+
+	private final Writer out;
+	private final LinkedBlockingQueue<String> queue;
+
+	/**
+	 * Creates a writer for an output stream. It does not write anything until
+	 * it is started.
+	 *
+	 * @param out: The stream to write to, such as System.out
+	 */
+	public ConsoleWriter(OutputStream out) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+		this.queue = new LinkedBlockingQueue<String>();
+	} // ConsoleWriter
+
+	/**
+	 * Starts writing on a daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "ConsoleWriter");
+		thread.setDaemon(true);
+		thread.start();
+	} // start
+
+	/**
+	 * Queues text to be written.
+	 *
+	 * @param text: The text to write
+	 */
+	public void print(String text) {
+		this.queue.add(text);
+	} // print
+
+	/**
+	 * Queues a line of text to be written.
+	 *
+	 * @param line: The line to write
+	 */
+	public void println(String line) {
+		this.queue.add(line + System.lineSeparator());
+	} // println
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				this.out.write(this.queue.take());
+				String text;
+				while ((text = this.queue.poll()) != null)
+					this.out.write(text);
+				this.out.flush();
+			} // while - writing
+		} catch (InterruptedException e) {
+			return;
+		} catch (IOException e) {
+			System.err.println("Error: Unable to write to the console: "
+					+ e.getMessage());
+		} // try-catch
+	} // run
+
+} // ConsoleWriter - Class
@@ -0,0 +1,346 @@
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.PacketListener;
+import com.rapplogic.xbee.api.XBee;
+import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeeException;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.XBeeTimeoutException;
+import com.rapplogic.xbee.api.zigbee.ZNetTxRequest;
+import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
+
+/**
+ * The ConversationRuntime class lets the Central Control Unit talk to many
+ * group controllers and entrance controllers at once without any of them
+ * holding up the others. Each radio address has its own conversation, which
+ * sends that radio's messages one at a time (so they arrive in order), waits
+ * for each acknowledgement and retries as needed. Conversations with
+ * different radios run at the same time.
+ *
+ * A single reader thread takes every packet from the XBee. Transmit status
+ * packets are handed to the conversation waiting on their frame id, and all
+ * other packets are passed to the Central Control Unit.
+ *
+ * When run on Java 21 or later each conversation runs on a virtual thread,
+ * so even thousands of waiting conversations use very little memory. On older
+ * versions a pool of ordinary threads is used instead. Since the XBee only
+ * has 255 frame ids, at most that many messages are waiting for an
+ * acknowledgement at any time and any others wait for a free frame id.
+ *
+ * Once the runtime is closed nothing more is written to the radio, so a
+ * Central Control Unit that has been replaced as the primary can close it to
+ * stop using the radio straight away.
+ *
+ * @author Elliot Dean
+ */
+public class ConversationRuntime implements MessageSender {
+
+	/** The number of frame ids that can be used by the XBee */
+	static final int FRAME_IDS = 255;
+
+	/** The radio used to send and receive */
+	private final XBee xBee;
+
+	/** The health of each radio link, used for timeouts and retries */
+	private final LinkHealth health;
+
+	/** Receives every packet that is not a transmit status */
+	private final PacketListener listener;
+
+	/** Runs each conversation */
+	private final ExecutorService executor;
+
+	/** The conversation with each radio */
+	private final ConcurrentHashMap<XBeeAddress64, Conversation> conversations;
+
+	/** The transmit status waiting to be received for each frame id */
+	private final ConcurrentHashMap<Integer,
+			ArrayBlockingQueue<ZNetTxStatusResponse>> pending;
+
+	/**
+	 * Held while a message is written to the XBee, which is not thread safe.
+	 * A lock is used rather than synchronized, so that a virtual thread
+	 * waiting on the serial port does not hold on to its carrier thread.
+	 */
+	private final ReentrantLock sendLock;
+
+	/** Limits the number of messages waiting for an acknowledgement */
+	private final Semaphore frameIds;
+
+	/** The frame id that was used last */
+	private int lastFrameId;
+
+	/** Whether the reader thread should keep running */
+	private volatile boolean running;
+
+	/**
+	 * Creates the runtime and starts the radio reader.
+	 *
+	 * @param xBee: An XBee that has already been opened
+	 * @param health: The health of the lot's radio links
+	 * @param listener: Receives every packet that is not a transmit status
+	 */
+	public ConversationRuntime(XBee xBee, LinkHealth health,
+			PacketListener listener) {
+		this.xBee = xBee;
+		this.health = health;
+		this.listener = listener;
+		this.executor = newTaskExecutor();
+		this.conversations =
+				new ConcurrentHashMap<XBeeAddress64, Conversation>();
+		this.pending = new ConcurrentHashMap<Integer,
+				ArrayBlockingQueue<ZNetTxStatusResponse>>();
+		this.frameIds = new Semaphore(FRAME_IDS);
+		this.sendLock = new ReentrantLock();
+		this.running = true;
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readPackets();
+			} // run
+		}, "RadioReader");
+		reader.setDaemon(true);
+		reader.start();
+	} // ConversationRuntime
+
+	/**
+	 * Adds a message to the conversation with a radio and returns straight
+	 * away. The callback is run by the conversation once the message has
+	 * been acknowledged or given up on.
+	 *
+	 * @param address: The address of the radio
+	 * @param payload: The message to send
+	 * @param callback: Told whether the message was delivered, or null
+	 */
+	@Override
+	public void send(XBeeAddress64 address, int[] payload,
+			Callback callback) {
+
+		Conversation conversation = this.conversations.get(address);
+		if (conversation == null) {
+			Conversation added = new Conversation(address);
+			conversation = this.conversations.putIfAbsent(address, added);
+			if (conversation == null)
+				conversation = added;
+		} // if - first message to the radio
+
+		boolean start;
+		synchronized (conversation) {
+			conversation.messages.add(new Message(payload, callback));
+			start = !conversation.active;
+			conversation.active = true;
+		} // synchronized
+		if (start) {
+			try {
+				this.executor.execute(conversation);
+			} catch (RejectedExecutionException e) {
+				conversation.run(); // Closed, so each message is given up on
+			} // try-catch
+		} // if - conversation not running
+
+	} // send
+
+	/**
+	 * Stops the radio reader and any conversations that are waiting. Nothing
+	 * is written to the radio once this returns.
+	 */
+	@Override
+	public void close() {
+		this.sendLock.lock();
+		try {
+			this.running = false;
+		} finally {
+			this.sendLock.unlock();
+		} // try-finally
+		this.executor.shutdownNow();
+	} // close
+
+	/**
+	 * Reads packets from the radio until the runtime is closed, handing each
+	 * transmit status to the conversation waiting on it.
+	 */
+	private void readPackets() {
+		while (this.running) {
+			try {
+				XBeeResponse response = this.xBee.getResponse(1000);
+				if (response.getApiId() == ApiId.ZNET_TX_STATUS_RESPONSE) {
+					ZNetTxStatusResponse status =
+							(ZNetTxStatusResponse) response;
+					ArrayBlockingQueue<ZNetTxStatusResponse> waiting =
+							this.pending.get(status.getFrameId());
+					if (waiting != null)
+						waiting.offer(status);
+				} // if - acknowledgement for a conversation
+				else
+					this.listener.processResponse(response);
+			} catch (XBeeTimeoutException e) {
+				continue; // Check whether the runtime is still running
+			} catch (XBeeException e) {
+				EventLog.error("radio_read_failed", "error", e.getMessage());
+			} // try-catch
+		} // while - running
+	} // readPackets
+
+	/**
+	 * Sends a single message and waits for it to be acknowledged, retrying
+	 * with a timeout based on the radio's round trip times for up to
+	 * MAX_TX_TIME. Runs on the conversation's thread.
+	 *
+	 * @return true if the message was acknowledged
+	 */
+	private boolean deliver(XBeeAddress64 address, int[] payload)
+			throws InterruptedException {
+
+		ZNetTxRequest message = new ZNetTxRequest(address, payload);
+		long deadline = System.currentTimeMillis()
+				+ CentralControlUnit.MAX_TX_TIME;
+		for (int attempt = 0; attempt < CentralControlUnit.MAX_TX_ATTEMPTS;
+				attempt++) {
+
+			if (!this.running || System.currentTimeMillis() >= deadline
+					|| !this.health.allowTransmit(address))
+				return false;
+
+			this.frameIds.acquire();
+			ArrayBlockingQueue<ZNetTxStatusResponse> waiting =
+					new ArrayBlockingQueue<ZNetTxStatusResponse>(1);
+			int frameId = this.register(waiting);
+			try {
+
+				message.setFrameId(frameId);
+				long startTime = System.currentTimeMillis();
+				this.sendLock.lock();
+				try {
+					if (!this.running)
+						return false; // Closed since the attempt began
+					this.xBee.sendAsynchronous(message);
+				} finally {
+					this.sendLock.unlock();
+				} // try-finally
+				ZNetTxStatusResponse status = waiting.poll(Math.min(
+						this.health.timeout(address), deadline - startTime),
+						TimeUnit.MILLISECONDS);
+				if (status != null && status.isSuccess()) {
+					this.health.recordSuccess(address,
+							System.currentTimeMillis() - startTime);
+					return true;
+				} // if - acknowledged
+
+			} catch (XBeeException e) {
+				EventLog.error("send_failed", "address", address,
+						"error", e.getMessage());
+			} finally {
+				this.pending.remove(frameId);
+				this.frameIds.release();
+			} // try-catch-finally
+			this.health.recordFailure(address);
+
+		} // for - each attempt
+		return false;
+
+	} // deliver
+
+	/**
+	 * Picks a frame id that no other message is waiting on and registers the
+	 * queue that its transmit status should be given to. A free id always
+	 * exists since a permit has been taken from frameIds.
+	 */
+	private synchronized int register(
+			ArrayBlockingQueue<ZNetTxStatusResponse> waiting) {
+		do {
+			this.lastFrameId = this.lastFrameId % FRAME_IDS + 1;
+		} while (this.pending.containsKey(this.lastFrameId));
+		this.pending.put(this.lastFrameId, waiting);
+		return this.lastFrameId;
+	} // register
+
+	/**
+	 * Creates an executor that runs each task on its own virtual thread when
+	 * they are supported, or on a pool of daemon threads otherwise.
+	 */
+	private static ExecutorService newTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Conversation");
+					thread.setDaemon(true);
+					return thread;
+				} // newThread
+			});
+		} // try-catch
+	} // newTaskExecutor
+
+	/**
+	 * The messages waiting to be sent to a single radio. A conversation is
+	 * only running on a thread while it has messages to send.
+	 */
+	private class Conversation implements Runnable {
+
+		final XBeeAddress64 address;
+		final LinkedList<Message> messages = new LinkedList<Message>();
+		boolean active;
+
+		Conversation(XBeeAddress64 address) {
+			this.address = address;
+		} // Conversation
+
+		@Override
+		public void run() {
+			while (true) {
+
+				Message message;
+				synchronized (this) {
+					message = this.messages.poll();
+					if (message == null) {
+						this.active = false;
+						return;
+					} // if - no messages left
+				} // synchronized
+
+				boolean delivered;
+				try {
+					delivered = deliver(this.address, message.payload);
+				} catch (InterruptedException e) {
+					return; // The runtime is closing
+				} // try-catch
+				if (message.callback != null)
+					message.callback.completed(delivered);
+
+			} // while - messages to send
+		} // run
+
+	} // Conversation - Class
+
+	/**
+	 * A message waiting in a conversation and who to tell once it is sent.
+	 */
+	private static class Message {
+
+		final int[] payload;
+		final Callback callback;
+
+		Message(int[] payload, Callback callback) {
+			this.payload = payload;
+			this.callback = callback;
+		} // Message
+
+	} // Message - Class
+
+} // ConversationRuntime - Class
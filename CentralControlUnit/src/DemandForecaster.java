@@ -0,0 +1,192 @@
+import java.util.HashMap;
+
+/**
+ * The DemandForecaster class predicts how many vehicles will arrive at each
+ * lot entrance and leave each zone in the near future so that the Central
+ * Control Unit can prepare space suggestions before they are needed.
+ *
+ * Two estimates are kept for each entrance or zone. The first is a rate that
+ * decays exponentially with time, which reacts within seconds when a rush
+ * begins. The second is a seasonal average of the number of events seen in
+ * each quarter hour of the day, which predicts rushes that happen at the same
+ * time every day (e.g. shift changes) before the first car arrives. The
+ * forecast is the larger of the two.
+ *
+ * @author Elliot Dean
+ */
+public class DemandForecaster {
+
+	/** The time constant of the decaying rate, in milliseconds */
+	static final double RATE_TIME_CONSTANT = 60 * 1000.0;
+
+	/** How much each day counts towards the seasonal averages */
+	static final double SEASONAL_WEIGHT = 0.3;
+
+	/** The length of each seasonal slot, in milliseconds */
+	static final long SLOT_LENGTH = 15 * 60 * 1000;
+
+	/** The number of seasonal slots in a day */
+	static final int SLOTS = (int) (24 * 60 * 60 * 1000 / SLOT_LENGTH);
+
+	/** The estimates for each entrance number */
+	private final HashMap<Integer, Estimate> arrivals;
+
+	/** The estimates for each zone identifier */
+	private final HashMap<String, Estimate> departures;
+
+	/**
+	 * Creates a forecaster with no history.
+	 */
+	public DemandForecaster() {
+		this.arrivals = new HashMap<Integer, Estimate>();
+		this.departures = new HashMap<String, Estimate>();
+	} // DemandForecaster
+
+	/**
+	 * Records a vehicle arriving at an entrance.
+	 *
+	 * @param entrance: The entrance number
+	 * @param time: The time of the arrival in milliseconds
+	 */
+	public synchronized void recordArrival(int entrance, long time) {
+		Estimate estimate = this.arrivals.get(entrance);
+		if (estimate == null) {
+			estimate = new Estimate();
+			this.arrivals.put(entrance, estimate);
+		} // if - first arrival at the entrance
+		estimate.record(time);
+	} // recordArrival
+
+	/**
+	 * Records a vehicle leaving a space in a zone.
+	 *
+	 * @param zoneId: The identifier of the zone
+	 * @param time: The time of the departure in milliseconds
+	 */
+	public synchronized void recordDeparture(String zoneId, long time) {
+		Estimate estimate = this.departures.get(zoneId);
+		if (estimate == null) {
+			estimate = new Estimate();
+			this.departures.put(zoneId, estimate);
+		} // if - first departure from the zone
+		estimate.record(time);
+	} // recordDeparture
+
+	/**
+	 * Predicts the number of vehicles that will arrive at an entrance within
+	 * the given amount of time.
+	 *
+	 * @param entrance: The entrance number
+	 * @param time: The current time in milliseconds
+	 * @param horizon: How far ahead to predict, in milliseconds
+	 * @return the expected number of arrivals
+	 */
+	public synchronized double expectedArrivals(int entrance, long time,
+			long horizon) {
+		Estimate estimate = this.arrivals.get(entrance);
+		return (estimate == null) ? 0.0 : estimate.expected(time, horizon);
+	} // expectedArrivals
+
+	/**
+	 * Predicts the number of vehicles that will leave a zone within the given
+	 * amount of time.
+	 *
+	 * @param zoneId: The identifier of the zone
+	 * @param time: The current time in milliseconds
+	 * @param horizon: How far ahead to predict, in milliseconds
+	 * @return the expected number of departures
+	 */
+	public synchronized double expectedDepartures(String zoneId, long time,
+			long horizon) {
+		Estimate estimate = this.departures.get(zoneId);
+		return (estimate == null) ? 0.0 : estimate.expected(time, horizon);
+	} // expectedDepartures
+
+	/**
+	 * The decaying rate and seasonal averages for a single stream of events.
+	 */
+	private static class Estimate {
+
+		/** The decaying event rate, in events per millisecond */
+		double rate;
+
+		/** The time that the rate was last updated */
+		long rateTime = -1;
+
+		/** The average number of events in each slot of the day */
+		final double[] seasonal = new double[SLOTS];
+
+		/** The slot currently being counted and its count so far */
+		long currentSlot = -1;
+		int slotCount;
+
+		/**
+		 * Adds a single event to both estimates.
+		 */
+		void record(long time) {
+
+			this.decay(time);
+			this.rate += 1.0 / RATE_TIME_CONSTANT;
+
+			this.advanceSlot(time);
+			this.slotCount++;
+
+		} // record
+
+		/**
+		 * Gets the expected number of events in the next horizon milliseconds.
+		 */
+		double expected(long time, long horizon) {
+
+			this.decay(time);
+			this.advanceSlot(time);
+			double shortTerm = this.rate * horizon;
+
+			// Adds up the seasonal averages over the slots in the horizon
+			double seasonalTerm = 0.0;
+			for (long t = time; t < time + horizon; t += SLOT_LENGTH) {
+				double covered = Math.min(SLOT_LENGTH, time + horizon - t);
+				seasonalTerm += this.seasonal[slotOfDay(t / SLOT_LENGTH)]
+						* covered / SLOT_LENGTH;
+			} // for - each slot in the horizon
+
+			return Math.max(shortTerm, seasonalTerm);
+
+		} // expected
+
+		/**
+		 * Decays the rate to the given time.
+		 */
+		private void decay(long time) {
+			if (this.rateTime >= 0 && time > this.rateTime)
+				this.rate *= Math.exp((this.rateTime - time)
+						/ RATE_TIME_CONSTANT);
+			this.rateTime = Math.max(this.rateTime, time);
+		} // decay
+
+		/**
+		 * Folds the counts of any slots that have ended into the seasonal
+		 * averages. Slots that passed without any events count as zero.
+		 */
+		private void advanceSlot(long time) {
+			long slot = time / SLOT_LENGTH;
+			if (this.currentSlot < 0)
+				this.currentSlot = slot;
+			while (this.currentSlot < slot) {
+				int index = slotOfDay(this.currentSlot);
+				this.seasonal[index] += SEASONAL_WEIGHT
+						* (this.slotCount - this.seasonal[index]);
+				this.slotCount = 0;
+				this.currentSlot++;
+				if (slot - this.currentSlot > SLOTS)
+					this.currentSlot = slot - SLOTS;
+			} // while - slots have ended
+		} // advanceSlot
+
+		private static int slotOfDay(long slot) {
+			return (int) (slot % SLOTS);
+		} // slotOfDay
+
+	} // Estimate - Class
+
+} // DemandForecaster - Class
@@ -1,18 +1,19 @@
 
 /**
  * The Destination class represents a physical destination within a Smart
- * Parking Lot (e.g. An entrance to a store or business). It has a single 
- * ParkingSpace variable that represents the nearest available parking space to
- * the destination. Since there is no Smart Parking lot hardware that directly
- * related to each lot destination, the only other attributes that are assigned
- * to a destination are its position coordinates.
+ * Parking Lot (e.g. An entrance to a store or business). It keeps the nearest
+ * available parking space to the destination for each category of space, so
+ * that the best space of every category is known without a search. Since
+ * there is no Smart Parking lot hardware that directly related to each lot
+ * destination, the only other attributes that are assigned to a destination
+ * are its position coordinates.
  * 
  * @author Elliot Dean
  */
 public class Destination extends LotEntity{
 
-	/** The closest available parking space to this destination */
-	private ParkingSpace bestSpace;
+	/** The closest available parking space of each category */
+	private final ParkingSpace[] bestSpaces;
 	
 	/**
 	 * Creates an object that represents a physical destination (e.g. An 
@@ -24,6 +25,7 @@ public class Destination extends LotEntity{
 	 */
 	public Destination(int x, int y, String id) {
 		super(x, y, id);
+		this.bestSpaces = new ParkingSpace[ParkingSpace.CATEGORIES];
 	} // Destination
 	
 	/**
@@ -32,11 +34,22 @@ public class Destination extends LotEntity{
 	 * @param space: The new closest available space to the destination
 	 */
 	public void setBestSpace(ParkingSpace space) {
+		this.setBestSpace(ParkingSpace.GENERAL, space);
+	} // setBestSpace
+	
+	/**
+	 * Set's a new best parking space of a category for this destination.
+	 * 
+	 * @param category: The category of the space
+	 * @param space: The new closest available space of that category
+	 */
+	public void setBestSpace(int category, ParkingSpace space) {
 		if (space == null || space.isAvailable())
-			this.bestSpace = space;
+			this.bestSpaces[category] = space;
 		else
-			System.out.println("Error: attempt to set occupied space as best");
-	} // setBestSpace
+			EventLog.warning("occupied_best_space", "destination", this.getId(),
+					"space", space.getId());
+	} // setBestSpace - category
 	
 	/**
 	 * Gets the current closest available parking space to the destination.
@@ -44,7 +57,17 @@ public class Destination extends LotEntity{
 	 * @return The ParkingSpace object that has been set as best
 	 */
 	public ParkingSpace getBestSpace() {
-		return this.bestSpace;
+		return this.bestSpaces[ParkingSpace.GENERAL];
 	} // getBestSpace
 	
+	/**
+	 * Gets the current closest available parking space of a category.
+	 * 
+	 * @param category: The category of the space
+	 * @return The ParkingSpace object that has been set as best, or null
+	 */
+	public ParkingSpace getBestSpace(int category) {
+		return this.bestSpaces[category];
+	} // getBestSpace - category
+	
 } // Destination - Class
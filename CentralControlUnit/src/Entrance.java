@@ -0,0 +1,37 @@
+/**
+ * The Entrance class represents a physical entrance to a Smart Parking Lot,
+ * where an entrance controller tells drivers which spaces to park in. Its
+ * position is used to find spaces that are a short drive from where the
+ * vehicle comes into the lot, and its number is the entrance number that its
+ * entrance controller sends in each "Vehicle Entering" message.
+ * 
+ * @author Elliot Dean
+ */
+public class Entrance extends LotEntity {
+
+	/** The entrance number used by the entrance controller */
+	private final int number;
+	
+	/**
+	 * Creates an object that represents a physical lot entrance.
+	 * 
+	 * @param x: The entrance's x coordinate
+	 * @param y: The entrance's y coordinate
+	 * @param id: The entrance's identifier
+	 * @param number: The entrance number used by its entrance controller
+	 */
+	public Entrance(int x, int y, String id, int number) {
+		super(x, y, id);
+		this.number = number;
+	} // Entrance
+	
+	/**
+	 * Gets the entrance number used by the entrance's controller.
+	 * 
+	 * @return the entrance number
+	 */
+	public int getNumber() {
+		return this.number;
+	} // getNumber
+	
+} // Entrance - Class
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * The FrameDecoder class reads XBee API frames (escaped mode, AP=2) from a
+ * stream and passes them to a handler. Frames are read into a fixed pool and
+ * given to the handler, which must release each one once it is done with it.
+ * Transmit status frames are handled straight away and their frame is reused.
+ * The same decoder reads the frames that a radio is sent as well as the ones
+ * it sends back, so it is also used by the SimulatedNetwork. Nothing is
+ * created for each frame that is read, so a busy radio does not cause
+ * garbage collection pauses.
+ *
+ * If every frame in the pool is in use, the decoder waits for one to be
+ * released before reading more from the stream.
+ *
+ * @author Elliot Dean
+ */
+public class FrameDecoder implements Runnable {
+
+	static final int START_DELIMITER = 0x7E;
+	static final int ESCAPE = 0x7D;
+	static final int XON = 0x11;
+	static final int XOFF = 0x13;
+
+	/**
+	 * The Handler interface receives the frames read by a FrameDecoder.
+	 */
+	public interface Handler {
+
+		/**
+		 * Called for each frame other than a transmit status. The handler must
+		 * release the frame once it is done with it.
+		 *
+		 * @param frame: The frame that was received
+		 */
+		void receive(RadioFrame frame);
+
+		/**
+		 * Called for each transmit status frame.
+		 *
+		 * @param frameId: The frame id of the transmission
+		 * @param deliveryStatus: 0 if the transmission was delivered
+		 */
+		void transmitStatus(int frameId, int deliveryStatus);
+
+		/**
+		 * Called once if the stream is closed or cannot be read.
+		 *
+		 * @param e: The reason that the stream was closed, or null
+		 */
+		void closed(IOException e);
+
+	} // Handler - Interface
+
+	/** The stream that frames are read from */
+	private final InputStream in;
+
+	/** Receives each frame */
+	private final Handler handler;
+
+	/** The frames that are not being used */
+	private final ArrayBlockingQueue<RadioFrame> pool;
+
+	/**
+	 * Creates a decoder with a pool of frames.
+	 *
+	 * @param in: The stream to read frames from, ideally buffered
+	 * @param handler: Receives each frame
+	 * @param poolSize: The number of frames in the pool
+	 */
+	public FrameDecoder(InputStream in, Handler handler, int poolSize) {
+		this.in = in;
+		this.handler = handler;
+		this.pool = new ArrayBlockingQueue<RadioFrame>(poolSize);
+		for (int i = 0; i < poolSize; i++)
+			this.pool.offer(new RadioFrame(this.pool));
+	} // FrameDecoder
+
+	/**
+	 * Reads frames until the stream is closed.
+	 */
+	@Override
+	public void run() {
+
+		try {
+
+			RadioFrame frame = this.pool.take();
+			while (true) {
+
+				if (!this.readFrame(frame))
+					continue; // Bad frame, look for the next one
+
+				if (frame.getApiId() == RadioFrame.TRANSMIT_STATUS) {
+					if (frame.length >= 6)
+						this.handler.transmitStatus(frame.data[1] & 0xFF,
+								frame.data[5] & 0xFF);
+				} // if - transmit status
+				else {
+					this.handler.receive(frame);
+					frame = this.pool.take();
+				} // else - any other frame
+
+			} // while - reading frames
+
+		} catch (IOException e) {
+			this.handler.closed(e);
+		} catch (InterruptedException e) {
+			this.handler.closed(null);
+		} // try-catch
+
+	} // run
+
+	/**
+	 * Reads the next frame from the stream into the given frame.
+	 *
+	 * @param frame: The frame to read into
+	 * @return false if the frame was too long or its checksum was wrong
+	 * @throws IOException if the stream is closed
+	 */
+	private boolean readFrame(RadioFrame frame) throws IOException {
+
+		int b;
+		do {
+			b = this.in.read();
+			if (b < 0)
+				throw new IOException("End of stream");
+		} while (b != START_DELIMITER);
+
+		int length = (this.readByte() << 8) | this.readByte();
+		if (length == 0 || length > RadioFrame.MAX_LENGTH)
+			return false;
+
+		int checksum = 0;
+		for (int i = 0; i < length; i++) {
+			int value = this.readByte();
+			frame.data[i] = (byte) value;
+			checksum += value;
+		} // for - each byte of frame data
+		checksum += this.readByte();
+		frame.length = length;
+
+		return (checksum & 0xFF) == 0xFF;
+
+	} // readFrame
+
+	/**
+	 * Reads a single byte, undoing any escaping.
+	 */
+	private int readByte() throws IOException {
+		int b = this.in.read();
+		if (b == ESCAPE)
+			b = this.in.read() ^ 0x20;
+		if (b < 0)
+			throw new IOException("End of stream");
+		return b;
+	} // readByte
+
+} // FrameDecoder - Class
@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+
 import com.rapplogic.xbee.api.XBeeAddress64;
 
 /**
@@ -15,6 +17,8 @@ import com.rapplogic.xbee.api.XBeeAddress64;
 public class GroupController extends LotEntity {
 	
 	private final XBeeAddress64 address64;
+	private final long address;
+	private final ArrayList<ParkingSpace> spaces;
 	
 	/**
 	 * Creates an object that represents a physical group controller.
@@ -26,6 +30,8 @@ public class GroupController extends LotEntity {
 	public GroupController(int x, int y, String id, String address) {
 		super(x, y, id);
 		this.address64 = new XBeeAddress64(address);
+		this.address = RadioFrame.toLong(this.address64);
+		this.spaces = new ArrayList<ParkingSpace>();
 	} // GroupController
 	
 	/**
@@ -38,9 +44,49 @@ public class GroupController extends LotEntity {
 	 * @param id: The identification number of the parking space
 	 */
 	public ParkingSpace addSpace(int x, int y, String id) {
-		return new ParkingSpace(x, y, id, this);
+		return this.addSpace(x, y, id, 0);
 	} // addSpace
 	
+	/**
+	 * Creates and returns a new parking space that is handled by this group
+	 * controller and belongs to one or more categories.
+	 *  
+	 * @param x: The space's x coordinate in relation to the controller
+	 * @param y: The space's y coordinate in relation to the controller
+	 * @param id: The identification number of the parking space
+	 * @param categories: A bit (1 << category) for each of its categories
+	 */
+	public ParkingSpace addSpace(int x, int y, String id, int categories) {
+		ParkingSpace space = new ParkingSpace(x, y, id, this, categories);
+		int number = Integer.parseInt(id.substring(id.lastIndexOf('.') + 1));
+		while (this.spaces.size() <= number)
+			this.spaces.add(null);
+		this.spaces.set(number, space);
+		return space;
+	} // addSpace - categories
+	
+	/**
+	 * Removes the parking space with the given space number from this group
+	 * controller, used when the lot file is reloaded without it.
+	 * 
+	 * @param number: The space number
+	 */
+	public void removeSpace(int number) {
+		if (number < this.spaces.size())
+			this.spaces.set(number, null);
+	} // removeSpace
+	
+	/**
+	 * Gets the parking space with the given space number, which is the number
+	 * that the physical group controller uses for the space's sensor.
+	 * 
+	 * @param number: The space number
+	 * @return the parking space, or null if there is no such space
+	 */
+	public ParkingSpace getSpace(int number) {
+		return (number < this.spaces.size()) ? this.spaces.get(number) : null;
+	} // getSpace
+	
 	/**
 	 * Returns the 64-bit address of this group controller's XBee radio.
 	 * 
@@ -50,4 +96,14 @@ public class GroupController extends LotEntity {
 		return this.address64;
 	} // getAddress64
 	
+	/**
+	 * Returns the 64-bit address of this group controller's XBee radio as a
+	 * long.
+	 * 
+	 * @return the 64-bit address of the XBee
+	 */
+	public long getAddress() {
+		return this.address;
+	} // getAddress
+	
 } // GroupController - Class
@@ -0,0 +1,705 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The IntegrationScenarios program runs a whole Smart Parking Lot on a
+ * Linux box without any hardware. It writes a lot file with many group
+ * controllers, runs a Central Control Unit from it on a SimulatedNetwork, and
+ * drives SimulatedGroupControllers and SimulatedEntrances through a set of
+ * scenarios. Each scenario checks both the end state of the lot and how long
+ * it took to get there, and the program exits with a non-zero status if any
+ * check fails. The Central Control Unit first runs as a primary without any
+ * standby, and then a standby follows it over the loopback interface for the
+ * rest of the scenarios, and takes over once the primary is stopped at the end.
+ *
+ * The optional arguments are:
+ * 		controllers spacesPerController destinations entrances
+ * The Central Control Unit uses the xbee-api library unless it is run with
+ * -Dccu.radio=raw, and the conversation runtime can be used by adding
+ * -Dccu.conversations=true, so each way of running it can be checked.
+ *
+ * @author Elliot Dean
+ */
+public class IntegrationScenarios {
+
+	// Variables used to tune the simulated lot
+	static final long LATENCY = 5; // Time for a packet to cross the network
+	static final long DETECTION_TIME = 50; // Group controller detection time
+	static final long RESERVATION_TIME = 3000; // Group controller reservations
+
+	// The limits that the scenarios are checked against
+	static final long MAX_UPDATE_TIME = 2000; // To see every sensor change
+	static final double MIN_UPDATE_RATE = 100; // Space updates per second
+	static final long MAX_SUGGESTION_TIME = 1000; // Entering to suggestions
+	static final long MAX_RESERVATION_DELAY = 500; // Suggestion to reserved
+	static final long MAX_RELEASE_DELAY = 1000; // Past the reservation time
+	static final long MAX_TAKEOVER_TIME = 6000; // Primary lost to standby up
+	static final long MAX_DEADLINE_SKEW = 500; // Replicated reservation ends
+
+	final CentralControlUnit CCU;
+	final SimulatedNetwork network;
+	final LinkedHashMap<GroupController, SimulatedGroupController> controllers;
+	final ArrayList<SimulatedEntrance> entrances;
+	final HashMap<String, ParkingSpace> spacesByPosition;
+	final Thread lead;
+	final int replicationPort;
+	CentralControlUnit standby;
+	Thread follow;
+	volatile long standbyEpoch;
+	volatile long takeoverTime;
+
+	int passed;
+	int failed;
+
+	/**
+	 * Sets up the lot, runs every scenario and prints the results.
+	 *
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+
+		int controllerCount = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+		int spacesPerController = (args.length > 1)
+				? Integer.parseInt(args[1]) : 8;
+		int destinationCount = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+		int entranceCount = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+
+		File lotFile = File.createTempFile("SimulatedLot", ".txt");
+		lotFile.deleteOnExit();
+		writeLotFile(lotFile, controllerCount, spacesPerController,
+				destinationCount, entranceCount);
+
+		IntegrationScenarios scenarios = new IntegrationScenarios(lotFile,
+				entranceCount);
+		scenarios.primaryWithoutStandby();
+		scenarios.startStandby(lotFile, entranceCount);
+		scenarios.spaceUpdates();
+		scenarios.entranceSuggestions(5);
+		scenarios.reservationTimeout();
+		scenarios.spaceCategories();
+		scenarios.entranceRoutes(3);
+		scenarios.lossyNetwork(0.2);
+		scenarios.replicationFailover();
+		scenarios.close();
+
+		System.out.println();
+		System.out.println(scenarios.passed + " passed, " + scenarios.failed
+				+ " failed");
+		System.exit(scenarios.failed == 0 ? 0 : 1);
+
+	} // main
+
+	/**
+	 * Starts a Central Control Unit for a lot file along with a simulated
+	 * controller for every group controller in the file.
+	 *
+	 * @param lotFile: The lot file
+	 * @param entranceCount: The number of simulated entrance controllers
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	IntegrationScenarios(File lotFile, int entranceCount)
+			throws IOException, InterruptedException {
+
+		this.network = new SimulatedNetwork(LATENCY, 0);
+		this.CCU = new CentralControlUnit();
+		this.CCU.initialize(lotFile.getPath());
+		this.CCU.lastEntranceId = new int[entranceCount];
+		Arrays.fill(this.CCU.lastEntranceId, -1);
+		this.CCU.connection = this.network.getCoordinator();
+		this.CCU.reservationTime = RESERVATION_TIME;
+
+		// Creates a simulated controller for each group controller
+		this.controllers = new LinkedHashMap<GroupController,
+				SimulatedGroupController>();
+		this.spacesByPosition = new HashMap<String, ParkingSpace>();
+		HashMap<GroupController, Integer> sensors =
+				new HashMap<GroupController, Integer>();
+		for (ParkingSpace space : this.CCU.spaces) {
+			Integer count = sensors.get(space.getController());
+			sensors.put(space.getController(), (count == null) ? 1 : count + 1);
+			this.spacesByPosition.put(space.getX() + "," + space.getY(), space);
+		} // for - each space
+		for (GroupController controller : sensors.keySet()) {
+			SimulatedGroupController simulated = new SimulatedGroupController(
+					this.network, controller.getAddress(),
+					sensors.get(controller));
+			simulated.minDetectionTime = DETECTION_TIME;
+			simulated.maxReservationTime = RESERVATION_TIME;
+			simulated.start();
+			this.controllers.put(controller, simulated);
+		} // for - each group controller
+
+		this.entrances = new ArrayList<SimulatedEntrance>();
+		for (int i = 0; i < entranceCount; i++)
+			this.entrances.add(new SimulatedEntrance(this.network,
+					0x0013A20010000000L + i, i));
+
+		ServerSocket free = new ServerSocket(0);
+		this.replicationPort = free.getLocalPort();
+		free.close();
+		this.lead = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					CCU.lead(null, replicationPort, 1);
+				} catch (Exception e) {
+					e.printStackTrace();
+				} // try-catch
+			} // run
+		}, "CentralControlUnit");
+		this.lead.setDaemon(true);
+		this.lead.start();
+
+		Thread.sleep(500); // Wait for the radio to be opened
+		if (!this.lead.isAlive())
+			throw new IOException("The Central Control Unit did not start");
+
+		System.out.println("Simulated lot: " + this.controllers.size()
+				+ " group controllers, " + this.CCU.spaces.size()
+				+ " spaces, " + this.CCU.destinations.size()
+				+ " destinations, " + entranceCount + " entrances");
+
+	} // IntegrationScenarios
+
+	/**
+	 * Starts a standby that follows the primary until it is lost.
+	 *
+	 * @param lotFile: The lot file
+	 * @param entranceCount: The number of simulated entrance controllers
+	 * @throws IOException
+	 */
+	void startStandby(File lotFile, int entranceCount) throws IOException {
+		this.standby = new CentralControlUnit();
+		this.standby.historyDirectory = new File(lotFile.getPath()
+				+ ".standby");
+		this.standby.initialize(lotFile.getPath());
+		this.standby.lastEntranceId = new int[entranceCount];
+		Arrays.fill(this.standby.lastEntranceId, -1);
+		this.standby.reservationTime = RESERVATION_TIME;
+		final InetSocketAddress primary = new InetSocketAddress("localhost",
+				this.replicationPort);
+		this.follow = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				standbyEpoch = new ReplicationClient(standby,
+						Arrays.asList(primary), 0, 0).follow();
+				takeoverTime = System.currentTimeMillis();
+			} // run
+		}, "StandbyCentralControlUnit");
+		this.follow.setDaemon(true);
+		this.follow.start();
+	} // startStandby
+
+	/**
+	 * Runs the primary for longer than the failover timeout without any
+	 * standby, and checks that it keeps the radio role and still answers
+	 * vehicles at the entrances. The suggested spaces are left to be released
+	 * before the next scenario.
+	 *
+	 * @throws InterruptedException
+	 */
+	void primaryWithoutStandby() throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Primary without a standby");
+		Thread.sleep(2 * ReplicationClient.FAILOVER_TIMEOUT);
+		this.check("primary keeps the radio role",
+				this.lead.isAlive() && this.CCU.leader, null);
+		List<ParkingSpace> suggested = this.toSpaces(
+				this.entrances.get(0).getSpaceSuggestions(5000));
+		this.check("primary still answers vehicles",
+				suggested.size() == this.CCU.destinations.size(),
+				suggested.size() + "/" + this.CCU.destinations.size());
+		this.waitForState(suggested, true,
+				RESERVATION_TIME + MAX_RELEASE_DELAY);
+
+	} // primaryWithoutStandby
+
+	/**
+	 * Parks a vehicle in every other space across the lot and checks that the
+	 * Central Control Unit sees every change in time.
+	 *
+	 * @throws InterruptedException
+	 */
+	void spaceUpdates() throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Space updates");
+		ArrayList<ParkingSpace> parked = new ArrayList<ParkingSpace>();
+		long startTime = System.currentTimeMillis();
+		int i = 0;
+		for (ParkingSpace space : this.CCU.spaces) {
+			if (i++ % 2 == 0) {
+				this.simulated(space).park(number(space));
+				parked.add(space);
+			} // if - every other space
+		} // for - each space
+
+		long elapsed = this.waitForState(parked, false, MAX_UPDATE_TIME);
+		double rate = parked.size() * 1000.0 / Math.max(1, elapsed);
+		this.check("every parked space is occupied",
+				elapsed <= MAX_UPDATE_TIME,
+				this.countInState(parked, false) + "/" + parked.size()
+				+ " in " + elapsed + " ms");
+		this.check("update throughput", rate >= MIN_UPDATE_RATE,
+				String.format("%.0f updates/s", rate));
+		this.check("group controllers show green",
+				this.countIndicators(SimulatedGroupController.GREEN)
+				== this.controllers.size(), null);
+
+	} // spaceUpdates
+
+	/**
+	 * Has every entrance report a vehicle at the same time, several times
+	 * over, and checks the suggestions that are sent back.
+	 *
+	 * @param rounds: The number of vehicles at each entrance
+	 * @throws InterruptedException
+	 */
+	void entranceSuggestions(int rounds) throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Entrance suggestions");
+		final List<Long> latencies =
+				Collections.synchronizedList(new ArrayList<Long>());
+		final List<ArrayList<int[]>> results = Collections.synchronizedList(
+				new ArrayList<ArrayList<int[]>>());
+
+		for (int round = 0; round < rounds; round++) {
+			ArrayList<Thread> threads = new ArrayList<Thread>();
+			for (final SimulatedEntrance entrance : this.entrances) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							long startTime = System.currentTimeMillis();
+							ArrayList<int[]> suggestions = entrance
+									.getSpaceSuggestions(5000);
+							latencies.add(System.currentTimeMillis()
+									- startTime);
+							results.add(suggestions);
+						} catch (InterruptedException e) {
+							return;
+						} // try-catch
+					} // run
+				});
+				thread.start();
+				threads.add(thread);
+			} // for - each entrance
+			for (Thread thread : threads)
+				thread.join();
+		} // for - each round
+
+		// Checks that every vehicle got a different space for each destination
+		HashSet<ParkingSpace> suggested = new HashSet<ParkingSpace>();
+		int answered = 0;
+		int duplicates = 0;
+		for (ArrayList<int[]> suggestions : results) {
+			if (suggestions != null && suggestions.size()
+					== this.CCU.destinations.size())
+				answered++;
+			for (ParkingSpace space : this.toSpaces(suggestions)) {
+				if (!suggested.add(space))
+					duplicates++;
+			} // for - each suggested space
+		} // for - each vehicle
+		this.check("every vehicle got a suggestion for each destination",
+				answered == rounds * this.entrances.size(),
+				answered + "/" + (rounds * this.entrances.size()));
+		this.check("no space was suggested twice", duplicates == 0,
+				duplicates + " repeated");
+		this.checkLatencies("suggestion latency", latencies,
+				MAX_SUGGESTION_TIME);
+
+		// Checks that the group controllers were told about the reservations
+		long deadline = System.currentTimeMillis() + MAX_RESERVATION_DELAY;
+		int reserved = 0;
+		while (true) {
+			reserved = 0;
+			for (ParkingSpace space : suggested) {
+				if (this.simulated(space).isReserved(number(space)))
+					reserved++;
+			} // for - each suggested space
+			if (reserved == suggested.size()
+					|| System.currentTimeMillis() > deadline)
+				break;
+			Thread.sleep(1);
+		} // while - waiting for the reservation requests
+		this.check("group controllers hold every reservation",
+				reserved == suggested.size(),
+				reserved + "/" + suggested.size());
+		this.check("reserving group controllers show yellow",
+				this.countIndicators(SimulatedGroupController.YELLOW) > 0,
+				null);
+
+	} // entranceSuggestions
+
+	/**
+	 * Takes one suggestion and parks in the first suggested space, then checks
+	 * that the other spaces are released by their group controllers once the
+	 * reservation time is up and that the parked space stays occupied.
+	 *
+	 * @throws InterruptedException
+	 */
+	void reservationTimeout() throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Reservation timeout");
+		long startTime = System.currentTimeMillis();
+		List<ParkingSpace> spaces = this.toSpaces(
+				this.entrances.get(0).getSpaceSuggestions(5000));
+		if (spaces.isEmpty()) {
+			this.check("vehicle got a suggestion", false, null);
+			return;
+		} // if - no suggestion to work with
+
+		ParkingSpace taken = spaces.get(0);
+		this.simulated(taken).park(number(taken));
+		List<ParkingSpace> released = spaces.subList(1, spaces.size());
+
+		this.waitForState(released, true, RESERVATION_TIME + MAX_RELEASE_DELAY);
+		long elapsed = System.currentTimeMillis() - startTime;
+		this.check("unused reservations released after the reservation time",
+				this.countInState(released, true) == released.size()
+				&& elapsed >= RESERVATION_TIME
+				&& elapsed <= RESERVATION_TIME + MAX_RELEASE_DELAY,
+				elapsed + " ms");
+		this.check("parked space stays occupied", !taken.isAvailable(), null);
+
+	} // reservationTimeout
+
+	/**
+	 * Asks for accessible spaces, which only some controllers have, and for
+	 * permit spaces, which the lot does not have, and checks that general
+	 * vehicles are never sent to an accessible space.
+	 *
+	 * @throws InterruptedException
+	 */
+	void spaceCategories() throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Space categories");
+		SimulatedEntrance entrance = this.entrances.get(0);
+		List<ParkingSpace> accessible = this.toSpaces(
+				entrance.getSpaceSuggestions(5000, 'A'));
+		int inCategory = 0;
+		for (ParkingSpace space : accessible) {
+			if (space.isIn(ParkingSpace.ACCESSIBLE))
+				inCategory++;
+		} // for - each suggested space
+		this.check("accessible vehicle got only accessible spaces",
+				!accessible.isEmpty() && inCategory == accessible.size(),
+				inCategory + "/" + accessible.size());
+
+		List<ParkingSpace> general = this.toSpaces(
+				entrance.getSpaceSuggestions(5000));
+		inCategory = 0;
+		for (ParkingSpace space : general) {
+			if (space.isIn(ParkingSpace.ACCESSIBLE))
+				inCategory++;
+		} // for - each suggested space
+		this.check("general vehicle got no accessible spaces",
+				!general.isEmpty() && inCategory == 0,
+				inCategory + "/" + general.size());
+
+		List<ParkingSpace> permit = this.toSpaces(
+				entrance.getSpaceSuggestions(5000, 'P'));
+		this.check("permit vehicle got general spaces when none are left",
+				permit.size() == this.CCU.destinations.size(),
+				permit.size() + "/" + this.CCU.destinations.size());
+
+	} // spaceCategories
+
+	/**
+	 * Has the entrances at either end of the lot take turns reporting
+	 * vehicles, and checks that each entrance's suggestions are a shorter
+	 * drive from it than from the other entrance.
+	 *
+	 * @param rounds: The number of vehicles at each entrance
+	 * @throws InterruptedException
+	 */
+	void entranceRoutes(int rounds) throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Entrance routes");
+		Entrance first = this.CCU.entrances.getFirst();
+		Entrance last = this.CCU.entrances.getLast();
+		double[] firstDrives = new double[2], lastDrives = new double[2];
+		for (int round = 0; round < rounds; round++) {
+			for (ParkingSpace space : this.toSpaces(this.entrances.get(
+					first.getNumber()).getSpaceSuggestions(5000))) {
+				firstDrives[0] += first.distance(space);
+				firstDrives[1] += last.distance(space);
+			} // for - each space suggested at the first entrance
+			for (ParkingSpace space : this.toSpaces(this.entrances.get(
+					last.getNumber()).getSpaceSuggestions(5000))) {
+				lastDrives[0] += last.distance(space);
+				lastDrives[1] += first.distance(space);
+			} // for - each space suggested at the last entrance
+		} // for - each round
+
+		this.check("first entrance's suggestions are nearer to it",
+				firstDrives[0] < firstDrives[1], String.format(
+				"%.0f vs %.0f", firstDrives[0], firstDrives[1]));
+		this.check("last entrance's suggestions are nearer to it",
+				lastDrives[0] < lastDrives[1], String.format(
+				"%.0f vs %.0f", lastDrives[0], lastDrives[1]));
+
+	} // entranceRoutes
+
+	/**
+	 * Loses some of the packets on the network while vehicles leave and enter,
+	 * and checks that retries still deliver everything.
+	 *
+	 * @param lossRate: The chance of any packet being lost
+	 * @throws InterruptedException
+	 */
+	void lossyNetwork(double lossRate) throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Lossy network (" + (int) (lossRate * 100) + "%)");
+		this.network.setLossRate(lossRate);
+		long lostBefore = this.network.lost.get();
+
+		ArrayList<ParkingSpace> left = new ArrayList<ParkingSpace>();
+		for (ParkingSpace space : this.CCU.spaces) {
+			if (!space.isAvailable()
+					&& !this.simulated(space).isReserved(number(space))) {
+				this.simulated(space).leave(number(space));
+				left.add(space);
+			} // if - occupied by a parked vehicle
+		} // for - each space
+		long elapsed = this.waitForState(left, true, MAX_UPDATE_TIME * 2);
+		this.check("every space that was left is available",
+				this.countInState(left, true) == left.size(),
+				this.countInState(left, true) + "/" + left.size() + " in "
+				+ elapsed + " ms");
+
+		ArrayList<Long> latencies = new ArrayList<Long>();
+		int answered = 0;
+		for (SimulatedEntrance entrance : this.entrances) {
+			long startTime = System.currentTimeMillis();
+			if (entrance.getSpaceSuggestions(5000) != null)
+				answered++;
+			latencies.add(System.currentTimeMillis() - startTime);
+		} // for - each entrance
+		this.check("every vehicle got suggestions",
+				answered == this.entrances.size(),
+				answered + "/" + this.entrances.size());
+		this.checkLatencies("suggestion latency", latencies,
+				MAX_SUGGESTION_TIME * 2);
+		this.check("packets were lost", this.network.lost.get() > lostBefore,
+				(this.network.lost.get() - lostBefore) + " lost");
+		this.network.setLossRate(0);
+
+	} // lossyNetwork
+
+	/**
+	 * Leaves some spaces reserved and then stops the primary, and checks that
+	 * the standby takes over in time with the same lot state, including when
+	 * each reservation runs out. The standby is not given the radio, since
+	 * the simulated network's only coordinator connection is closed along
+	 * with the primary's radio.
+	 *
+	 * @throws InterruptedException
+	 */
+	void replicationFailover() throws InterruptedException {
+
+		System.out.println();
+		System.out.println("Replication failover");
+		List<ParkingSpace> reserved = this.toSpaces(
+				this.entrances.get(0).getSpaceSuggestions(5000));
+		this.check("standby is still following", this.follow.isAlive(), null);
+
+		long stopTime = System.currentTimeMillis();
+		this.CCU.stepDown();
+		this.lead.join(5000);
+		this.follow.join(MAX_TAKEOVER_TIME * 2);
+		long elapsed = this.takeoverTime - stopTime;
+		this.check("standby takes over with a newer epoch",
+				!this.follow.isAlive() && this.standbyEpoch > 1
+				&& elapsed <= MAX_TAKEOVER_TIME, "epoch " + this.standbyEpoch
+				+ " after " + elapsed + " ms");
+
+		int different = 0;
+		for (ParkingSpace space : this.CCU.spaces) {
+			ParkingSpace copy = this.standby.spaceMap.get(space.getId());
+			if (copy == null || copy.isAvailable() != space.isAvailable()
+					|| this.standby.counters.stateOf(space.getId())
+					!= this.CCU.counters.stateOf(space.getId()))
+				different++;
+		} // for - each space
+		this.check("standby has the same space states", different == 0
+				&& Arrays.equals(this.standby.lastEntranceId,
+						this.CCU.lastEntranceId), different + " different");
+
+		int matched = 0;
+		for (String spaceId : this.CCU.reservations.keySet()) {
+			Long deadline = this.standby.reservations.get(spaceId);
+			if (deadline != null && Math.abs(deadline
+					- this.CCU.reservations.get(spaceId)) <= MAX_DEADLINE_SKEW)
+				matched++;
+		} // for - each reservation
+		this.check("standby has the same reservations",
+				!reserved.isEmpty() && matched == this.CCU.reservations.size()
+				&& matched == this.standby.reservations.size(),
+				matched + "/" + this.CCU.reservations.size());
+
+	} // replicationFailover
+
+	/**
+	 * Stops the simulated controllers and the Central Control Unit.
+	 *
+	 * @throws InterruptedException
+	 */
+	void close() throws InterruptedException {
+		for (SimulatedGroupController controller : this.controllers.values())
+			controller.stop();
+		this.CCU.stepDown();
+		this.lead.join(5000);
+		this.network.close();
+	} // close
+
+	/**
+	 * Prints the result of a single check.
+	 */
+	private void check(String name, boolean ok, String detail) {
+		if (ok)
+			this.passed++;
+		else
+			this.failed++;
+		System.out.println("  " + (ok ? "PASS " : "FAIL ") + name
+				+ ((detail == null) ? "" : " (" + detail + ")"));
+	} // check
+
+	/**
+	 * Checks that the 95th percentile of a list of latencies is within a
+	 * limit.
+	 */
+	private void checkLatencies(String name, List<Long> latencies,
+			long limit) {
+		ArrayList<Long> sorted = new ArrayList<Long>(latencies);
+		Collections.sort(sorted);
+		if (sorted.isEmpty()) {
+			this.check(name, false, "no samples");
+			return;
+		} // if - nothing measured
+		long median = sorted.get(sorted.size() / 2);
+		long p95 = sorted.get((int) Math.ceil(sorted.size() * 0.95) - 1);
+		long max = sorted.get(sorted.size() - 1);
+		this.check(name + " p95 <= " + limit + " ms", p95 <= limit,
+				"p50 " + median + ", p95 " + p95 + ", max " + max + " ms");
+	} // checkLatencies
+
+	/**
+	 * Waits for every space to reach the given state.
+	 *
+	 * @return the time that it took, or more than the timeout if it did not
+	 */
+	private long waitForState(List<ParkingSpace> spaces, boolean available,
+			long timeout) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		while (this.countInState(spaces, available) < spaces.size()) {
+			if (System.currentTimeMillis() - startTime > timeout)
+				break;
+			Thread.sleep(1);
+		} // while - waiting
+		return System.currentTimeMillis() - startTime;
+	} // waitForState
+
+	private int countInState(List<ParkingSpace> spaces, boolean available) {
+		int count = 0;
+		for (ParkingSpace space : spaces) {
+			if (space.isAvailable() == available)
+				count++;
+		} // for - each space
+		return count;
+	} // countInState
+
+	private int countIndicators(int state) {
+		int count = 0;
+		for (SimulatedGroupController controller : this.controllers.values()) {
+			if (controller.getIndicator() == state)
+				count++;
+		} // for - each controller
+		return count;
+	} // countIndicators
+
+	/**
+	 * Finds the spaces at a list of suggested coordinates.
+	 */
+	private List<ParkingSpace> toSpaces(List<int[]> suggestions) {
+		ArrayList<ParkingSpace> spaces = new ArrayList<ParkingSpace>();
+		if (suggestions != null) {
+			for (int[] position : suggestions) {
+				ParkingSpace space = this.spacesByPosition.get(
+						position[0] + "," + position[1]);
+				if (space != null)
+					spaces.add(space);
+			} // for - each suggestion
+		} // if - suggestions were received
+		return spaces;
+	} // toSpaces
+
+	private SimulatedGroupController simulated(ParkingSpace space) {
+		return this.controllers.get(space.getController());
+	} // simulated
+
+	private static int number(ParkingSpace space) {
+		return Integer.parseInt(space.getId().substring(
+				space.getId().lastIndexOf('.') + 1));
+	} // number
+
+	/**
+	 * Writes a lot file with the group controllers in rows, the destinations
+	 * spread along the top of the lot and the entrances spread along the
+	 * bottom. The last space of every other controller is an accessible
+	 * space.
+	 */
+	private static void writeLotFile(File file, int controllerCount,
+			int spacesPerController, int destinationCount, int entranceCount)
+			throws IOException {
+
+		int perRow = (int) Math.ceil(Math.sqrt(controllerCount));
+		int width = spacesPerController * 9 + 10;
+		PrintWriter out = new PrintWriter(file);
+		out.println("DESTINATIONS");
+		for (int i = 0; i < destinationCount; i++)
+			out.println("\tD" + i + " " + (width * perRow * (2 * i + 1)
+					/ (2 * destinationCount)) + " 0");
+		out.println("END_DESTINATIONS");
+		out.println("ENTRANCES");
+		int bottom = 30 * ((controllerCount + perRow - 1) / perRow) + 60;
+		for (int i = 0; i < entranceCount; i++)
+			out.println("\tE" + i + " " + (width * perRow * (2 * i + 1)
+					/ (2 * entranceCount)) + " " + bottom);
+		out.println("END_ENTRANCES");
+		out.println("GROUP_CONTROLLERS");
+		for (int i = 0; i < controllerCount; i++) {
+			out.println(String.format("\tG%d %d %d 00 13 A2 00 20 00 %02X %02X",
+					i, width * (i % perRow) + width / 2, 30 * (i / perRow) + 30,
+					i >> 8, i & 0xFF));
+			for (int j = 0; j < spacesPerController; j++)
+				out.println("\t\t" + j + " "
+						+ (9 * j - 9 * spacesPerController / 2) + " 9"
+						+ ((i % 2 == 0 && j == spacesPerController - 1)
+								? " A" : ""));
+			out.println("\t\tEND_SPACES");
+		} // for - each group controller
+		out.println("END_GROUP_CONTROLLERS");
+		out.close();
+
+	} // writeLotFile
+
+} // IntegrationScenarios - Class
@@ -0,0 +1,253 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+
+/**
+ * The LinkHealth class keeps track of how well the Central Control Unit can
+ * reach each of the other radios in the lot. For each 64-bit address it keeps
+ * an estimate of the round trip time of a transmission, the share of recent
+ * transmissions that succeeded and the last time that a message was heard from
+ * that radio.
+ *
+ * The round trip estimates are used to pick a transmit timeout for each radio
+ * the same way TCP picks its retransmission timeout, so a healthy radio is not
+ * waited on for longer than it needs. After several transmissions in a row
+ * have failed the radio is treated as unreachable (the circuit is opened) and
+ * no more transmissions are attempted until a cool down period has passed or
+ * a message is heard from it. After the cool down a single transmission is
+ * let through to test whether the radio has come back, and the cool down
+ * starts again while it is being tried, so that every other sender keeps
+ * waiting on its result. The radio is still reported as unreachable until
+ * that test succeeds. Times are read from the Central Control Unit's clock,
+ * so that the cool down also passes on simulated time.
+ *
+ * @author Elliot Dean
+ */
+public class LinkHealth {
+
+	/** The timeout used before any round trip has been measured, in ms */
+	static final int DEFAULT_TIMEOUT = 3000;
+
+	/** The smallest and largest timeouts that will be used, in ms */
+	static final int MIN_TIMEOUT = 250;
+	static final int MAX_TIMEOUT = 5000;
+
+	/** Failures in a row before a radio is treated as unreachable */
+	static final int FAILURE_THRESHOLD = 3;
+
+	/** Time before an unreachable radio is tried again, in milliseconds */
+	static final long COOL_DOWN = 30 * 1000;
+
+	/** How much each transmission counts towards the success ratio */
+	static final double RATIO_WEIGHT = 0.1;
+
+	/** The health of each radio that has been used */
+	private final ConcurrentHashMap<XBeeAddress64, Link> links;
+
+	/** The number of times that a radio has become unreachable */
+	private final AtomicLong openings;
+
+	/** The clock that failures and cool downs are timed with */
+	private final CentralControlUnit.Clock clock;
+
+	/**
+	 * Creates an object with no history for any radio.
+	 *
+	 * @param clock: The clock that failures and cool downs are timed with
+	 */
+	public LinkHealth(CentralControlUnit.Clock clock) {
+		this.links = new ConcurrentHashMap<XBeeAddress64, Link>();
+		this.openings = new AtomicLong();
+		this.clock = clock;
+	} // LinkHealth
+
+	/**
+	 * Gets the number of times that a radio has become unreachable, so that a
+	 * caller can tell whether any has since it last looked.
+	 *
+	 * @return the number of times a radio's circuit has opened
+	 */
+	public long getOpenings() {
+		return this.openings.get();
+	} // getOpenings
+
+	/**
+	 * Gets the timeout that should be used for the next transmission to a
+	 * radio, based on its measured round trip times.
+	 *
+	 * @param address: The address of the radio
+	 * @return the timeout in milliseconds
+	 */
+	public int timeout(XBeeAddress64 address) {
+		Link link = this.links.get(address);
+		if (link == null)
+			return DEFAULT_TIMEOUT;
+		synchronized (link) {
+			if (link.smoothedRtt < 0)
+				return DEFAULT_TIMEOUT;
+			double timeout = link.smoothedRtt + 4 * link.rttVariance;
+			return (int) Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+		} // synchronized
+	} // timeout
+
+	/**
+	 * Checks whether a radio may be reachable, without using up the test
+	 * transmission of a radio whose cool down has passed. A radio stays
+	 * unreachable after its cool down until the test transmission succeeds or
+	 * a message is heard from it.
+	 *
+	 * @param address: The address of the radio
+	 * @return false if the radio is currently treated as unreachable
+	 */
+	public boolean isReachable(XBeeAddress64 address) {
+		Link link = this.links.get(address);
+		if (link == null)
+			return true;
+		synchronized (link) {
+			return link.openedAt < 0;
+		} // synchronized
+	} // isReachable
+
+	/**
+	 * Checks whether a transmission to a radio should be attempted, and must
+	 * be followed by recordSuccess or recordFailure if it is. If the radio is
+	 * unreachable but its cool down has passed, only the first caller is let
+	 * through, and the cool down is started again until that test
+	 * transmission is recorded.
+	 *
+	 * @param address: The address of the radio
+	 * @return true if the transmission should be attempted
+	 */
+	public boolean allowTransmit(XBeeAddress64 address) {
+		Link link = this.links.get(address);
+		if (link == null)
+			return true;
+		synchronized (link) {
+			if (link.openedAt < 0)
+				return true;
+			long now = this.clock.millis();
+			if (now - link.openedAt < COOL_DOWN)
+				return false;
+			link.openedAt = now; // Holds back the others during the test
+			return true;
+		} // synchronized
+	} // allowTransmit
+
+	/**
+	 * Records a transmission that was acknowledged by a radio.
+	 *
+	 * @param address: The address of the radio
+	 * @param rtt: The time taken to receive the acknowledgement, in ms
+	 */
+	public void recordSuccess(XBeeAddress64 address, long rtt) {
+		Link link = this.link(address);
+		synchronized (link) {
+			if (link.smoothedRtt < 0) {
+				link.smoothedRtt = rtt;
+				link.rttVariance = rtt / 2.0;
+			} // if - first measurement
+			else {
+				link.rttVariance = 0.75 * link.rttVariance
+						+ 0.25 * Math.abs(link.smoothedRtt - rtt);
+				link.smoothedRtt = 0.875 * link.smoothedRtt + 0.125 * rtt;
+			} // else - update estimates
+			link.successRatio += RATIO_WEIGHT * (1.0 - link.successRatio);
+			link.failures = 0;
+			link.openedAt = -1;
+		} // synchronized
+	} // recordSuccess
+
+	/**
+	 * Records a transmission that failed or timed out. The timeout is backed
+	 * off, and the radio is treated as unreachable once enough failures have
+	 * happened in a row.
+	 *
+	 * @param address: The address of the radio
+	 */
+	public void recordFailure(XBeeAddress64 address) {
+		Link link = this.link(address);
+		synchronized (link) {
+			link.successRatio -= RATIO_WEIGHT * link.successRatio;
+			if (link.smoothedRtt >= 0)
+				link.rttVariance = Math.min(MAX_TIMEOUT, link.rttVariance * 2);
+			link.failures++;
+			if (link.failures >= FAILURE_THRESHOLD) {
+				if (link.openedAt < 0) {
+					EventLog.warning("radio_unreachable", "address", address);
+					this.openings.incrementAndGet();
+				} // if - circuit opened
+				link.openedAt = this.clock.millis();
+			} // if - too many failures
+		} // synchronized
+	} // recordFailure
+
+	/**
+	 * Records a message being heard from a radio, which shows that it is
+	 * reachable again.
+	 *
+	 * @param address: The address of the radio
+	 * @param time: The time that the message was received, in ms
+	 */
+	public void recordHeard(XBeeAddress64 address, long time) {
+		Link link = this.link(address);
+		synchronized (link) {
+			link.lastHeard = time;
+			link.failures = 0;
+			link.openedAt = -1;
+		} // synchronized
+	} // recordHeard
+
+	/**
+	 * Gets a line describing the health of every radio that has been used.
+	 *
+	 * @return a description of each radio's health
+	 */
+	public String describe() {
+		StringBuilder description = new StringBuilder();
+		long now = this.clock.millis();
+		for (Map.Entry<XBeeAddress64, Link> entry : this.links.entrySet()) {
+			Link link = entry.getValue();
+			synchronized (link) {
+				description.append("Radio: ").append(entry.getKey())
+						.append(String.format("%n\tRTT: %.0f ms\tTimeout: %d ms"
+								+ "\tSuccess: %.0f%%\tLast heard: %s\t%s%n",
+								link.smoothedRtt, this.timeout(entry.getKey()),
+								link.successRatio * 100,
+								link.lastHeard < 0 ? "never"
+										: (now - link.lastHeard) / 1000 + " s ago",
+								link.openedAt < 0 ? "Reachable"
+										: "Unreachable"));
+			} // synchronized
+		} // for each - radio
+		return description.toString();
+	} // describe
+
+	/**
+	 * Gets the health of a radio, adding it if needed.
+	 */
+	private Link link(XBeeAddress64 address) {
+		Link link = this.links.get(address);
+		if (link == null) {
+			Link added = new Link();
+			link = this.links.putIfAbsent(address, added);
+			if (link == null)
+				link = added;
+		} // if - first use of the radio
+		return link;
+	} // link
+
+	/**
+	 * The health of a single radio.
+	 */
+	private static class Link {
+		double smoothedRtt = -1;
+		double rttVariance;
+		double successRatio = 1.0;
+		int failures;
+		long lastHeard = -1;
+		long openedAt = -1;
+	} // Link - Class
+
+} // LinkHealth - Class
@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The LotCounters class keeps running counts of how many spaces are
+ * available, occupied and reserved, for the whole lot as well as for each
+ * zone and each group controller. The counts are changed as each space
+ * changes state, so they can be read at any time without looking at every
+ * space in the lot.
+ *
+ * The counts are changed by the Central Control Unit's main program loop and
+ * may be read from any thread. Every change can also be written to an
+ * OccupancyMap, so that other programs can read the state of the lot.
+ *
+ * @author Elliot Dean
+ */
+public class LotCounters {
+
+	/** The number of states that are counted */
+	static final int STATES = 3;
+
+	/** The counted state, zone and controller of each space */
+	private final HashMap<String, Entry> entries;
+
+	/** The number of spaces in each state */
+	private final int[] totals;
+	private final HashMap<String, int[]> zoneCounts;
+	private final HashMap<String, int[]> controllerCounts;
+
+	/** The spaces in the order they are laid out in the map */
+	private List<ParkingSpace> layout;
+	private OccupancyMap map;
+
+	/**
+	 * Creates a set of counters without any spaces.
+	 */
+	public LotCounters() {
+		this.entries = new HashMap<String, Entry>();
+		this.totals = new int[STATES];
+		this.zoneCounts = new HashMap<String, int[]>();
+		this.controllerCounts = new HashMap<String, int[]>();
+		this.layout = new ArrayList<ParkingSpace>();
+	} // LotCounters
+
+	/**
+	 * Starts writing the state of every space to an occupancy map.
+	 *
+	 * @param map: The map to write to
+	 */
+	public synchronized void setMap(OccupancyMap map) {
+		this.map = map;
+		this.writeLayout();
+	} // setMap
+
+	/**
+	 * Counts a space's new state.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @param state: The OccupancyHistory state of the space
+	 */
+	public synchronized void set(String spaceId, int state) {
+		Entry entry = this.entries.get(spaceId);
+		if (entry == null || entry.state == state)
+			return;
+		this.count(entry, -1);
+		entry.state = state;
+		this.count(entry, 1);
+		if (this.map != null)
+			this.map.set(entry.index, state);
+	} // set
+
+	/**
+	 * Counts every space in a new lot layout. Spaces that were already being
+	 * counted keep their state, and new spaces are counted as available or
+	 * occupied.
+	 *
+	 * @param spaces: Every space in the lot
+	 * @param zoneMap: The zone of each group controller
+	 */
+	public synchronized void rebuild(List<ParkingSpace> spaces,
+			Map<GroupController, LotZone> zoneMap) {
+
+		HashMap<String, Entry> old = new HashMap<String, Entry>(this.entries);
+		this.entries.clear();
+		for (int i = 0; i < STATES; i++)
+			this.totals[i] = 0;
+		this.zoneCounts.clear();
+		this.controllerCounts.clear();
+
+		this.layout = new ArrayList<ParkingSpace>(spaces);
+		for (int i = 0; i < this.layout.size(); i++) {
+			ParkingSpace space = this.layout.get(i);
+			Entry previous = old.get(space.getId());
+			Entry entry = new Entry(i,
+					zoneMap.get(space.getController()).getId(),
+					space.getController().getId(), (previous != null)
+							? previous.state : space.isAvailable()
+							? OccupancyHistory.AVAILABLE
+							: OccupancyHistory.OCCUPIED);
+			this.entries.put(space.getId(), entry);
+			this.count(entry, 1);
+		} // for - each space
+		this.writeLayout();
+
+	} // rebuild
+
+	/**
+	 * Gets the counted state of a space.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @return the OccupancyHistory state, or -1 if it is not being counted
+	 */
+	public synchronized int stateOf(String spaceId) {
+		Entry entry = this.entries.get(spaceId);
+		return (entry == null) ? -1 : entry.state;
+	} // stateOf
+
+	/**
+	 * Gets the number of spaces in each state across the whole lot.
+	 *
+	 * @return the counts, indexed by OccupancyHistory state
+	 */
+	public synchronized int[] totals() {
+		return this.totals.clone();
+	} // totals
+
+	/**
+	 * Gets the number of spaces in each state for every zone.
+	 *
+	 * @return the counts of each zone, indexed by OccupancyHistory state
+	 */
+	public synchronized HashMap<String, int[]> byZone() {
+		return copy(this.zoneCounts);
+	} // byZone
+
+	/**
+	 * Gets the number of spaces in each state for every group controller.
+	 *
+	 * @return the counts of each controller, indexed by OccupancyHistory state
+	 */
+	public synchronized HashMap<String, int[]> byController() {
+		return copy(this.controllerCounts);
+	} // byController
+
+	/**
+	 * Lays out every space and its state in the occupancy map, if there is
+	 * one.
+	 */
+	private void writeLayout() {
+		if (this.map == null)
+			return;
+		int[] states = new int[this.layout.size()];
+		for (int i = 0; i < states.length; i++)
+			states[i] = this.entries.get(this.layout.get(i).getId()).state;
+		this.map.layout(this.layout, states);
+	} // writeLayout
+
+	/**
+	 * Adds or takes away a space from the counts of its state.
+	 */
+	private void count(Entry entry, int change) {
+		this.totals[entry.state] += change;
+		counts(this.zoneCounts, entry.zone)[entry.state] += change;
+		counts(this.controllerCounts, entry.controller)[entry.state] += change;
+	} // count
+
+	/**
+	 * Gets the counts for a key, creating them if needed.
+	 */
+	private static int[] counts(HashMap<String, int[]> map, String key) {
+		int[] counts = map.get(key);
+		if (counts == null) {
+			counts = new int[STATES];
+			map.put(key, counts);
+		} // if - first space for the key
+		return counts;
+	} // counts
+
+	/**
+	 * Copies a map of counts so that it can be read outside of the lock.
+	 */
+	private static HashMap<String, int[]> copy(HashMap<String, int[]> map) {
+		HashMap<String, int[]> copy = new HashMap<String, int[]>();
+		for (Map.Entry<String, int[]> entry : map.entrySet())
+			copy.put(entry.getKey(), entry.getValue().clone());
+		return copy;
+	} // copy
+
+	/**
+	 * The counted state of a single space.
+	 */
+	private static class Entry {
+
+		/** The position of the space in the layout */
+		final int index;
+		final String zone;
+		final String controller;
+		int state;
+
+		Entry(int index, String zone, String controller, int state) {
+			this.index = index;
+			this.zone = zone;
+			this.controller = controller;
+			this.state = state;
+		} // Entry
+
+	} // Entry - Class
+
+} // LotCounters - Class
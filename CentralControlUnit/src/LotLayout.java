@@ -0,0 +1,185 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * The LotLayout class holds the contents of a lot file: the destinations, the
+ * entrances, the group controllers and their parking spaces, and the zone
+ * that each group controller belongs to. It is read when the Central Control
+ * Unit starts and again whenever the file is changed, so that the new layout
+ * can be compared to the one that is running.
+ *
+ * @author Elliot Dean
+ */
+public class LotLayout {
+
+	/** The identifier of the zone for controllers that are not listed */
+	public static final String DEFAULT_ZONE = "Z";
+
+	final LinkedList<Destination> destinations;
+	final LinkedList<Entrance> entrances;
+	final LinkedHashMap<String, GroupController> controllers;
+	final LinkedList<ParkingSpace> spaces;
+
+	/** The zone identifier of each listed group controller */
+	final HashMap<String, String> zoneAssignments;
+
+	/** The identifiers of the zones in the order they are listed */
+	final LinkedList<String> zoneIds;
+
+	/**
+	 * Creates an empty layout.
+	 */
+	LotLayout() {
+		this.destinations = new LinkedList<Destination>();
+		this.entrances = new LinkedList<Entrance>();
+		this.controllers = new LinkedHashMap<String, GroupController>();
+		this.spaces = new LinkedList<ParkingSpace>();
+		this.zoneAssignments = new HashMap<String, String>();
+		this.zoneIds = new LinkedList<String>();
+	} // LotLayout
+
+	/**
+	 * Reads a layout from a lot file.
+	 *
+	 * @param fileName: The name of the file with the lot information
+	 * @return the layout described by the file
+	 * @throws IOException if the file cannot be read or is not complete
+	 */
+	public static LotLayout read(String fileName) throws IOException {
+
+		LotLayout layout = new LotLayout();
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		String nextLine;
+
+		try {
+			while ((nextLine = br.readLine()) != null) {
+
+				if (nextLine.trim().equals("DESTINATIONS")) {
+					while (!(nextLine = next(br)).equals("END_DESTINATIONS")) {
+						if (!nextLine.isEmpty()) {
+
+							String[] destParams = nextLine.split("\\s+");
+							layout.destinations.add(new Destination(
+									Integer.parseInt(destParams[1]),
+									Integer.parseInt(destParams[2]),
+									destParams[0]));
+
+						} // if - line not empty
+					} // while - still loading destinations
+				} // if - loading destinations
+
+				else if (nextLine.trim().equals("ENTRANCES")) {
+					while (!(nextLine = next(br)).equals("END_ENTRANCES")) {
+						if (!nextLine.isEmpty()) {
+
+							// The identifier is E followed by the entrance number
+							String[] entranceParams = nextLine.split("\\s+");
+							if (entranceParams[0].charAt(0) != 'E')
+								throw new IllegalArgumentException(
+										"Bad entrance " + entranceParams[0]);
+							layout.entrances.add(new Entrance(
+									Integer.parseInt(entranceParams[1]),
+									Integer.parseInt(entranceParams[2]),
+									entranceParams[0], Integer.parseInt(
+											entranceParams[0].substring(1))));
+
+						} // if - line not empty
+					} // while - still loading entrances
+				} // else if - loading entrances
+
+				else if (nextLine.trim().equals("GROUP_CONTROLLERS")) {
+					while (!(nextLine = next(br))
+							.equals("END_GROUP_CONTROLLERS")) {
+						if (!nextLine.isEmpty()) {
+
+							String[] gcParams = nextLine.split("\\s+", 4);
+							GroupController controller = new GroupController(
+									Integer.parseInt(gcParams[1]),
+									Integer.parseInt(gcParams[2]), gcParams[0],
+									gcParams[3].replaceAll("\\s+", " "));
+							layout.controllers.put(controller.getId(),
+									controller);
+
+							while (!(nextLine = next(br)).equals("END_SPACES")) {
+								String[] spaceParams = nextLine.split("\\s+");
+								layout.spaces.add(controller.addSpace(
+										Integer.parseInt(spaceParams[1]),
+										Integer.parseInt(spaceParams[2]),
+										controller.getId() + "."
+										+ spaceParams[0],
+										categories(spaceParams)));
+							} // while - adding spaces
+
+						} // if - line not empty
+					} // while - still loading group controllers/spaces
+				} // else if - loading group controllers/parking spaces
+
+				else if (nextLine.trim().equals("ZONES")) {
+					while (!(nextLine = next(br)).equals("END_ZONES")) {
+						if (!nextLine.isEmpty()) {
+
+							String[] zoneParams = nextLine.split("\\s+");
+							layout.zoneIds.add(zoneParams[0]);
+							for (int i = 1; i < zoneParams.length; i++)
+								layout.zoneAssignments.put(zoneParams[i],
+										zoneParams[0]);
+
+						} // if - line not empty
+					} // while - still loading zones
+				} // else if - loading zones
+
+			} // while - not end of file
+		} catch (RuntimeException e) {
+			throw new IOException("Badly formed lot file " + fileName, e);
+		} finally {
+			br.close();
+		} // try-catch-finally
+
+		return layout;
+
+	} // read
+
+	/**
+	 * Gets the identifier of the zone that a group controller belongs to.
+	 *
+	 * @param controllerId: The identifier of the group controller
+	 * @return the zone identifier
+	 */
+	public String getZone(String controllerId) {
+		String zone = this.zoneAssignments.get(controllerId);
+		return (zone == null) ? DEFAULT_ZONE : zone;
+	} // getZone
+
+	/**
+	 * Reads the categories listed after a space's coordinates, each given by
+	 * its letter (e.g. "0 -13 9 A E" for an accessible space with an EV
+	 * charger).
+	 */
+	private static int categories(String[] spaceParams) {
+		int categories = 0;
+		for (int i = 3; i < spaceParams.length; i++) {
+			int category = ParkingSpace.category(spaceParams[i].charAt(0));
+			if (category <= ParkingSpace.GENERAL
+					|| spaceParams[i].length() != 1)
+				throw new IllegalArgumentException("Unknown space category "
+						+ spaceParams[i]);
+			categories |= 1 << category;
+		} // for - each category listed
+		return categories;
+	} // categories
+	
+	/**
+	 * Reads the next line of a section, trimmed.
+	 */
+	private static String next(BufferedReader br) throws IOException {
+		String line = br.readLine();
+		if (line == null)
+			throw new IOException("Unexpected end of lot file");
+		return line.trim();
+	} // next
+
+} // LotLayout - Class
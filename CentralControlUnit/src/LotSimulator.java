@@ -0,0 +1,968 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+
+/**
+ * The LotSimulator program shows how a Smart Parking Lot would cope with a
+ * lot that is much larger than any that has been built, such as one with
+ * 5,000 spaces, 20 destinations and 6 entrances at rush hour. It writes a lot
+ * file of that size and runs the decision logic of a real Central Control
+ * Unit on it, with simulated group controllers, entrance controllers,
+ * drivers and radio in place of the hardware.
+ *
+ * Everything runs on simulated time as a discrete event simulation, so an
+ * hour of the lot takes only seconds. Vehicles arrive at random at each
+ * entrance, drive to the space suggested for their destination and leave
+ * again after a random stay. Each radio packet takes up the shared channel
+ * for as long as it would take to send at 250 kbps, crosses the network
+ * after a set latency and may be lost at random. The Central Control Unit
+ * handles one message at a time, and the time it takes to handle each one is
+ * measured as it runs, so the unit can fall behind just as it would in a
+ * real lot.
+ *
+ * Once the simulation is done the program reports how long vehicles waited
+ * for their suggestions, how much of the radio channel was used, and how
+ * good the suggestions were. A suggestion is compared with every space that
+ * was really empty and not reserved when it was given, and a driver who
+ * follows it checks whether the space is still empty when they get there.
+ *
+ * The optional arguments are:
+ * 		spaces destinations entrances arrivalsPerMinute minutes latency lossRate
+ *
+ * @author Elliot Dean
+ */
+public class LotSimulator {
+
+	// Variables used to tune the simulated lot
+	static final int SPACES_PER_CONTROLLER = 10;
+	static final int CONTROLLERS_PER_ZONE = 50;
+	static final double INITIAL_OCCUPANCY = 0.5; // Spaces full at the start
+	static final double MEAN_STAY = 2 * 60 * 60 * 1000; // Time parked, in ms
+	static final double DRIVE_SPEED = 16; // Lot units driven per second
+	static final double COMPLIANCE = 0.9; // Drivers that follow suggestions
+	static final long DETECTION_TIME = 4000; // Group controller detection time
+	static final long RESERVATION_TIME = 20 * 1000; // Group controller reservations
+	static final long IDLE_TIME = 1000; // Main loop wait before planning ahead
+
+	// Variables used to model the radio channel
+	static final double BIT_RATE = 250000; // 802.15.4 at 2.4 GHz
+	static final int FRAME_OVERHEAD = 31; // PHY, MAC, network and APS headers
+	static final int ACK_SIZE = 11; // The MAC acknowledgement of each frame
+	static final int MAX_PAYLOAD = 84; // The most payload bytes in one frame
+	static final long TURNAROUND = 500; // Backoff and turnaround, in us
+
+	/** The address of the first simulated entrance controller */
+	static final long ENTRANCE_ADDRESS = 0x0013A20030000000L;
+
+	final CentralControlUnit CCU;
+	final Random random;
+	final long latency; // Time for a packet to cross the network, in us
+	final double lossRate;
+	final long ackTimeout; // Time to wait for each acknowledgement, in us
+
+	/** The events still to happen, soonest first */
+	private final PriorityQueue<Event> events;
+	private long nextSequence;
+	/** The simulated time, in microseconds since the start */
+	private long now;
+	/** The time on the Central Control Unit's clock at the start, in ms */
+	private final long startTime;
+
+	// The simulated lot
+	final List<ParkingSpace> spaces;
+	final HashMap<Long, Integer> spacesByPosition;
+	final boolean[] occupied;
+	final SimulatedController[] spaceControllers;
+	final int[] spaceNumbers;
+	final HashMap<Long, SimulatedController> controllers;
+	final List<SimulatedEntrance> entrances;
+	final int destinationCount;
+
+	// The Central Control Unit, which handles one message at a time
+	private final ArrayDeque<Job> jobs;
+	private ArrayList<Runnable> outbox;
+	private boolean busy;
+	private long lastActive;
+
+	/** The end of the last packet sent on the channel, in us */
+	private long channelFree;
+
+	// The results
+	final ArrayList<Long> latencies = new ArrayList<Long>();
+	final ArrayList<Double> extraCosts = new ArrayList<Double>();
+	final ArrayList<Long> waits = new ArrayList<Long>();
+	long[] airtimeByMinute;
+	long arrived, unanswered, parked, leftFull, followed, freeOnArrival;
+	long bestSuggestions, staleSuggestions, repeatedSuggestions;
+	long frames, retries, givenUp, airtime, busyTime, largestPayload;
+
+	/**
+	 * Sets up the lot, runs the simulation and prints the results.
+	 *
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int spaceCount = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+		int destinationCount = (args.length > 1)
+				? Integer.parseInt(args[1]) : 20;
+		int entranceCount = (args.length > 2) ? Integer.parseInt(args[2]) : 6;
+		double arrivalRate = (args.length > 3)
+				? Double.parseDouble(args[3]) : 60;
+		int minutes = (args.length > 4) ? Integer.parseInt(args[4]) : 60;
+		long latency = (args.length > 5) ? Long.parseLong(args[5]) : 5;
+		double lossRate = (args.length > 6)
+				? Double.parseDouble(args[6]) : 0.02;
+
+		EventLog.open(new File("logs"), "simulator");
+		EventLog.setConsole(false);
+		File lotFile = File.createTempFile("SimulatedLot", ".txt");
+		lotFile.deleteOnExit();
+		writeLotFile(lotFile, spaceCount, destinationCount, entranceCount);
+		File history = File.createTempFile("SimulatedHistory", "");
+		history.delete();
+
+		long wallStart = System.nanoTime();
+		LotSimulator simulator = new LotSimulator(lotFile, history,
+				destinationCount, entranceCount, latency, lossRate, 1);
+		simulator.run(arrivalRate, minutes);
+		double wallTime = (System.nanoTime() - wallStart) / 1e9;
+
+		System.out.println(String.format("Simulated %d minutes of a lot with "
+				+ "%d spaces, %d destinations and %d entrances in %.1f s "
+				+ "(%.0fx real time)", minutes, spaceCount, destinationCount,
+				entranceCount, wallTime, minutes * 60 / wallTime));
+		simulator.report(minutes);
+
+		simulator.CCU.history.flush();
+		delete(history);
+		System.exit(0);
+
+	} // main
+
+	/**
+	 * Creates a Central Control Unit for a lot file along with a simulated
+	 * controller for every group controller and entrance in the file.
+	 *
+	 * @param lotFile: The lot file
+	 * @param history: The directory to keep the occupancy history in
+	 * @param destinationCount: The number of destinations in the file
+	 * @param entranceCount: The number of entrances in the file
+	 * @param latency: The time for a packet to cross the network, in ms
+	 * @param lossRate: The chance of any packet being lost, from 0 to 1
+	 * @param seed: The seed of the random numbers, so runs can be repeated
+	 * @throws IOException
+	 */
+	LotSimulator(File lotFile, File history, int destinationCount,
+			int entranceCount, long latency, double lossRate, long seed)
+			throws IOException {
+
+		this.random = new Random(seed);
+		this.latency = latency * 1000;
+		this.lossRate = lossRate;
+		this.ackTimeout = 2 * this.latency + 50000;
+		this.events = new PriorityQueue<Event>();
+		this.jobs = new ArrayDeque<Job>();
+		this.outbox = new ArrayList<Runnable>();
+		this.destinationCount = destinationCount;
+
+		this.startTime = System.currentTimeMillis();
+		this.CCU = new CentralControlUnit();
+		this.CCU.clock = new CentralControlUnit.Clock() {
+			@Override
+			public long millis() {
+				return startTime + now / 1000;
+			} // millis
+		};
+		this.CCU.historyDirectory = history;
+		this.CCU.initialize(lotFile.getPath());
+		this.CCU.runtime = new SimulatedSender();
+		this.CCU.leader = true;
+
+		// Creates a simulated controller for each group controller
+		this.spaces = new ArrayList<ParkingSpace>(this.CCU.spaces);
+		this.spacesByPosition = new HashMap<Long, Integer>();
+		this.occupied = new boolean[this.spaces.size()];
+		this.spaceControllers = new SimulatedController[this.spaces.size()];
+		this.spaceNumbers = new int[this.spaces.size()];
+		this.controllers = new HashMap<Long, SimulatedController>();
+		for (int i = 0; i < this.spaces.size(); i++) {
+			ParkingSpace space = this.spaces.get(i);
+			long address = space.getController().getAddress();
+			SimulatedController controller = this.controllers.get(address);
+			if (controller == null) {
+				controller = new SimulatedController(address);
+				this.controllers.put(address, controller);
+			} // if - first space of the controller
+			this.spaceNumbers[i] = Integer.parseInt(space.getId().substring(
+					space.getId().lastIndexOf('.') + 1));
+			this.spaceControllers[i] = controller;
+			controller.add(this.spaceNumbers[i], i);
+			this.spacesByPosition.put(position(space.getX(), space.getY()), i);
+		} // for - each space
+
+		this.entrances = new ArrayList<SimulatedEntrance>();
+		for (int i = 0; i < entranceCount; i++)
+			this.entrances.add(new SimulatedEntrance(ENTRANCE_ADDRESS + i, i));
+
+	} // LotSimulator
+
+	/**
+	 * Fills part of the lot and then runs it with vehicles arriving at a set
+	 * rate.
+	 *
+	 * @param arrivalRate: The vehicles arriving each minute, across the lot
+	 * @param minutes: The length of time to run the lot for
+	 */
+	void run(final double arrivalRate, int minutes) {
+
+		// Vehicles that were already parked are known before the start
+		for (int i = 0; i < this.spaces.size(); i++) {
+			if (this.random.nextDouble() < INITIAL_OCCUPANCY) {
+				this.occupied[i] = true;
+				this.spaceControllers[i].reported[this.spaceNumbers[i]] = true;
+				this.CCU.processMessage(this.spaceControllers[i].address, 'S',
+						this.spaceNumbers[i], 'O', 0);
+				this.leave(i);
+			} // if - space starts full
+		} // for - each space
+		this.CCU.runEvents();
+		this.CCU.updateBestSpaces();
+
+		this.airtimeByMinute = new long[minutes];
+		this.schedule(0, new Runnable() {
+			@Override
+			public void run() {
+				arrive();
+				schedule(now + exponential(60e6 / arrivalRate), this);
+			} // run
+		});
+		this.schedule(0, new Runnable() {
+			@Override
+			public void run() {
+				planAhead();
+				schedule(now + IDLE_TIME * 1000 / 4, this);
+			} // run
+		});
+
+		long end = minutes * 60000000L;
+		Event event;
+		while ((event = this.events.peek()) != null && event.time <= end) {
+			this.events.poll();
+			this.now = event.time;
+			event.action.run();
+		} // while - events before the end
+		this.now = end;
+
+	} // run
+
+	/**
+	 * Prints the results of the simulation.
+	 */
+	void report(int minutes) {
+
+		System.out.println("Vehicles: " + this.arrived + " arrived, "
+				+ this.latencies.size() + " answered, " + this.unanswered
+				+ " told the lot was full, " + this.parked + " parked, "
+				+ this.leftFull + " found nowhere to park, "
+				+ (this.arrived - this.latencies.size()) + " still waiting");
+
+		Collections.sort(this.latencies);
+		System.out.println(String.format("Suggestion latency: p50 %.1f ms, "
+				+ "p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+				percentile(this.latencies, 0.5) / 1000.0,
+				percentile(this.latencies, 0.9) / 1000.0,
+				percentile(this.latencies, 0.99) / 1000.0,
+				percentile(this.latencies, 1.0) / 1000.0));
+
+		long busiest = 0;
+		for (long minute : this.airtimeByMinute)
+			busiest = Math.max(busiest, minute);
+		System.out.println(String.format("Radio: %d packets sent, %d retries, "
+				+ "%d given up, %.1f s of airtime (%.1f%% of the channel, "
+				+ "%.1f%% in the busiest minute)", this.frames, this.retries,
+				this.givenUp, this.airtime / 1e6,
+				100.0 * this.airtime / (minutes * 60e6),
+				100.0 * busiest / 60e6));
+		System.out.println("Largest message: " + this.largestPayload
+				+ " bytes (" + ((this.largestPayload > MAX_PAYLOAD)
+						? "needs " + frames(this.largestPayload) + " packets"
+						: "fits in one packet") + ")");
+
+		Collections.sort(this.waits);
+		System.out.println(String.format("Central Control Unit: busy %.1f%% "
+				+ "of the time, p99 wait %.1f ms, max wait %.1f ms",
+				100.0 * this.busyTime / (minutes * 60e6),
+				percentile(this.waits, 0.99) / 1000.0,
+				percentile(this.waits, 1.0) / 1000.0));
+		System.out.print(this.CCU.dispatcher.describe());
+
+		Collections.sort(this.extraCosts);
+		System.out.println(String.format("Accuracy: %.1f%% of suggestions were "
+				+ "the best space, %.1f%% were already full, %.1f%% of "
+				+ "followed suggestions were empty on arrival",
+				percent(this.bestSuggestions, this.extraCosts.size()),
+				percent(this.staleSuggestions, this.extraCosts.size()),
+				percent(this.freeOnArrival, this.followed)));
+		System.out.println(String.format("Extra cost over the best space: "
+				+ "mean %.1f, p95 %.1f, max %.1f (lot units), %d repeated "
+				+ "displays", mean(this.extraCosts),
+				percentile(this.extraCosts, 0.95),
+				percentile(this.extraCosts, 1.0), this.repeatedSuggestions));
+
+	} // report
+
+	/**
+	 * A vehicle arrives at a random entrance going to a random destination.
+	 */
+	private void arrive() {
+		Vehicle vehicle = new Vehicle();
+		vehicle.arrivedAt = this.now;
+		vehicle.destination = this.random.nextInt(this.destinationCount);
+		vehicle.compliant = this.random.nextDouble() < COMPLIANCE;
+		this.arrived++;
+		this.entrances.get(this.random.nextInt(this.entrances.size()))
+				.arrive(vehicle);
+	} // arrive
+
+	/**
+	 * Lets the Central Control Unit plan ahead once its main loop has waited
+	 * for a message for as long as it would on a real radio.
+	 */
+	private void planAhead() {
+		if (this.busy || this.now - this.lastActive < IDLE_TIME * 1000)
+			return;
+		this.toCCU(new Runnable() {
+			@Override
+			public void run() {
+				CCU.prepareSuggestions();
+			} // run
+		});
+	} // planAhead
+
+	/**
+	 * Gives the entrance's vehicle the spaces that were suggested to it and
+	 * sends it off to the one for its destination.
+	 */
+	private void showSuggestions(SimulatedEntrance entrance, Vehicle vehicle,
+			int[] payload) {
+
+		this.latencies.add(this.now - vehicle.arrivedAt);
+		int count = (payload.length - 1) / 4;
+		Integer space = null;
+		if (count > 0) {
+			int i = Math.min(vehicle.destination, count - 1) * 4;
+			space = this.spacesByPosition.get(position(
+					(payload[i + 1] << 8) + payload[i + 2],
+					(payload[i + 3] << 8) + payload[i + 4]));
+		} // if - any spaces suggested
+		if (space == null) {
+			this.unanswered++;
+			return;
+		} // if - lot full
+
+		// Compares the suggestion with the best space that was really free
+		Route route = this.CCU.routes.get(entrance.number)
+				.get(vehicle.destination);
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < this.spaces.size(); i++)
+			if (!this.occupied[i] && !this.spaceControllers[i]
+					.reserved[this.spaceNumbers[i]])
+				best = Math.min(best, route.cost(this.spaces.get(i)));
+		double extra = route.cost(this.spaces.get(space)) - best;
+		if (this.occupied[space])
+			this.staleSuggestions++;
+		else if (extra <= 0)
+			this.bestSuggestions++;
+		this.extraCosts.add(Math.max(0, extra));
+
+		int target = vehicle.compliant
+				? space : this.nearestFree(vehicle.destination);
+		if (target < 0) {
+			this.leftFull++;
+			return;
+		} // if - nowhere to park
+		this.driveTo(vehicle, target, entrance.entrance, vehicle.compliant);
+
+	} // suggested
+
+	/**
+	 * Sends a vehicle from where it is to a space.
+	 */
+	private void driveTo(final Vehicle vehicle, final int space,
+			LotEntity from, final boolean following) {
+		long time = (long) (from.distance(this.spaces.get(space))
+				/ DRIVE_SPEED * 1e6);
+		this.schedule(this.now + time, new Runnable() {
+			@Override
+			public void run() {
+				reachSpace(vehicle, space, following);
+			} // run
+		});
+	} // driveTo
+
+	/**
+	 * Parks a vehicle that has reached a space, or sends it on to the nearest
+	 * empty space to its destination if someone else got there first.
+	 */
+	private void reachSpace(Vehicle vehicle, int space, boolean following) {
+		if (following) {
+			this.followed++;
+			if (!this.occupied[space])
+				this.freeOnArrival++;
+		} // if - following a suggestion
+		if (!this.occupied[space]) {
+			this.occupied[space] = true;
+			this.parked++;
+			this.spaceControllers[space].sense(space);
+			this.leave(space);
+			return;
+		} // if - space still empty
+		int next = this.nearestFree(vehicle.destination);
+		if (next < 0)
+			this.leftFull++;
+		else
+			this.driveTo(vehicle, next, this.spaces.get(space), false);
+	} // reachSpace
+
+	/**
+	 * Empties a space once the vehicle in it has stayed for a random time.
+	 */
+	private void leave(final int space) {
+		this.schedule(this.now + exponential(MEAN_STAY * 1000),
+				new Runnable() {
+			@Override
+			public void run() {
+				occupied[space] = false;
+				spaceControllers[space].sense(space);
+			} // run
+		});
+	} // leave
+
+	/**
+	 * Finds the empty space that is the shortest walk from a destination.
+	 *
+	 * @return the index of the space, or -1 if the lot is full
+	 */
+	private int nearestFree(int destination) {
+		Destination dest = this.CCU.destinations.get(destination);
+		int nearest = -1;
+		double distance = Double.MAX_VALUE;
+		for (int i = 0; i < this.spaces.size(); i++) {
+			if (!this.occupied[i]
+					&& dest.distance(this.spaces.get(i)) < distance) {
+				nearest = i;
+				distance = dest.distance(this.spaces.get(i));
+			} // if - closer empty space
+		} // for - each space
+		return nearest;
+	} // nearestFree
+
+	/**
+	 * Queues work for the Central Control Unit, which is done once the
+	 * messages before it have been handled.
+	 */
+	private void toCCU(Runnable work) {
+		this.jobs.add(new Job(this.now, work));
+		if (!this.busy)
+			this.nextJob();
+	} // toCCU
+
+	/**
+	 * Does the Central Control Unit's next piece of work, taking as much
+	 * simulated time as it really takes. Anything that it sends goes out once
+	 * it has finished.
+	 */
+	private void nextJob() {
+
+		Job job = this.jobs.poll();
+		if (job == null)
+			return;
+		this.busy = true;
+		this.waits.add(this.now - job.queued);
+		long begin = System.nanoTime();
+		job.work.run();
+		long time = (System.nanoTime() - begin) / 1000;
+		this.busyTime += time;
+
+		final ArrayList<Runnable> sent = this.outbox;
+		this.outbox = new ArrayList<Runnable>();
+		this.schedule(this.now + time, new Runnable() {
+			@Override
+			public void run() {
+				for (Runnable send : sent)
+					send.run();
+				busy = false;
+				lastActive = now;
+				nextJob();
+			} // run
+		});
+
+	} // nextJob
+
+	/**
+	 * Runs anything that the Central Control Unit's callbacks have queued
+	 * for its main program loop.
+	 */
+	private void runCCUEvents() {
+		if (this.CCU.events.isEmpty())
+			return;
+		this.toCCU(new Runnable() {
+			@Override
+			public void run() {
+				CCU.runEvents();
+			} // run
+		});
+	} // runCCUEvents
+
+	/**
+	 * Sends a packet on the shared channel, trying again if it is not
+	 * acknowledged. The packet takes up the channel for as long as it would
+	 * take to send, and reaches the other radio after the network latency.
+	 * Either the packet or its acknowledgement may be lost, so a packet can
+	 * reach the other radio more than once.
+	 *
+	 * @param source: The address of the sending radio
+	 * @param destination: The address of the receiving radio
+	 * @param payload: The message to send
+	 * @param attempt: The number of this attempt, from 1
+	 * @param attempts: The most attempts to make
+	 * @param callback: Told whether the message was delivered, or null
+	 */
+	private void transmit(final long source, final long destination,
+			final int[] payload, final int attempt, final int attempts,
+			final MessageSender.Callback callback) {
+
+		int packets = frames(payload.length);
+		long time = packets * (TURNAROUND
+				+ (long) ((FRAME_OVERHEAD + ACK_SIZE) * 8e6 / BIT_RATE))
+				+ (long) (payload.length * 8e6 / BIT_RATE);
+		long begin = Math.max(this.now, this.channelFree);
+		this.channelFree = begin + time;
+		this.airtime += time;
+		int minute = (int) (begin / 60000000L);
+		if (minute < this.airtimeByMinute.length)
+			this.airtimeByMinute[minute] += time;
+		this.frames += packets;
+		if (attempt > 1)
+			this.retries++;
+		this.largestPayload = Math.max(this.largestPayload, payload.length);
+
+		boolean arrives = this.random.nextDouble()
+				>= 1 - Math.pow(1 - this.lossRate, packets);
+		boolean acknowledged = arrives
+				&& this.random.nextDouble() >= this.lossRate;
+		long arrival = this.channelFree + this.latency;
+		if (arrives)
+			this.schedule(arrival, new Runnable() {
+				@Override
+				public void run() {
+					deliver(source, destination, payload);
+				} // run
+			});
+
+		if (acknowledged || attempt >= attempts) {
+			final boolean delivered = acknowledged;
+			if (!delivered)
+				this.givenUp++;
+			if (callback != null)
+				this.schedule(delivered ? arrival + this.latency
+						: this.channelFree + this.ackTimeout, new Runnable() {
+					@Override
+					public void run() {
+						callback.completed(delivered);
+						runCCUEvents();
+					} // run
+				});
+		} // if - finished with the message
+		else
+			this.schedule(this.channelFree + this.ackTimeout, new Runnable() {
+				@Override
+				public void run() {
+					transmit(source, destination, payload, attempt + 1,
+							attempts, callback);
+				} // run
+			});
+
+	} // transmit
+
+	/**
+	 * Hands a packet that has crossed the network to the radio it was sent
+	 * to.
+	 */
+	private void deliver(final long source, long destination,
+			final int[] payload) {
+		if (destination == SimulatedNetwork.COORDINATOR) {
+			this.CCU.queueMessage(source, payload[0],
+					payload.length > 1 ? payload[1] : 0,
+					payload.length > 2 ? payload[2] : 0,
+					payload.length > 3 ? payload[3] : 0);
+			this.toCCU(new Runnable() {
+				@Override
+				public void run() {
+					CCU.dispatchNext();
+				} // run
+			});
+		} // if - sent to the Central Control Unit
+		else if (this.controllers.containsKey(destination))
+			this.controllers.get(destination).receive(payload);
+		else if (destination >= ENTRANCE_ADDRESS && destination
+				< ENTRANCE_ADDRESS + this.entrances.size())
+			this.entrances.get((int) (destination - ENTRANCE_ADDRESS))
+					.receive(payload);
+	} // deliver
+
+	/**
+	 * Adds an event to happen at a simulated time.
+	 */
+	private void schedule(long time, Runnable action) {
+		this.events.add(new Event(time, this.nextSequence++, action));
+	} // schedule
+
+	/**
+	 * Picks a random length of time with a mean, in microseconds.
+	 */
+	private long exponential(double mean) {
+		return (long) (-mean * Math.log(1 - this.random.nextDouble()));
+	} // exponential
+
+	/**
+	 * Gets the number of packets needed to send a payload.
+	 */
+	private static int frames(long length) {
+		return (int) Math.max(1, (length + MAX_PAYLOAD - 1) / MAX_PAYLOAD);
+	} // frames
+
+	/**
+	 * Packs a position into a single key.
+	 */
+	private static long position(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	} // position
+
+	/**
+	 * Gets a percentile of a sorted list, or 0 if it is empty.
+	 */
+	private static <T extends Number> double percentile(List<T> sorted,
+			double fraction) {
+		if (sorted.isEmpty())
+			return 0;
+		int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index)).doubleValue();
+	} // percentile
+
+	/**
+	 * Gets the mean of a list, or 0 if it is empty.
+	 */
+	private static double mean(List<Double> values) {
+		double total = 0;
+		for (double value : values)
+			total += value;
+		return values.isEmpty() ? 0 : total / values.size();
+	} // mean
+
+	/**
+	 * Gets a count as a percentage of a total.
+	 */
+	private static double percent(long count, long total) {
+		return (total == 0) ? 0 : 100.0 * count / total;
+	} // percent
+
+	/**
+	 * Writes a lot file with spaces in rows of group controllers, the
+	 * destinations along the top edge and the entrances along the bottom
+	 * edge. Every CONTROLLERS_PER_ZONE group controllers make up a zone.
+	 */
+	private static void writeLotFile(File file, int spaceCount,
+			int destinationCount, int entranceCount) throws IOException {
+
+		int controllerCount = (spaceCount + SPACES_PER_CONTROLLER - 1)
+				/ SPACES_PER_CONTROLLER;
+		int perRow = (int) Math.ceil(Math.sqrt(controllerCount));
+		int width = SPACES_PER_CONTROLLER * 9 + 10;
+		PrintWriter out = new PrintWriter(file);
+		out.println("DESTINATIONS");
+		for (int i = 0; i < destinationCount; i++)
+			out.println("\tD" + i + " " + (width * perRow * (2 * i + 1)
+					/ (2 * destinationCount)) + " 0");
+		out.println("END_DESTINATIONS");
+		out.println("ENTRANCES");
+		int bottom = 30 * ((controllerCount + perRow - 1) / perRow) + 60;
+		for (int i = 0; i < entranceCount; i++)
+			out.println("\tE" + i + " " + (width * perRow * (2 * i + 1)
+					/ (2 * entranceCount)) + " " + bottom);
+		out.println("END_ENTRANCES");
+		out.println("GROUP_CONTROLLERS");
+		for (int i = 0; i < controllerCount; i++) {
+			out.println(String.format("\tG%d %d %d 00 13 A2 00 20 00 %02X %02X",
+					i, width * (i % perRow) + width / 2, 30 * (i / perRow) + 30,
+					i >> 8, i & 0xFF));
+			int sensors = Math.min(SPACES_PER_CONTROLLER,
+					spaceCount - i * SPACES_PER_CONTROLLER);
+			for (int j = 0; j < sensors; j++)
+				out.println("\t\t" + j + " "
+						+ (9 * j - 9 * SPACES_PER_CONTROLLER / 2) + " 9");
+			out.println("\t\tEND_SPACES");
+		} // for - each group controller
+		out.println("END_GROUP_CONTROLLERS");
+		out.println("ZONES");
+		for (int i = 0; i < controllerCount; i += CONTROLLERS_PER_ZONE) {
+			out.print("\tZ" + (i / CONTROLLERS_PER_ZONE));
+			for (int j = i; j < Math.min(controllerCount,
+					i + CONTROLLERS_PER_ZONE); j++)
+				out.print(" G" + j);
+			out.println();
+		} // for - each zone
+		out.println("END_ZONES");
+		out.close();
+
+	} // writeLotFile
+
+	/**
+	 * Deletes a file, or a directory and everything in it.
+	 */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	} // delete
+
+	/**
+	 * Sends the Central Control Unit's messages on the simulated radio once
+	 * it has finished the work that it is doing.
+	 */
+	private class SimulatedSender implements MessageSender {
+
+		@Override
+		public void send(XBeeAddress64 address, final int[] payload,
+				final Callback callback) {
+			final long destination = RadioFrame.toLong(address);
+			outbox.add(new Runnable() {
+				@Override
+				public void run() {
+					transmit(SimulatedNetwork.COORDINATOR, destination,
+							payload, 1, CentralControlUnit.MAX_TX_ATTEMPTS,
+							callback);
+				} // run
+			});
+		} // send
+
+		@Override
+		public void close() {
+			// Nothing is left running once the simulation is done
+		} // close
+
+	} // SimulatedSender - Class
+
+	/**
+	 * A group controller that reports the spaces its sensors see and holds
+	 * reservations for a set time, as GroupController.ino does.
+	 */
+	private class SimulatedController implements SimulatedNetwork.Node {
+
+		final long address;
+		final HashMap<Integer, Integer> spaces;
+		boolean[] reported = new boolean[0]; // true if reported occupied
+		boolean[] reserved = new boolean[0];
+		long[] reservedAt = new long[0];
+
+		SimulatedController(long address) {
+			this.address = address;
+			this.spaces = new HashMap<Integer, Integer>();
+		} // SimulatedController
+
+		/**
+		 * Adds a sensor for a space.
+		 */
+		void add(int number, int space) {
+			this.spaces.put(number, space);
+			if (number >= this.reported.length) {
+				this.reported = Arrays.copyOf(this.reported,
+						number + 1);
+				this.reserved = Arrays.copyOf(this.reserved,
+						number + 1);
+				this.reservedAt = Arrays.copyOf(this.reservedAt,
+						number + 1);
+			} // if - more sensors than before
+		} // add
+
+		/**
+		 * Reports a space once its sensor has seen the same thing for the
+		 * detection time.
+		 */
+		void sense(final int space) {
+			final int number = spaceNumbers[space];
+			schedule(now + DETECTION_TIME * 1000, new Runnable() {
+				@Override
+				public void run() {
+					if (occupied[space] == reported[number])
+						return;
+					reported[number] = occupied[space];
+					if (occupied[space])
+						reserved[number] = false;
+					report(number, !occupied[space]);
+				} // run
+			});
+		} // sense
+
+		/**
+		 * Sends the state of a space to the Central Control Unit.
+		 */
+		void report(int number, boolean available) {
+			transmit(this.address, SimulatedNetwork.COORDINATOR,
+					new int[] {'S', number, available ? 'A' : 'O'}, 1,
+					CentralControlUnit.MAX_TX_ATTEMPTS, null);
+		} // report
+
+		@Override
+		public void receive(int[] payload) {
+			if (payload.length < 2 || payload[0] != 'R'
+					|| payload[1] >= this.reserved.length)
+				return;
+			final int number = payload[1];
+			final long time = now;
+			this.reserved[number] = true;
+			this.reservedAt[number] = time;
+			schedule(now + RESERVATION_TIME * 1000, new Runnable() {
+				@Override
+				public void run() {
+					if (reserved[number] && reservedAt[number] == time) {
+						reserved[number] = false;
+						report(number, true);
+					} // if - reservation timed out
+				} // run
+			});
+		} // receive
+
+	} // SimulatedController - Class
+
+	/**
+	 * An entrance controller that asks for suggestions for one vehicle at a
+	 * time, as EntranceController does, with any others waiting their turn.
+	 */
+	private class SimulatedEntrance implements SimulatedNetwork.Node {
+
+		final long address;
+		final int number;
+		final Entrance entrance;
+		final ArrayDeque<Vehicle> waiting;
+		Vehicle current;
+		int nextEntranceId;
+
+		SimulatedEntrance(long address, int number) {
+			this.address = address;
+			this.number = number;
+			Entrance found = null;
+			for (Entrance entrance : CCU.entrances)
+				if (entrance.getNumber() == number)
+					found = entrance;
+			this.entrance = found;
+			this.waiting = new ArrayDeque<Vehicle>();
+		} // SimulatedEntrance
+
+		/**
+		 * A vehicle reaches the entrance's sensors.
+		 */
+		void arrive(Vehicle vehicle) {
+			this.waiting.add(vehicle);
+			if (this.current == null)
+				this.next();
+		} // arrive
+
+		/**
+		 * Asks for suggestions for the next waiting vehicle. The message is
+		 * sent until it is acknowledged.
+		 */
+		void next() {
+			this.current = this.waiting.poll();
+			if (this.current == null)
+				return;
+			int[] payload = {'E', this.nextEntranceId, this.number};
+			this.nextEntranceId++;
+			if (this.nextEntranceId > 255)
+				this.nextEntranceId = 0;
+			transmit(this.address, SimulatedNetwork.COORDINATOR, payload, 1,
+					Integer.MAX_VALUE, null);
+		} // next
+
+		@Override
+		public void receive(int[] payload) {
+			if (payload.length < 1 || payload[0] != 'D')
+				return;
+			if (this.current == null) {
+				repeatedSuggestions++;
+				return;
+			} // if - suggestions sent again
+			Vehicle vehicle = this.current;
+			this.current = null;
+			showSuggestions(this, vehicle, payload);
+			this.next();
+		} // receive
+
+	} // SimulatedEntrance - Class
+
+	/**
+	 * A vehicle looking for a space.
+	 */
+	private static class Vehicle {
+
+		long arrivedAt;
+		int destination;
+		boolean compliant;
+
+	} // Vehicle - Class
+
+	/**
+	 * A piece of work waiting for the Central Control Unit.
+	 */
+	private static class Job {
+
+		final long queued;
+		final Runnable work;
+
+		Job(long queued, Runnable work) {
+			this.queued = queued;
+			this.work = work;
+		} // Job
+
+	} // Job - Class
+
+	/**
+	 * Something that happens at a simulated time. Events at the same time
+	 * happen in the order they were scheduled.
+	 */
+	private static class Event implements Comparable<Event> {
+
+		final long time;
+		final long sequence;
+		final Runnable action;
+
+		Event(long time, long sequence, Runnable action) {
+			this.time = time;
+			this.sequence = sequence;
+			this.action = action;
+		} // Event
+
+		@Override
+		public int compareTo(Event other) {
+			if (this.time != other.time)
+				return (this.time < other.time) ? -1 : 1;
+			return (this.sequence < other.sequence) ? -1
+					: (this.sequence == other.sequence) ? 0 : 1;
+		} // compareTo
+
+	} // Event - Class
+
+} // LotSimulator - Class
@@ -0,0 +1,395 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The LotZone class represents a section of a Smart Parking Lot (e.g. a level
+ * of a parking garage) made up of one or more group controllers and all of the
+ * parking spaces that they handle. Each zone owns the availability state of
+ * its spaces and is given its own worker thread, so every read or change of
+ * that state is performed in order on the worker and no locking is needed.
+ * This allows the Central Control Unit to search several zones at the same
+ * time on separate cores.
+ *
+ * To avoid scanning every space when looking for the best spaces, each zone
+ * keeps an index that holds its spaces sorted by their cost on each route
+ * through the lot, from each entrance to each destination. A search only has
+ * to walk the index from the front until enough available spaces are found.
+ * A separate index is kept for each category of space, so a search for an
+ * accessible space never has to pass over the general spaces in front of it.
+ * Spaces whose group controller cannot currently be reached are skipped,
+ * since they could not be reserved. When the lot file is reloaded, the
+ * spaces and routes that changed are merged into the index on the worker
+ * instead of sorting it all again.
+ *
+ * @author Elliot Dean
+ */
+public class LotZone {
+
+	/** The identifier of the zone */
+	private final String id;
+
+	/** The group controllers that belong to this zone */
+	private final LinkedList<GroupController> controllers;
+
+	/** All of the parking spaces handled by this zone's controllers */
+	private final ArrayList<ParkingSpace> spaces;
+
+	/** Each route's spaces of each category, ordered by cost */
+	private final HashMap<Route, ParkingSpace[][]> index;
+
+	/** The worker that all operations on this zone's state are run on */
+	private final ExecutorService worker;
+
+	/** The health of the radio links to the zone's group controllers */
+	private final LinkHealth health;
+
+	/**
+	 * Creates an object that represents a single zone of the lot.
+	 *
+	 * @param id: The identifier of the zone
+	 * @param health: The health of the lot's radio links
+	 */
+	public LotZone(final String id, LinkHealth health) {
+		this.id = id;
+		this.health = health;
+		this.controllers = new LinkedList<GroupController>();
+		this.spaces = new ArrayList<ParkingSpace>();
+		this.index = new HashMap<Route, ParkingSpace[][]>();
+		this.worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "LotZone-" + id);
+				thread.setDaemon(true);
+				return thread;
+			} // newThread
+		});
+	} // LotZone
+
+	/**
+	 * Adds a group controller to this zone. Spaces handled by the controller
+	 * must be added separately through addSpace.
+	 *
+	 * @param controller: The group controller to add to the zone
+	 */
+	public void addController(GroupController controller) {
+		this.controllers.add(controller);
+	} // addController
+
+	/**
+	 * Adds a parking space to this zone. This should only be used while the
+	 * lot is being loaded, before buildIndex is called.
+	 *
+	 * @param space: The parking space to add to the zone
+	 */
+	public void addSpace(ParkingSpace space) {
+		this.spaces.add(space);
+	} // addSpace
+
+	/**
+	 * Sorts the zone's spaces by their cost on each of the routes. This must
+	 * be called once all of the spaces have been added and before any
+	 * searches are made.
+	 *
+	 * @param routes: The routes through the lot
+	 */
+	public void buildIndex(List<Route> routes) {
+
+		this.index.clear();
+		for (Route route : routes)
+			this.index.put(route, sort(route, this.spaces));
+
+	} // buildIndex
+
+	/**
+	 * Sorts spaces by their cost on a route, with a separate list of the
+	 * spaces in each category.
+	 */
+	private static ParkingSpace[][] sort(Route route,
+			List<ParkingSpace> spaces) {
+
+		ParkingSpace[] sorted = spaces.toArray(new ParkingSpace[spaces.size()]);
+		Arrays.sort(sorted, byCost(route));
+		ParkingSpace[][] byCategory =
+				new ParkingSpace[ParkingSpace.CATEGORIES][];
+		for (int category = 0; category < byCategory.length; category++)
+			byCategory[category] = inCategory(sorted, category);
+		return byCategory;
+
+	} // sort
+
+	/**
+	 * Picks out the spaces that belong to a category, keeping their order.
+	 */
+	private static ParkingSpace[] inCategory(ParkingSpace[] spaces,
+			int category) {
+		ArrayList<ParkingSpace> picked = new ArrayList<ParkingSpace>();
+		for (ParkingSpace space : spaces)
+			if (space.isIn(category))
+				picked.add(space);
+		return picked.toArray(new ParkingSpace[picked.size()]);
+	} // inCategory
+
+	/**
+	 * Takes the removed spaces out of a sorted index and merges the added
+	 * spaces into it, keeping it sorted.
+	 */
+	private static ParkingSpace[] merge(Route route, ParkingSpace[] sorted,
+			HashSet<ParkingSpace> removed, ParkingSpace[] adding) {
+
+		Comparator<ParkingSpace> order = byCost(route);
+		ArrayList<ParkingSpace> merged = new ArrayList<ParkingSpace>(
+				sorted.length + adding.length);
+		int i = 0, j = 0;
+		while (i < sorted.length || j < adding.length) {
+			if (i < sorted.length && removed.contains(sorted[i]))
+				i++;
+			else if (j == adding.length || (i < sorted.length
+					&& order.compare(sorted[i], adding[j]) <= 0))
+				merged.add(sorted[i++]);
+			else
+				merged.add(adding[j++]);
+		} // while - spaces left in either list
+		return merged.toArray(new ParkingSpace[merged.size()]);
+
+	} // merge
+
+	/**
+	 * Creates a comparator that orders spaces by their cost on a route.
+	 */
+	private static Comparator<ParkingSpace> byCost(final Route route) {
+		return new Comparator<ParkingSpace>() {
+			@Override
+			public int compare(ParkingSpace a, ParkingSpace b) {
+				return Double.compare(route.cost(a), route.cost(b));
+			} // compare
+		};
+	} // byCost
+
+	/**
+	 * Applies a change to the lot's layout on the zone's worker. Removed
+	 * spaces are taken out of each route's indexes and added spaces are
+	 * merged into them in order, while added routes are given new indexes.
+	 * Searches that are made after this call see the new layout.
+	 *
+	 * @param removedControllers: The controllers that left the zone
+	 * @param addedControllers: The controllers that joined the zone
+	 * @param removedSpaces: The spaces that left the zone
+	 * @param addedSpaces: The spaces that joined the zone
+	 * @param removedRoutes: The routes that no longer exist
+	 * @param addedRoutes: The routes that are new or have moved
+	 * @return a future that completes once the change has been applied
+	 */
+	public Future<?> update(final List<GroupController> removedControllers,
+			final List<GroupController> addedControllers,
+			final List<ParkingSpace> removedSpaces,
+			final List<ParkingSpace> addedSpaces,
+			final List<Route> removedRoutes,
+			final List<Route> addedRoutes) {
+		return this.worker.submit(new Runnable() {
+			@Override
+			public void run() {
+
+				controllers.removeAll(removedControllers);
+				controllers.addAll(addedControllers);
+				HashSet<ParkingSpace> removed =
+						new HashSet<ParkingSpace>(removedSpaces);
+				ArrayList<ParkingSpace> kept =
+						new ArrayList<ParkingSpace>(spaces.size());
+				for (ParkingSpace space : spaces)
+					if (!removed.contains(space))
+						kept.add(space);
+				spaces.clear();
+				spaces.addAll(kept);
+				spaces.addAll(addedSpaces);
+
+				for (Route route : removedRoutes)
+					index.remove(route);
+				for (Map.Entry<Route, ParkingSpace[][]> entry
+						: index.entrySet()) {
+					ParkingSpace[][] adding = sort(entry.getKey(), addedSpaces);
+					ParkingSpace[][] sorted = entry.getValue();
+					for (int category = 0; category < sorted.length; category++)
+						sorted[category] = merge(entry.getKey(),
+								sorted[category], removed, adding[category]);
+				} // for each - route's indexes
+				for (Route route : addedRoutes)
+					index.put(route, sort(route, spaces));
+
+			} // run
+		});
+	} // update
+
+	/**
+	 * Stops the zone's worker once it has finished any waiting operations.
+	 */
+	public void close() {
+		this.worker.shutdown();
+	} // close
+
+	/**
+	 * Finds up to k of the zone's available spaces of a category that cost
+	 * the least on a route, leaving out spaces whose controller is
+	 * unreachable. The search runs on the zone's worker.
+	 *
+	 * @param route: The route to find spaces for
+	 * @param k: The maximum number of spaces to return
+	 * @param category: The category of the spaces
+	 * @return a future holding the spaces, best first
+	 */
+	public Future<List<ParkingSpace>> bestSpaces(final Route route,
+			final int k, final int category) {
+		return this.worker.submit(new Callable<List<ParkingSpace>>() {
+			@Override
+			public List<ParkingSpace> call() {
+
+				ArrayList<ParkingSpace> best = new ArrayList<ParkingSpace>(k);
+				ParkingSpace[][] sorted = index.get(route);
+				if (sorted == null)
+					return best;
+
+				ParkingSpace[] spaces = sorted[category];
+				for (int i = 0; i < spaces.length && best.size() < k; i++)
+					if (isFree(spaces[i]))
+						best.add(spaces[i]);
+				return best;
+
+			} // call
+		});
+	} // bestSpaces
+
+	/**
+	 * Finds the zone's best available space of every category on a route in
+	 * a single search on the zone's worker.
+	 *
+	 * @param route: The route to find spaces for
+	 * @return a future holding the best space of each category, or null for
+	 * a category with no available spaces
+	 */
+	public Future<ParkingSpace[]> bestOfEachCategory(final Route route) {
+		return this.worker.submit(new Callable<ParkingSpace[]>() {
+			@Override
+			public ParkingSpace[] call() {
+
+				ParkingSpace[] best =
+						new ParkingSpace[ParkingSpace.CATEGORIES];
+				ParkingSpace[][] sorted = index.get(route);
+				if (sorted == null)
+					return best;
+
+				for (int category = 0; category < best.length; category++)
+					for (ParkingSpace space : sorted[category])
+						if (isFree(space)) {
+							best[category] = space;
+							break;
+						} // if - best available space
+				return best;
+
+			} // call
+		});
+	} // bestOfEachCategory
+
+	/**
+	 * Checks if a space is available and its controller can be reached.
+	 */
+	private boolean isFree(ParkingSpace space) {
+		return space.isAvailable() && this.health.isReachable(
+				space.getController().getAddress64());
+	} // isFree
+
+	/**
+	 * Sets the availability of one of the zone's spaces on the zone's worker.
+	 *
+	 * @param space: The space to update
+	 * @param state: true if the space is available and false otherwise
+	 * @return a future that completes once the space has been updated
+	 */
+	public Future<?> setAvailable(final ParkingSpace space,
+			final boolean state) {
+		return this.worker.submit(new Runnable() {
+			@Override
+			public void run() {
+				space.setAvailable(state);
+			} // run
+		});
+	} // setAvailable
+
+	/**
+	 * Attempts to take each of the given spaces by setting them as not
+	 * available. Either all of the spaces are taken or, if any of them is no
+	 * longer available, none of them are.
+	 *
+	 * @param taken: The spaces from this zone to take
+	 * @return a future holding true if the spaces were taken
+	 */
+	public Future<Boolean> reserve(final List<ParkingSpace> taken) {
+		return this.worker.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+
+				for (ParkingSpace space : taken)
+					if (!space.isAvailable())
+						return false;
+				for (ParkingSpace space : taken)
+					space.setAvailable(false);
+				return true;
+
+			} // call
+		});
+	} // reserve
+
+	/**
+	 * Undoes a successful call to reserve by setting each of the given spaces
+	 * as available again.
+	 *
+	 * @param taken: The spaces from this zone to release
+	 * @return a future that completes once the spaces have been released
+	 */
+	public Future<?> release(final List<ParkingSpace> taken) {
+		return this.worker.submit(new Runnable() {
+			@Override
+			public void run() {
+				for (ParkingSpace space : taken)
+					space.setAvailable(true);
+			} // run
+		});
+	} // release
+
+	/**
+	 * Gets the identifier of the zone.
+	 *
+	 * @return the zone identifier
+	 */
+	public String getId() {
+		return this.id;
+	} // getId
+
+	/**
+	 * Gets the group controllers that belong to this zone.
+	 *
+	 * @return the list of group controllers in the zone
+	 */
+	public List<GroupController> getControllers() {
+		return this.controllers;
+	} // getControllers
+
+	/**
+	 * Gets the number of parking spaces in this zone.
+	 *
+	 * @return the number of spaces
+	 */
+	public int size() {
+		return this.spaces.size();
+	} // size
+
+} // LotZone - Class
@@ -0,0 +1,306 @@
+/**
+ * The MessageDispatcher class decides the order that the Central Control Unit
+ * handles the messages it has received. Each message is placed in one of
+ * three queues: vehicles detected at an entrance, status updates and any
+ * other messages from the lot, and transmit statuses from the radio. The
+ * queues take turns in proportion to their weights, so a flood of status
+ * updates, such as when an event lets out, cannot keep a driver waiting at
+ * the gate, while the updates still get their share of turns. If the oldest
+ * entrance request has waited MAX_ENTRANCE_WAIT or longer it is always
+ * handled next.
+ *
+ * The messages are kept in arrays that grow as needed, so queuing a message
+ * does not create any objects. The time that each message waited is recorded
+ * for each queue, and can be shown with describe.
+ *
+ * Messages can be added from any thread, but should only be handled by the
+ * main program loop.
+ *
+ * @author Elliot Dean
+ */
+public class MessageDispatcher {
+
+	/** The queues that messages are placed in */
+	static final int ENTRANCE = 0, UPDATE = 1, TX_STATUS = 2;
+
+	/** The names of the queues */
+	static final String[] QUEUE_NAMES = {"Entrance", "Update", "TX status"};
+
+	/** The share of turns given to each queue */
+	static final int[] WEIGHTS = {8, 1, 2};
+
+	/** The longest an entrance request waits before it is handled next, in ms */
+	static final long MAX_ENTRANCE_WAIT = 100;
+
+	/** The number of message slots each queue starts with */
+	static final int INITIAL_CAPACITY = 64;
+
+	/** The number of wait times recorded in each queue's histogram */
+	static final int WAIT_BUCKETS = 32;
+
+	/**
+	 * The Handler interface is given each message when its turn comes.
+	 */
+	interface Handler {
+
+		/**
+		 * Handles a single message.
+		 *
+		 * @param queue: The queue the message was in
+		 * @param source: The 64-bit address of the radio that sent it
+		 * @param type: The first integer of the message
+		 * @param first: The second integer of the message, or 0
+		 * @param second: The third integer of the message, or 0
+		 * @param third: The fourth integer of the message, or 0
+		 */
+		void handle(int queue, long source, int type, int first, int second,
+				int third);
+
+	} // Handler - Interface
+
+	private final Queue[] queues;
+	/** The turns each queue is owed, used to share turns by weight */
+	private final int[] credit;
+	/** The number of entrance requests that had waited past the limit */
+	private long overdue;
+
+	/**
+	 * Creates a dispatcher with every queue empty.
+	 */
+	public MessageDispatcher() {
+		this.queues = new Queue[QUEUE_NAMES.length];
+		for (int i = 0; i < this.queues.length; i++)
+			this.queues[i] = new Queue();
+		this.credit = new int[QUEUE_NAMES.length];
+	} // MessageDispatcher
+
+	/**
+	 * Gets the queue that a message from the lot belongs in.
+	 *
+	 * @param type: The first integer of the message
+	 * @return ENTRANCE for a vehicle detected at an entrance, otherwise UPDATE
+	 */
+	static int queueOf(int type) {
+		return type == 'E' ? ENTRANCE : UPDATE;
+	} // queueOf
+
+	/**
+	 * Places a message at the back of a queue.
+	 *
+	 * @param queue: The queue to place the message in
+	 * @param now: The current time, in milliseconds
+	 * @param source: The 64-bit address of the radio that sent it
+	 * @param type: The first integer of the message
+	 * @param first: The second integer of the message, or 0
+	 * @param second: The third integer of the message, or 0
+	 * @param third: The fourth integer of the message, or 0
+	 */
+	public synchronized void add(int queue, long now, long source, int type,
+			int first, int second, int third) {
+		this.queues[queue].add(now, source, type, first, second, third);
+	} // add
+
+	/**
+	 * Checks whether there are any messages waiting.
+	 *
+	 * @return true if every queue is empty
+	 */
+	public synchronized boolean isEmpty() {
+		for (Queue queue : this.queues)
+			if (queue.size > 0)
+				return false;
+		return true;
+	} // isEmpty
+
+	/**
+	 * Takes the message whose turn it is and gives it to a handler. The
+	 * handler is run without holding the dispatcher, so messages can still be
+	 * added while it runs.
+	 *
+	 * @param now: The current time, in milliseconds
+	 * @param handler: The handler to give the message to
+	 * @return true if a message was handled, false if every queue was empty
+	 */
+	public boolean dispatch(long now, Handler handler) {
+
+		int chosen;
+		long source, wait;
+		int type, first, second, third;
+		synchronized (this) {
+			chosen = this.choose(now);
+			if (chosen < 0)
+				return false;
+			Queue queue = this.queues[chosen];
+			int index = queue.head;
+			wait = now - queue.times[index];
+			source = queue.sources[index];
+			type = queue.messages[4 * index];
+			first = queue.messages[4 * index + 1];
+			second = queue.messages[4 * index + 2];
+			third = queue.messages[4 * index + 3];
+			queue.remove(wait);
+			if (queue.size == 0)
+				this.credit[chosen] = 0;
+		} // synchronized - dispatcher
+
+		if (chosen == ENTRANCE && wait >= MAX_ENTRANCE_WAIT)
+			EventLog.warning("entrance_request_overdue", "waited_ms", wait,
+					"limit_ms", MAX_ENTRANCE_WAIT);
+		handler.handle(chosen, source, type, first, second, third);
+		return true;
+
+	} // dispatch
+
+	/**
+	 * Chooses the queue whose turn it is. An entrance request that has waited
+	 * too long always goes next, and otherwise each queue that is waiting is
+	 * owed its weight in turns and the queue that is owed the most goes, paying
+	 * back the turns owed to all of them.
+	 *
+	 * @return the queue, or -1 if every queue is empty
+	 */
+	private int choose(long now) {
+
+		Queue entrances = this.queues[ENTRANCE];
+		if (entrances.size > 0 && now - entrances.times[entrances.head]
+				>= MAX_ENTRANCE_WAIT) {
+			this.overdue++;
+			return ENTRANCE;
+		} // if - entrance request waited too long
+
+		int chosen = -1;
+		int total = 0;
+		for (int i = 0; i < this.queues.length; i++) {
+			if (this.queues[i].size == 0)
+				continue;
+			this.credit[i] += WEIGHTS[i];
+			total += WEIGHTS[i];
+			if (chosen < 0 || this.credit[i] > this.credit[chosen])
+				chosen = i;
+		} // for - each queue
+		if (chosen >= 0)
+			this.credit[chosen] -= total;
+		return chosen;
+
+	} // choose
+
+	/**
+	 * Gets a description of each queue and how long its messages waited.
+	 *
+	 * @return the description
+	 */
+	public synchronized String describe() {
+		StringBuilder description = new StringBuilder();
+		for (int i = 0; i < this.queues.length; i++) {
+			Queue queue = this.queues[i];
+			description.append("Queue: ").append(QUEUE_NAMES[i])
+					.append(String.format("%n\tWaiting: %d\tMost waiting: %d"
+							+ "\tHandled: %d\tMean wait: %.1f ms\t99%% wait: "
+							+ "under %d ms\tLongest wait: %d ms%n",
+							queue.size, queue.mostWaiting, queue.handled,
+							queue.handled == 0 ? 0.0
+									: (double) queue.totalWait / queue.handled,
+							queue.percentile(0.99), queue.longestWait));
+		} // for - each queue
+		description.append(String.format("Entrance requests handled past the "
+				+ "%d ms limit: %d%n", MAX_ENTRANCE_WAIT, this.overdue));
+		return description.toString();
+	} // describe
+
+	/**
+	 * A first in, first out queue of messages, kept in arrays that are used
+	 * as a ring and doubled in size when full.
+	 */
+	private static class Queue {
+
+		long[] times;
+		long[] sources;
+		/** The four integers of each message */
+		int[] messages;
+		int head;
+		int size;
+
+		int mostWaiting;
+		long handled;
+		long totalWait;
+		long longestWait;
+		/** The number of waits under 1, 2, 4, 8... ms */
+		final long[] waits;
+
+		Queue() {
+			this.times = new long[INITIAL_CAPACITY];
+			this.sources = new long[INITIAL_CAPACITY];
+			this.messages = new int[4 * INITIAL_CAPACITY];
+			this.waits = new long[WAIT_BUCKETS];
+		} // Queue
+
+		/**
+		 * Adds a message to the back of the queue.
+		 */
+		void add(long now, long source, int type, int first, int second,
+				int third) {
+			if (this.size == this.times.length)
+				this.grow();
+			int index = (this.head + this.size) & (this.times.length - 1);
+			this.times[index] = now;
+			this.sources[index] = source;
+			this.messages[4 * index] = type;
+			this.messages[4 * index + 1] = first;
+			this.messages[4 * index + 2] = second;
+			this.messages[4 * index + 3] = third;
+			this.size++;
+			this.mostWaiting = Math.max(this.mostWaiting, this.size);
+		} // add
+
+		/**
+		 * Removes the message at the front of the queue and records how long
+		 * it waited.
+		 */
+		void remove(long wait) {
+			this.head = (this.head + 1) & (this.times.length - 1);
+			this.size--;
+			wait = Math.max(wait, 0);
+			this.handled++;
+			this.totalWait += wait;
+			this.longestWait = Math.max(this.longestWait, wait);
+			this.waits[Math.min(64 - Long.numberOfLeadingZeros(wait),
+					WAIT_BUCKETS - 1)]++;
+		} // remove
+
+		/**
+		 * Gets a wait time that the given fraction of messages waited less
+		 * than, rounded up to a power of two.
+		 */
+		long percentile(double fraction) {
+			long count = 0;
+			for (int i = 0; i < WAIT_BUCKETS; i++) {
+				count += this.waits[i];
+				if (count >= fraction * this.handled)
+					return 1L << i;
+			} // for - each bucket
+			return 1L << WAIT_BUCKETS;
+		} // percentile
+
+		/**
+		 * Doubles the size of the arrays, moving the messages to the start.
+		 */
+		void grow() {
+			int capacity = this.times.length;
+			long[] times = new long[2 * capacity];
+			long[] sources = new long[2 * capacity];
+			int[] messages = new int[8 * capacity];
+			for (int i = 0; i < this.size; i++) {
+				int index = (this.head + i) & (capacity - 1);
+				times[i] = this.times[index];
+				sources[i] = this.sources[index];
+				System.arraycopy(this.messages, 4 * index, messages, 4 * i, 4);
+			} // for - each message
+			this.times = times;
+			this.sources = sources;
+			this.messages = messages;
+			this.head = 0;
+		} // grow
+
+	} // Queue - Class
+
+} // MessageDispatcher - Class
@@ -0,0 +1,44 @@
+import com.rapplogic.xbee.api.XBeeAddress64;
+
+/**
+ * The MessageSender interface is implemented by anything that can send
+ * messages for the Central Control Unit without holding up its main program
+ * loop, such as a ConversationRuntime on a real radio or the simulated radio
+ * of a LotSimulator. Each message is handed over straight away and the
+ * sender reports later whether it was delivered.
+ *
+ * @author Elliot Dean
+ */
+public interface MessageSender {
+
+	/**
+	 * The Callback interface is used to find out whether a message was
+	 * delivered once the sender is finished with it.
+	 */
+	public interface Callback {
+
+		/**
+		 * Called once the message has been acknowledged or given up on.
+		 *
+		 * @param delivered: true if the message was acknowledged
+		 */
+		void completed(boolean delivered);
+
+	} // Callback - Interface
+
+	/**
+	 * Sends a message and returns straight away. The callback is run once the
+	 * message has been acknowledged or given up on.
+	 *
+	 * @param address: The address of the radio
+	 * @param payload: The message to send
+	 * @param callback: Told whether the message was delivered, or null
+	 */
+	void send(XBeeAddress64 address, int[] payload, Callback callback);
+
+	/**
+	 * Stops sending and gives up on any messages that are waiting.
+	 */
+	void close();
+
+} // MessageSender - Interface
@@ -0,0 +1,675 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The OccupancyHistory class records every change in the state of each parking
+ * space so that the occupancy of the lot can be looked at over time. Each
+ * space's history is kept as a column of state changes, stored compactly as
+ * the delta-of-delta of its timestamp (to the second) packed together with the
+ * new state into a single variable length integer. A state that does not
+ * change is not stored again, so each entry marks the start of a run of that
+ * state.
+ *
+ * Arrivals, departures and the highest number of occupied spaces are also
+ * rolled up for each zone by minute and by hour. The columns are written out
+ * to a new segment file once they cover a set amount of time so that memory
+ * use stays bounded, while the rollups are kept in memory for a set number of
+ * days. Segment files are deleted once everything in them is older than
+ * SEGMENT_RETENTION, so that the history does not fill the disk.
+ *
+ * @author Elliot Dean
+ */
+public class OccupancyHistory {
+
+	public static final int AVAILABLE = 0;
+	public static final int OCCUPIED = 1;
+	public static final int RESERVED = 2;
+
+	/** The amount of time covered by each segment file, in milliseconds */
+	static final long SEGMENT_LENGTH = 60 * 60 * 1000;
+
+	/** How long rollups by minute are kept, in milliseconds */
+	static final long MINUTE_RETENTION = 2L * 24 * 60 * 60 * 1000;
+
+	/** How long rollups by hour are kept, in milliseconds */
+	static final long HOUR_RETENTION = 90L * 24 * 60 * 60 * 1000;
+
+	/** How long segment files are kept, in milliseconds */
+	static final long SEGMENT_RETENTION = HOUR_RETENTION;
+
+	private static final int SEGMENT_MAGIC = 0x4f434331; // "OCC1"
+
+	/** The directory that segment files are written to */
+	private final File directory;
+
+	/** The zone of each space, used for rollups */
+	private final HashMap<String, String> spaceZones;
+
+	/** The state columns that have not been written to a segment yet */
+	private LinkedHashMap<String, Column> columns;
+
+	/** The time that the current in-memory segment started */
+	private long segmentStart;
+
+	/** The number of occupied spaces in each zone */
+	private final HashMap<String, Integer> zoneOccupied;
+
+	/** Each zone's rollups by minute and by hour, keyed by start time */
+	private final HashMap<String, TreeMap<Long, Rollup>> minuteRollups;
+	private final HashMap<String, TreeMap<Long, Rollup>> hourRollups;
+
+	/** Writes segments to disk without holding up the caller */
+	private final ExecutorService writer;
+
+	/**
+	 * Creates an occupancy history that writes its segments to the given
+	 * directory.
+	 *
+	 * @param directory: The directory to write segment files to
+	 * @param spaceZones: The identifier of the zone of each space
+	 */
+	public OccupancyHistory(File directory, Map<String, String> spaceZones) {
+		this.directory = directory;
+		this.directory.mkdirs();
+		this.spaceZones = new HashMap<String, String>(spaceZones);
+		this.columns = new LinkedHashMap<String, Column>();
+		this.segmentStart = -1;
+		this.zoneOccupied = new HashMap<String, Integer>();
+		this.minuteRollups = new HashMap<String, TreeMap<Long, Rollup>>();
+		this.hourRollups = new HashMap<String, TreeMap<Long, Rollup>>();
+		this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "OccupancyHistory");
+				thread.setDaemon(true);
+				return thread;
+			} // newThread
+		});
+	} // OccupancyHistory
+
+	/**
+	 * Records the state of a space at the given time. States that are the
+	 * same as the space's previous state are ignored.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @param state: AVAILABLE, OCCUPIED or RESERVED
+	 * @param time: The time of the change in milliseconds
+	 */
+	public synchronized void record(String spaceId, int state, long time) {
+
+		if (this.segmentStart < 0)
+			this.segmentStart = time;
+		else if (time - this.segmentStart >= SEGMENT_LENGTH)
+			this.spill(time);
+
+		Column column = this.columns.get(spaceId);
+		if (column == null) {
+			column = new Column();
+			this.columns.put(spaceId, column);
+		} // if - first change for this space
+		int previous = column.lastState;
+		if (!column.append(time, state))
+			return;
+
+		// Updates the zone's rollups with any arrival or departure
+		String zone = this.spaceZones.get(spaceId);
+		if (zone == null)
+			return;
+		Integer occupied = this.zoneOccupied.get(zone);
+		int count = (occupied == null) ? 0 : occupied;
+		int arrivals = 0, departures = 0;
+		if (state == OCCUPIED) {
+			arrivals = 1;
+			count++;
+		} // if - arrival
+		else if (previous == OCCUPIED) {
+			departures = 1;
+			count--;
+		} // else if - departure
+		this.zoneOccupied.put(zone, count);
+
+		this.roll(this.minuteRollups, zone, time - time % 60000, arrivals,
+				departures, count, time - MINUTE_RETENTION);
+		this.roll(this.hourRollups, zone, time - time % 3600000, arrivals,
+				departures, count, time - HOUR_RETENTION);
+
+	} // record
+
+	/**
+	 * Changes the zone that a space is counted in, used when the lot file is
+	 * reloaded. An occupied space is moved from its old zone's count to the
+	 * new one without being counted as a departure or an arrival.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @param zoneId: The identifier of the new zone, or null if the space
+	 * 		has been removed
+	 */
+	public synchronized void setZone(String spaceId, String zoneId) {
+
+		String previous = (zoneId == null) ? this.spaceZones.remove(spaceId)
+				: this.spaceZones.put(spaceId, zoneId);
+		if (this.lastState(spaceId) != OCCUPIED || (previous == null
+				? zoneId == null : previous.equals(zoneId)))
+			return;
+		if (previous != null) {
+			Integer occupied = this.zoneOccupied.get(previous);
+			if (occupied != null)
+				this.zoneOccupied.put(previous, occupied - 1);
+		} // if - counted in its old zone
+		if (zoneId != null) {
+			Integer occupied = this.zoneOccupied.get(zoneId);
+			this.zoneOccupied.put(zoneId, (occupied == null) ? 1 : occupied + 1);
+		} // if - counted in its new zone
+
+	} // setZone
+
+	/**
+	 * Gets the last state that was recorded for a space.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @return the last state of the space, or -1 if none has been recorded
+	 */
+	public synchronized int lastState(String spaceId) {
+		Column column = this.columns.get(spaceId);
+		return (column == null) ? -1 : column.lastState;
+	} // lastState
+
+	/**
+	 * Gets every state change of a space between two times. Each entry holds
+	 * the time of the change in milliseconds and the new state. The columns of
+	 * other spaces are skipped without being decoded.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @return the list of changes, oldest first
+	 */
+	public List<long[]> timeline(String spaceId, long from, long to) {
+		return timeline(this.timelines(spaceId, from, to), spaceId);
+	} // timeline
+
+	/**
+	 * Gets every state change of every space between two times.
+	 *
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @return the changes of each space, oldest first
+	 */
+	public Map<String, List<long[]>> timelines(long from, long to) {
+		return this.timelines(null, from, to);
+	} // timelines
+
+	/**
+	 * Gets the state changes between two times of a single space, or of every
+	 * space. Segments that do not overlap the period are skipped without
+	 * being read.
+	 *
+	 * @param spaceId: The identifier of the space, or null for every space
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @return the changes of each space, oldest first
+	 */
+	private Map<String, List<long[]>> timelines(String spaceId, long from,
+			long to) {
+
+		HashMap<String, List<long[]>> timelines =
+				new HashMap<String, List<long[]>>();
+
+		File[] segments = this.segments();
+		if (segments != null) {
+			for (File segment : segments) {
+				try {
+					readSegment(segment, spaceId, from, to, timelines);
+				} catch (FileNotFoundException e) {
+					continue; // Deleted since it was listed
+				} catch (IOException e) {
+					EventLog.error("history_read_failed", "file", segment,
+							"error", e.getMessage());
+				} // try-catch
+			} // for each - segment file
+		} // if - segments exist
+
+		synchronized (this) {
+			for (Map.Entry<String, Column> entry : this.columns.entrySet())
+				if (spaceId == null || spaceId.equals(entry.getKey()))
+					entry.getValue().decode(from, to,
+							timeline(timelines, entry.getKey()));
+		} // synchronized - columns still in memory
+
+		return timelines;
+	} // timelines
+
+	/**
+	 * Gets how long a space was occupied each time a vehicle parked in it
+	 * during the period.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @return the length of each stay in milliseconds
+	 */
+	public long[] dwellTimes(String spaceId, long from, long to) {
+
+		List<long[]> timeline = this.timeline(spaceId, from, to);
+		long[] dwells = new long[timeline.size()];
+		int count = 0;
+		for (int i = 0; i < timeline.size() - 1; i++)
+			if (timeline.get(i)[1] == OCCUPIED)
+				dwells[count++] = timeline.get(i + 1)[0] - timeline.get(i)[0];
+		return Arrays.copyOf(dwells, count);
+
+	} // dwellTimes
+
+	/**
+	 * Gets the number of vehicles that parked in a space during the period.
+	 * The state that the space was already in at the start of the period is
+	 * not counted as an arrival.
+	 *
+	 * @param spaceId: The identifier of the space
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @return the number of arrivals at the space
+	 */
+	public int turnover(String spaceId, long from, long to) {
+		int arrivals = 0;
+		for (long[] change : this.timeline(spaceId, from, to))
+			if (change[0] > from && change[1] == OCCUPIED)
+				arrivals++;
+		return arrivals;
+	} // turnover
+
+	/**
+	 * Gets a zone's rollups that start within the period. Each rollup holds
+	 * the number of arrivals, the number of departures and the highest number
+	 * of occupied spaces.
+	 *
+	 * @param zoneId: The identifier of the zone
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @param hourly: true for rollups by hour, false for rollups by minute
+	 * @return the rollups keyed by their start time
+	 */
+	public synchronized SortedMap<Long, int[]> rollups(String zoneId,
+			long from, long to, boolean hourly) {
+
+		TreeMap<Long, int[]> result = new TreeMap<Long, int[]>();
+		TreeMap<Long, Rollup> rollups = (hourly ? this.hourRollups
+				: this.minuteRollups).get(zoneId);
+		if (rollups != null)
+			for (Map.Entry<Long, Rollup> entry
+					: rollups.subMap(from, true, to, false).entrySet())
+				result.put(entry.getKey(), new int[] {
+						entry.getValue().arrivals,
+						entry.getValue().departures,
+						entry.getValue().peakOccupied});
+		return result;
+	} // rollups
+
+	/**
+	 * Gets the highest number of arrivals in a single minute in a zone during
+	 * the period.
+	 *
+	 * @param zoneId: The identifier of the zone
+	 * @param from: The start of the period in milliseconds
+	 * @param to: The end of the period in milliseconds
+	 * @return the peak number of spaces filled per minute
+	 */
+	public int peakFillRate(String zoneId, long from, long to) {
+		int peak = 0;
+		for (int[] rollup : this.rollups(zoneId, from, to, false).values())
+			peak = Math.max(peak, rollup[0]);
+		return peak;
+	} // peakFillRate
+
+	/**
+	 * Writes any columns still in memory to a segment and waits for all
+	 * segments to be written.
+	 */
+	public void flush() {
+		synchronized (this) {
+			if (this.segmentStart >= 0)
+				this.spill(System.currentTimeMillis());
+		} // synchronized
+		try {
+			this.writer.submit(new Runnable() {
+				@Override
+				public void run() {
+				} // run
+			}).get();
+		} catch (Exception e) {
+			EventLog.error("history_flush_failed", "error", e.getMessage());
+		} // try-catch
+	} // flush
+
+	/**
+	 * Hands the current columns to the writer and starts a new segment. Each
+	 * space's new column begins with the last state of its old one, so that
+	 * every segment can be read on its own. Must be called while holding the
+	 * history's lock.
+	 *
+	 * @param time: The time that the new segment starts
+	 */
+	private void spill(long time) {
+
+		final LinkedHashMap<String, Column> full = this.columns;
+		final long start = this.segmentStart;
+		final long end = time;
+		this.columns = new LinkedHashMap<String, Column>();
+		this.segmentStart = time;
+		for (Map.Entry<String, Column> entry : full.entrySet()) {
+			Column column = new Column();
+			column.append(time, entry.getValue().lastState);
+			this.columns.put(entry.getKey(), column);
+		} // for each - space
+
+		this.writer.submit(new Runnable() {
+			@Override
+			public void run() {
+				File file = new File(directory, String.format(
+						"segment-%013d.occ", start));
+				try {
+					writeSegment(file, start, end, full);
+				} catch (IOException e) {
+					EventLog.error("history_write_failed", "file", file,
+							"error", e.getMessage());
+				} // try-catch
+				deleteSegments(start - SEGMENT_RETENTION);
+			} // run
+		});
+
+	} // spill
+
+	/**
+	 * Gets every segment file, oldest first.
+	 *
+	 * @return the segment files, or null if the directory cannot be read
+	 */
+	private File[] segments() {
+		File[] segments = this.directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".occ");
+			} // accept
+		});
+		if (segments != null)
+			Arrays.sort(segments);
+		return segments;
+	} // segments
+
+	/**
+	 * Deletes the segment files that only hold changes from before a time.
+	 * Each segment ends where the next one starts, so a segment can be
+	 * deleted once the one after it started before that time. Only run by
+	 * the writer.
+	 *
+	 * @param oldest: The time of the oldest change to keep, in milliseconds
+	 */
+	private void deleteSegments(long oldest) {
+		File[] segments = this.segments();
+		if (segments == null)
+			return;
+		for (int i = 0; i < segments.length - 1; i++) {
+			if (startOf(segments[i + 1]) >= oldest)
+				break;
+			if (!segments[i].delete())
+				EventLog.warning("history_delete_failed",
+						"file", segments[i]);
+		} // for - each segment older than the retention time
+	} // deleteSegments
+
+	/**
+	 * Gets the start time of a segment from its file name.
+	 */
+	private static long startOf(File segment) {
+		String name = segment.getName();
+		try {
+			return Long.parseLong(name.substring(name.indexOf('-') + 1,
+					name.lastIndexOf('.')));
+		} catch (RuntimeException e) {
+			return Long.MAX_VALUE; // Not named by this class, so kept
+		} // try-catch
+	} // startOf
+
+	/**
+	 * Adds a change to a zone's rollup for the given period and drops any
+	 * rollups that are older than the retention time.
+	 */
+	private void roll(HashMap<String, TreeMap<Long, Rollup>> rollups,
+			String zone, long period, int arrivals, int departures,
+			int occupied, long oldest) {
+
+		TreeMap<Long, Rollup> zoneRollups = rollups.get(zone);
+		if (zoneRollups == null) {
+			zoneRollups = new TreeMap<Long, Rollup>();
+			rollups.put(zone, zoneRollups);
+		} // if - first rollup for the zone
+		Rollup rollup = zoneRollups.get(period);
+		if (rollup == null) {
+			rollup = new Rollup();
+			zoneRollups.put(period, rollup);
+			zoneRollups.headMap(oldest).clear();
+		} // if - new period
+		rollup.arrivals += arrivals;
+		rollup.departures += departures;
+		rollup.peakOccupied = Math.max(rollup.peakOccupied, occupied);
+
+	} // roll
+
+	/**
+	 * Gets the timeline of a space from a map, adding it if needed.
+	 */
+	private static List<long[]> timeline(Map<String, List<long[]>> timelines,
+			String spaceId) {
+		List<long[]> timeline = timelines.get(spaceId);
+		if (timeline == null) {
+			timeline = new ArrayList<long[]>();
+			timelines.put(spaceId, timeline);
+		} // if - first changes for the space
+		return timeline;
+	} // timeline
+
+	/**
+	 * Writes a set of columns to a segment file.
+	 */
+	private static void writeSegment(File file, long start, long end,
+			LinkedHashMap<String, Column> columns) throws IOException {
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(SEGMENT_MAGIC);
+			out.writeLong(start);
+			out.writeLong(end);
+			out.writeInt(columns.size());
+			for (Map.Entry<String, Column> entry : columns.entrySet()) {
+				Column column = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(column.firstTime);
+				out.writeInt(column.length);
+				out.write(column.data, 0, column.length);
+			} // for each - column
+		} finally {
+			out.close();
+		} // try-finally
+
+	} // writeSegment
+
+	/**
+	 * Reads the changes within a period from a segment file, skipping the
+	 * file if it does not overlap the period. If a space is given, the
+	 * columns of every other space are skipped over without being read.
+	 */
+	private static void readSegment(File file, String only, long from,
+			long to, Map<String, List<long[]>> timelines) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != SEGMENT_MAGIC)
+				throw new IOException("Not a segment file");
+			long start = in.readLong();
+			long end = in.readLong();
+			if (end < from || start > to)
+				return;
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Column column = new Column();
+				String spaceId = in.readUTF();
+				column.firstTime = in.readLong();
+				column.length = in.readInt();
+				if (only != null && !only.equals(spaceId)) {
+					skip(in, column.length);
+					continue;
+				} // if - another space's column
+				column.data = new byte[column.length];
+				in.readFully(column.data);
+				column.decode(from, to, timeline(timelines, spaceId));
+				if (only != null)
+					break; // Each space has a single column
+			} // for - each column
+		} finally {
+			in.close();
+		} // try-finally
+
+	} // readSegment
+
+	/**
+	 * Skips over bytes of a stream.
+	 */
+	private static void skip(DataInputStream in, int length)
+			throws IOException {
+		while (length > 0) {
+			int skipped = in.skipBytes(length);
+			if (skipped <= 0)
+				throw new EOFException("Segment file is cut short");
+			length -= skipped;
+		} // while - bytes left to skip
+	} // skip
+
+	/**
+	 * The state changes of a single space. Each entry is a variable length
+	 * integer holding the zigzag encoded delta-of-delta of the change time in
+	 * seconds, shifted left by two, with the new state in the lowest two bits.
+	 */
+	private static class Column {
+
+		byte[] data = new byte[8];
+		int length;
+		long firstTime = -1;
+		long lastTime;
+		long lastDelta;
+		int lastState = -1;
+
+		/**
+		 * Adds a state change to the column.
+		 *
+		 * @return false if the state is the same as the last one
+		 */
+		boolean append(long time, int state) {
+
+			if (state == this.lastState)
+				return false;
+			long seconds = time / 1000;
+			if (this.firstTime < 0) {
+				this.firstTime = seconds;
+				this.lastTime = seconds;
+			} // if - first entry
+
+			long delta = seconds - this.lastTime;
+			long deltaOfDelta = delta - this.lastDelta;
+			long zigzag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+			this.writeVarLong((zigzag << 2) | state);
+
+			this.lastTime = seconds;
+			this.lastDelta = delta;
+			this.lastState = state;
+			return true;
+
+		} // append
+
+		/**
+		 * Adds each change within a period to a timeline, along with the
+		 * state that the space was in at the start of the period.
+		 */
+		void decode(long from, long to, List<long[]> timeline) {
+
+			long time = this.firstTime, delta = 0;
+			long[] before = null;
+			int position = 0;
+			while (position < this.length) {
+
+				long value = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = this.data[position++];
+					value |= (long) (b & 0x7F) << shift;
+					shift += 7;
+				} while ((b & 0x80) != 0);
+
+				long zigzag = value >>> 2;
+				delta += (zigzag >>> 1) ^ -(zigzag & 1);
+				time += delta;
+				long[] change = {time * 1000, value & 0x3};
+
+				if (change[0] < from)
+					before = change;
+				else if (change[0] <= to) {
+					if (before != null && timeline.isEmpty())
+						timeline.add(new long[] {from, before[1]});
+					before = null;
+					if (timeline.isEmpty()
+							|| timeline.get(timeline.size() - 1)[1] != change[1])
+						timeline.add(change);
+				} // else if - within the period
+				else
+					break;
+
+			} // while - entries left
+			if (before != null && timeline.isEmpty())
+				timeline.add(new long[] {from, before[1]});
+
+		} // decode
+
+		private void writeVarLong(long value) {
+			if (this.length + 10 > this.data.length)
+				this.data = Arrays.copyOf(this.data, this.data.length * 2);
+			while ((value & ~0x7FL) != 0) {
+				this.data[this.length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			} // while - more than seven bits left
+			this.data[this.length++] = (byte) value;
+		} // writeVarLong
+
+	} // Column - Class
+
+	/**
+	 * The totals for a zone over a single minute or hour.
+	 */
+	private static class Rollup {
+		int arrivals;
+		int departures;
+		int peakOccupied;
+	} // Rollup - Class
+
+} // OccupancyHistory - Class
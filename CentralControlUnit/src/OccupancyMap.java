@@ -0,0 +1,341 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+
+import sun.misc.Unsafe;
+
+/**
+ * The OccupancyMap class keeps the state of the lot in a memory mapped file,
+ * so that other programs on the same computer, such as a signage driver or a
+ * billing exporter, can read it live by mapping the file themselves, without
+ * copying it or asking the Central Control Unit. The file is changed in place
+ * as each space changes state. An OccupancyMapReader can be used to read it.
+ *
+ * All numbers in the file are little-endian. The file starts with a header:
+ * 		0	int		MAGIC
+ * 		4	int		VERSION
+ * 		8	long	sequence number, which is odd while the file is changing
+ * 		16	long	time of the last change, in milliseconds
+ * 		24	int		number of spaces
+ * 		28	int		number of group controllers
+ * 		32	int[3]	number of spaces available, occupied and reserved
+ * 		44	int		offset of the availability bits
+ * 		48	int		offset of the group controllers
+ * 		52	int		offset of the spaces
+ * 		56	int		number of bytes in use
+ * The availability bits are a long for every 64 spaces, where bit i of long
+ * i / 64 is set if space i is available. Each group controller then has its
+ * 64-bit address, the number of its spaces that are available, occupied and
+ * reserved, and its identifier. Each space then has the index of its group
+ * controller and its identifier. Identifiers are US-ASCII, padded with zeros
+ * and cut short if they are longer than ID_LENGTH.
+ *
+ * A reader gets a consistent snapshot by reading the sequence number, waiting
+ * while it is odd, reading what it needs and then reading the sequence number
+ * again, and trying again if the number has changed. There are no locks, so
+ * a reader can never hold up the Central Control Unit. Every value, including
+ * the sequence number, is written with a release store, so no value can be
+ * seen before the odd sequence number that comes ahead of it or after the
+ * even one that follows it. A reader must read every value with an acquire
+ * load, so that its reads are not moved outside of the two sequence numbers.
+ * A MappedByteBuffer cannot do either of these, so the file is written
+ * through Unsafe.
+ *
+ * The map is changed by the unit's LotCounters, so it is only ever changed by
+ * one thread at a time.
+ *
+ * @author Elliot Dean
+ */
+public class OccupancyMap {
+
+	/** The first four bytes of the file, "OCCM" */
+	static final int MAGIC = 0x4D43434F;
+
+	/** The version of the file layout */
+	static final int VERSION = 1;
+
+	/** The offsets of the header values */
+	static final int SEQUENCE = 8, UPDATED = 16, SPACES = 24,
+			CONTROLLERS = 28, TOTALS = 32, BITS_OFFSET = 44,
+			CONTROLLERS_OFFSET = 48, SPACES_OFFSET = 52, SIZE = 56;
+
+	/** The number of bytes in the header */
+	static final int HEADER_SIZE = 64;
+
+	/** The number of bytes kept for an identifier */
+	static final int ID_LENGTH = 16;
+
+	/** The number of bytes for each group controller */
+	static final int CONTROLLER_SIZE = 8 + 4 * LotCounters.STATES + 4
+			+ ID_LENGTH;
+
+	/** The offset of the counts within a group controller */
+	static final int CONTROLLER_COUNTS = 8;
+
+	/** The offset of the identifier within a group controller */
+	static final int CONTROLLER_ID = CONTROLLER_COUNTS
+			+ 4 * LotCounters.STATES + 4;
+
+	/** The number of bytes for each space */
+	static final int SPACE_SIZE = 4 + ID_LENGTH;
+
+	static final Charset ASCII = Charset.forName("US-ASCII");
+
+	/** Used for the ordered reads and writes of mapped files */
+	static final Unsafe UNSAFE;
+
+	/** The offset of the memory address field within a Buffer */
+	private static final long ADDRESS;
+
+	/** true if values must have their bytes swapped to be little-endian */
+	static final boolean SWAP =
+			ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN;
+
+	static {
+		try {
+			Field field = Unsafe.class.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			UNSAFE = (Unsafe) field.get(null);
+			ADDRESS = UNSAFE.objectFieldOffset(
+					Buffer.class.getDeclaredField("address"));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		} // try-catch
+	} // static
+
+	private final File file;
+	private final RandomAccessFile access;
+	/** Kept so that the file stays mapped at address */
+	private MappedByteBuffer buffer;
+	private long address;
+	private long sequence;
+
+	/** The state and group controller of each space, as laid out */
+	private int[] states;
+	private int[] controllerOf;
+
+	/**
+	 * Opens the map file, creating it if needed. The sequence number carries
+	 * on from the one already in the file, so that a reader that was part way
+	 * through a read sees that it changed.
+	 *
+	 * @param file: The file to keep the map in
+	 * @throws IOException if the file could not be opened
+	 */
+	public OccupancyMap(File file) throws IOException {
+		this.file = file;
+		this.access = new RandomAccessFile(file, "rw");
+		this.map(HEADER_SIZE);
+		if (this.buffer.getInt(0) == MAGIC)
+			this.sequence = (this.buffer.getLong(SEQUENCE) + 1) & ~1L;
+		this.states = new int[0];
+		this.controllerOf = new int[0];
+	} // OccupancyMap
+
+	/**
+	 * Lays out the file for a lot, writing every space, group controller and
+	 * count.
+	 *
+	 * @param spaces: Every space in the lot
+	 * @param states: The OccupancyHistory state of each space
+	 */
+	public void layout(List<ParkingSpace> spaces, int[] states) {
+
+		HashMap<GroupController, Integer> indexes =
+				new HashMap<GroupController, Integer>();
+		GroupController[] controllers = new GroupController[spaces.size()];
+		int[] controllerOf = new int[spaces.size()];
+		for (int i = 0; i < spaces.size(); i++) {
+			GroupController controller = spaces.get(i).getController();
+			Integer index = indexes.get(controller);
+			if (index == null) {
+				index = indexes.size();
+				indexes.put(controller, index);
+				controllers[index] = controller;
+			} // if - first space of the controller
+			controllerOf[i] = index;
+		} // for - each space
+
+		int bitsOffset = HEADER_SIZE;
+		int controllersOffset = bitsOffset + 8 * ((spaces.size() + 63) / 64);
+		int spacesOffset = controllersOffset
+				+ CONTROLLER_SIZE * indexes.size();
+		int size = spacesOffset + SPACE_SIZE * spaces.size();
+		try {
+			if (size > this.buffer.capacity())
+				this.map(size);
+		} catch (IOException e) {
+			EventLog.error("occupancy_map_failed", "file", this.file,
+					"error", e.getMessage());
+			this.beginWrite();
+			this.putInt(SPACES, 0);
+			this.putInt(CONTROLLERS, 0);
+			this.endWrite();
+			this.states = new int[0];
+			return;
+		} // try-catch
+
+		this.beginWrite();
+		for (int i = bitsOffset; i < size; i += 4) // Every section is in ints
+			this.putInt(i, 0);
+		for (int i = 0; i < indexes.size(); i++) {
+			int offset = controllersOffset + CONTROLLER_SIZE * i;
+			this.putLong(offset, controllers[i].getAddress());
+			this.putId(offset + CONTROLLER_ID, controllers[i].getId());
+		} // for - each controller
+		for (int i = 0; i < LotCounters.STATES; i++)
+			this.putInt(TOTALS + 4 * i, 0);
+		for (int i = 0; i < spaces.size(); i++) {
+			int offset = spacesOffset + SPACE_SIZE * i;
+			this.putInt(offset, controllerOf[i]);
+			this.putId(offset + 4, spaces.get(i).getId());
+		} // for - each space
+		this.putInt(SPACES, spaces.size());
+		this.putInt(CONTROLLERS, indexes.size());
+		this.putInt(BITS_OFFSET, bitsOffset);
+		this.putInt(CONTROLLERS_OFFSET, controllersOffset);
+		this.putInt(SPACES_OFFSET, spacesOffset);
+		this.putInt(SIZE, size);
+
+		this.controllerOf = controllerOf;
+		this.states = new int[spaces.size()];
+		for (int i = 0; i < spaces.size(); i++)
+			this.count(i, states[i], 1);
+		this.endWrite();
+
+	} // layout
+
+	/**
+	 * Changes the state of a space.
+	 *
+	 * @param index: The index of the space in the layout
+	 * @param state: The new OccupancyHistory state of the space
+	 */
+	public void set(int index, int state) {
+		if (index < 0 || index >= this.states.length
+				|| this.states[index] == state)
+			return;
+		this.beginWrite();
+		this.count(index, this.states[index], -1);
+		this.count(index, state, 1);
+		this.endWrite();
+	} // set
+
+	/**
+	 * Closes the file once it is no longer changed. The file is left in
+	 * place for readers that still have it mapped.
+	 */
+	public void close() {
+		try {
+			this.access.close();
+		} catch (IOException e) {
+			EventLog.warning("occupancy_map_close_failed", "file", this.file,
+					"error", e.getMessage());
+		} // try-catch
+	} // close
+
+	/**
+	 * Adds or takes away a space from the counts of a state, and sets its
+	 * availability bit when it is added as available.
+	 */
+	private void count(int index, int state, int change) {
+
+		MappedByteBuffer buffer = this.buffer;
+		int controller = buffer.getInt(CONTROLLERS_OFFSET)
+				+ CONTROLLER_SIZE * this.controllerOf[index]
+				+ CONTROLLER_COUNTS + 4 * state;
+		this.putInt(controller, buffer.getInt(controller) + change);
+		this.putInt(TOTALS + 4 * state,
+				buffer.getInt(TOTALS + 4 * state) + change);
+
+		if (change > 0) {
+			this.states[index] = state;
+			int word = buffer.getInt(BITS_OFFSET) + 8 * (index >> 6);
+			long bit = 1L << (index & 63);
+			long bits = buffer.getLong(word);
+			this.putLong(word, (state == OccupancyHistory.AVAILABLE)
+					? bits | bit : bits & ~bit);
+		} // if - space added to a state
+
+	} // count
+
+	/**
+	 * Makes the sequence number odd, so that readers know the file is
+	 * changing.
+	 */
+	private void beginWrite() {
+		this.putLong(SEQUENCE, ++this.sequence);
+	} // beginWrite
+
+	/**
+	 * Makes the sequence number even again once the file has changed.
+	 */
+	private void endWrite() {
+		this.putLong(UPDATED, System.currentTimeMillis());
+		this.putLong(SEQUENCE, ++this.sequence);
+	} // endWrite
+
+	/**
+	 * Writes an int with a release store, so that it cannot be seen before
+	 * anything written ahead of it.
+	 */
+	private void putInt(int offset, int value) {
+		UNSAFE.putOrderedInt(null, this.address + offset,
+				SWAP ? Integer.reverseBytes(value) : value);
+	} // putInt
+
+	/**
+	 * Writes a long with a release store.
+	 */
+	private void putLong(int offset, long value) {
+		UNSAFE.putOrderedLong(null, this.address + offset,
+				SWAP ? Long.reverseBytes(value) : value);
+	} // putLong
+
+	/**
+	 * Maps the file, making it larger if needed, and writes the header.
+	 */
+	private void map(int size) throws IOException {
+		FileChannel channel = this.access.getChannel();
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				Math.max(size, channel.size()));
+		this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+		this.address = address(this.buffer);
+		if (this.buffer.getInt(0) != MAGIC) {
+			this.putLong(SEQUENCE, this.sequence);
+			this.putInt(SIZE, HEADER_SIZE);
+		} // if - new file
+		this.putInt(0, MAGIC);
+		this.putInt(4, VERSION);
+	} // map
+
+	/**
+	 * Writes an identifier, padded with zeros. There is no release store for
+	 * a single byte, so a volatile store is used.
+	 */
+	private void putId(int offset, String id) {
+		byte[] bytes = id.getBytes(ASCII);
+		for (int i = 0; i < ID_LENGTH; i++)
+			UNSAFE.putByteVolatile(null, this.address + offset + i,
+					(i < bytes.length) ? bytes[i] : 0);
+	} // putId
+
+	/**
+	 * Gets the memory address that a buffer maps.
+	 *
+	 * @param buffer: The mapped buffer
+	 * @return the address of its first byte
+	 */
+	static long address(MappedByteBuffer buffer) {
+		return UNSAFE.getLong(buffer, ADDRESS);
+	} // address
+
+} // OccupancyMap - Class
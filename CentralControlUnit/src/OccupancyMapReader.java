@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The OccupancyMapReader class reads the live state of the lot from the file
+ * kept by a Central Control Unit's OccupancyMap. The file is mapped into
+ * memory, so each value is read straight from the file as the unit changes
+ * it, without copying it or asking the unit.
+ *
+ * Reads are made between begin and retry, and are only consistent if retry
+ * returns false, for example:
+ * 		long sequence;
+ * 		do {
+ * 			sequence = reader.begin();
+ * 			available = reader.getTotal(OccupancyHistory.AVAILABLE);
+ * 		} while (reader.retry(sequence));
+ * Values read while retry would return true may be mixed from before and
+ * after a change, and should be thrown away. Every value is read with an
+ * acquire load, as OccupancyMap requires. A value that would lie outside the
+ * file, which can only happen when the lot is laid out again part way
+ * through a read, is read as 0 or null and makes retry return true.
+ *
+ * Run on its own, it prints the number of spaces in each state for the lot
+ * and for each group controller. The only argument is the map file, which is
+ * occupancy.map unless another is given.
+ *
+ * @author Elliot Dean
+ */
+public class OccupancyMapReader {
+
+	/** The longest time to wait for a change to finish, in milliseconds */
+	static final long MAX_WAIT = 1000;
+
+	private final RandomAccessFile access;
+	/** Kept so that the file stays mapped at address */
+	private MappedByteBuffer buffer;
+	private long address;
+	private int capacity;
+
+	/** true if a value outside the file was asked for during this read */
+	private boolean torn;
+
+	/** The layout read at the start of the current read */
+	private int spaces;
+	private int controllers;
+	private int bitsOffset;
+	private int controllersOffset;
+	private int spacesOffset;
+
+	/**
+	 * Maps a map file for reading.
+	 *
+	 * @param file: The file kept by the Central Control Unit
+	 * @throws IOException if the file could not be mapped or is not a map
+	 */
+	public OccupancyMapReader(File file) throws IOException {
+		this.access = new RandomAccessFile(file, "r");
+		this.map();
+		if (this.capacity < OccupancyMap.HEADER_SIZE
+				|| this.getInt(0) != OccupancyMap.MAGIC
+				|| this.getInt(4) != OccupancyMap.VERSION) {
+			this.access.close();
+			throw new IOException(file + " is not an occupancy map");
+		} // if - not a map file
+	} // OccupancyMapReader
+
+	/**
+	 * Prints the number of spaces available, occupied and reserved for the
+	 * lot and for each group controller.
+	 *
+	 * @param args: The map file, which is occupancy.map if none is given
+	 * @throws IOException if the file could not be mapped or is not a map
+	 */
+	public static void main(String[] args) throws IOException {
+
+		OccupancyMapReader reader = new OccupancyMapReader(
+				new File(args.length > 0 ? args[0] : "occupancy.map"));
+		StringBuilder text = new StringBuilder();
+		long sequence;
+		do {
+			sequence = reader.begin();
+			text.setLength(0);
+			text.append(String.format("Lot:\tAvailable: %d\tOccupied: %d"
+					+ "\tReserved: %d%n",
+					reader.getTotal(OccupancyHistory.AVAILABLE),
+					reader.getTotal(OccupancyHistory.OCCUPIED),
+					reader.getTotal(OccupancyHistory.RESERVED)));
+			for (int i = 0; i < reader.getControllerCount(); i++)
+				text.append(String.format("%s:\tAvailable: %d\tOccupied: %d"
+						+ "\tReserved: %d%n", reader.getControllerId(i),
+						reader.getCount(i, OccupancyHistory.AVAILABLE),
+						reader.getCount(i, OccupancyHistory.OCCUPIED),
+						reader.getCount(i, OccupancyHistory.RESERVED)));
+		} while (reader.retry(sequence));
+		System.out.print(text);
+		reader.close();
+
+	} // main
+
+	/**
+	 * Starts a read, waiting for any change that is being made to finish.
+	 *
+	 * @return the sequence number to give to retry
+	 * @throws IOException if the file stays part way through a change, such
+	 * as when the Central Control Unit stopped while changing it
+	 */
+	public long begin() throws IOException {
+
+		long start = System.currentTimeMillis();
+		long sequence;
+		while (((sequence = this.getLong(OccupancyMap.SEQUENCE)) & 1) != 0) {
+			if (System.currentTimeMillis() - start > MAX_WAIT)
+				throw new IOException("The occupancy map is not being "
+						+ "updated");
+			Thread.yield();
+		} // while - change being made
+		this.torn = false;
+
+		if (this.getInt(OccupancyMap.SIZE) > this.capacity)
+			this.map(); // The lot has grown
+		this.spaces = this.getInt(OccupancyMap.SPACES);
+		this.controllers = this.getInt(OccupancyMap.CONTROLLERS);
+		this.bitsOffset = this.getInt(OccupancyMap.BITS_OFFSET);
+		this.controllersOffset = this.getInt(OccupancyMap.CONTROLLERS_OFFSET);
+		this.spacesOffset = this.getInt(OccupancyMap.SPACES_OFFSET);
+		if (this.spaces < 0 || this.controllers < 0
+				|| this.bitsOffset < OccupancyMap.HEADER_SIZE
+				|| this.controllersOffset < this.bitsOffset
+						+ 8L * ((this.spaces + 63) / 64)
+				|| this.spacesOffset < this.controllersOffset
+						+ (long) OccupancyMap.CONTROLLER_SIZE * this.controllers
+				|| this.spacesOffset + (long) OccupancyMap.SPACE_SIZE
+						* this.spaces > this.capacity)
+			this.spaces = this.controllers = 0; // Layout changed while read
+		return sequence;
+
+	} // begin
+
+	/**
+	 * Finishes a read.
+	 *
+	 * @param sequence: The sequence number returned by begin
+	 * @return true if the file changed during the read, so that it must be
+	 * read again
+	 */
+	public boolean retry(long sequence) {
+		return this.getLong(OccupancyMap.SEQUENCE) != sequence || this.torn;
+	} // retry
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		this.access.close();
+	} // close
+
+	/**
+	 * Gets the time of the last change.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getUpdated() {
+		return this.getLong(OccupancyMap.UPDATED);
+	} // getUpdated
+
+	/**
+	 * Gets the number of spaces in the lot.
+	 *
+	 * @return the number of spaces
+	 */
+	public int getSpaceCount() {
+		return this.spaces;
+	} // getSpaceCount
+
+	/**
+	 * Gets whether a space is available.
+	 *
+	 * @param space: The index of the space
+	 * @return true if the space is available
+	 */
+	public boolean isAvailable(int space) {
+		if (space < 0 || space >= this.spaces)
+			return false;
+		return (this.getLong(this.bitsOffset + 8 * (space >> 6))
+				& (1L << (space & 63))) != 0;
+	} // isAvailable
+
+	/**
+	 * Gets the identifier of a space.
+	 *
+	 * @param space: The index of the space
+	 * @return the identifier, such as G0.3
+	 */
+	public String getSpaceId(int space) {
+		if (space < 0 || space >= this.spaces)
+			return null;
+		return this.getId(this.spacesOffset + OccupancyMap.SPACE_SIZE * space
+				+ 4);
+	} // getSpaceId
+
+	/**
+	 * Gets the group controller of a space.
+	 *
+	 * @param space: The index of the space
+	 * @return the index of the group controller
+	 */
+	public int getController(int space) {
+		if (space < 0 || space >= this.spaces)
+			return -1;
+		return this.getInt(this.spacesOffset
+				+ OccupancyMap.SPACE_SIZE * space);
+	} // getController
+
+	/**
+	 * Gets the number of group controllers in the lot.
+	 *
+	 * @return the number of group controllers
+	 */
+	public int getControllerCount() {
+		return this.controllers;
+	} // getControllerCount
+
+	/**
+	 * Gets the identifier of a group controller.
+	 *
+	 * @param controller: The index of the group controller
+	 * @return the identifier, such as G0
+	 */
+	public String getControllerId(int controller) {
+		if (controller < 0 || controller >= this.controllers)
+			return null;
+		return this.getId(this.controllersOffset
+				+ OccupancyMap.CONTROLLER_SIZE * controller
+				+ OccupancyMap.CONTROLLER_ID);
+	} // getControllerId
+
+	/**
+	 * Gets the 64-bit address of a group controller.
+	 *
+	 * @param controller: The index of the group controller
+	 * @return the address
+	 */
+	public long getControllerAddress(int controller) {
+		if (controller < 0 || controller >= this.controllers)
+			return 0;
+		return this.getLong(this.controllersOffset
+				+ OccupancyMap.CONTROLLER_SIZE * controller);
+	} // getControllerAddress
+
+	/**
+	 * Gets the number of a group controller's spaces in a state.
+	 *
+	 * @param controller: The index of the group controller
+	 * @param state: The OccupancyHistory state
+	 * @return the number of spaces
+	 */
+	public int getCount(int controller, int state) {
+		if (controller < 0 || controller >= this.controllers)
+			return 0;
+		return this.getInt(this.controllersOffset
+				+ OccupancyMap.CONTROLLER_SIZE * controller
+				+ OccupancyMap.CONTROLLER_COUNTS + 4 * state);
+	} // getCount
+
+	/**
+	 * Gets the number of spaces in the lot in a state.
+	 *
+	 * @param state: The OccupancyHistory state
+	 * @return the number of spaces
+	 */
+	public int getTotal(int state) {
+		return this.getInt(OccupancyMap.TOTALS + 4 * state);
+	} // getTotal
+
+	/**
+	 * Reads an identifier that is padded with zeros.
+	 */
+	private String getId(int offset) {
+		if (!this.inFile(offset, OccupancyMap.ID_LENGTH))
+			return null;
+		byte[] bytes = new byte[OccupancyMap.ID_LENGTH];
+		int length = 0;
+		while (length < bytes.length && (bytes[length] = OccupancyMap.UNSAFE
+				.getByteVolatile(null, this.address + offset + length)) != 0)
+			length++;
+		return new String(bytes, 0, length, OccupancyMap.ASCII);
+	} // getId
+
+	/**
+	 * Reads an int with an acquire load.
+	 */
+	private int getInt(int offset) {
+		if (!this.inFile(offset, 4))
+			return 0;
+		int value = OccupancyMap.UNSAFE.getIntVolatile(null,
+				this.address + offset);
+		return OccupancyMap.SWAP ? Integer.reverseBytes(value) : value;
+	} // getInt
+
+	/**
+	 * Reads a long with an acquire load.
+	 */
+	private long getLong(int offset) {
+		if (!this.inFile(offset, 8))
+			return 0;
+		long value = OccupancyMap.UNSAFE.getLongVolatile(null,
+				this.address + offset);
+		return OccupancyMap.SWAP ? Long.reverseBytes(value) : value;
+	} // getLong
+
+	/**
+	 * Checks that a value lies within the mapped file, marking the read to be
+	 * retried if it does not, rather than reading outside of the mapping.
+	 */
+	private boolean inFile(int offset, int length) {
+		if (offset >= 0 && offset <= this.capacity - length)
+			return true;
+		this.torn = true; // The layout changed during the read
+		return false;
+	} // inFile
+
+	/**
+	 * Maps the whole file.
+	 */
+	private void map() throws IOException {
+		FileChannel channel = this.access.getChannel();
+		this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size());
+		this.address = OccupancyMap.address(this.buffer);
+		this.capacity = this.buffer.capacity();
+	} // map
+
+} // OccupancyMapReader - Class
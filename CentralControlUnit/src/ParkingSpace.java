@@ -11,12 +11,32 @@
  * setup easier (since most parking spaces will be evenly spaced from each 
  * group controller).
  * 
+ * A parking space can also belong to any of a set of categories, such as 
+ * accessible spaces or spaces with an EV charger. Spaces that are accessible
+ * or need a permit are kept for vehicles that ask for them, while any vehicle
+ * may be sent to an EV or compact space.
+ * 
  * @author Elliot Dean
  */
 public class ParkingSpace extends LotEntity{
 	
+	/** The categories that a space can be asked for by */
+	public static final int GENERAL = 0;
+	public static final int ACCESSIBLE = 1;
+	public static final int EV = 2;
+	public static final int COMPACT = 3;
+	public static final int PERMIT = 4;
+	public static final int CATEGORIES = 5;
+	
+	/** The letter used for each category in the lot file and 'E' messages */
+	static final String CATEGORY_CODES = "GAECP";
+	
+	/** The categories that are not given out to general vehicles */
+	private static final int RESTRICTED = (1 << ACCESSIBLE) | (1 << PERMIT);
+	
 	private final GroupController controller;
-	private boolean isAvailable;
+	private final int categories; // One bit for each category
+	private volatile boolean isAvailable;
 	
 	/**
 	 * Creates an object that represents a physical parking space.
@@ -27,8 +47,24 @@ public class ParkingSpace extends LotEntity{
 	 * @param controller: The controller that the parking space belongs to
 	 */
 	public ParkingSpace(int x, int y, String id, GroupController controller) {
+		this(x, y, id, controller, 0);
+	} // ParkingSpace
+	
+	/**
+	 * Creates an object that represents a physical parking space that belongs
+	 * to one or more categories.
+	 * 
+	 * @param x: The parking space's x coordinate in relation to its controller
+	 * @param y: The parking space's y coordinate in relation to its controller
+	 * @param id: The identifier of the parking space
+	 * @param controller: The controller that the parking space belongs to
+	 * @param categories: A bit (1 << category) for each of its categories
+	 */
+	public ParkingSpace(int x, int y, String id, GroupController controller,
+			int categories) {
 		super(x + controller.getX(), y + controller.getY(), id);
 		this.controller = controller;
+		this.categories = categories;
 		this.isAvailable = true;
 	} // ParkingSpace
 	
@@ -42,6 +78,39 @@ public class ParkingSpace extends LotEntity{
 		return this.controller;
 	} // getController
 	
+	/**
+	 * Gets the categories that the space belongs to.
+	 * 
+	 * @return a bit (1 << category) for each of the space's categories
+	 */
+	public int getCategories() {
+		return this.categories;
+	} // getCategories
+	
+	/**
+	 * Checks if the space can be given to a vehicle asking for a category. 
+	 * Any space that is not accessible and does not need a permit can be given
+	 * to a general vehicle.
+	 * 
+	 * @param category: The category that was asked for
+	 * @return true if the space can be given out for the category
+	 */
+	public boolean isIn(int category) {
+		if (category == GENERAL)
+			return (this.categories & RESTRICTED) == 0;
+		return (this.categories & (1 << category)) != 0;
+	} // isIn
+	
+	/**
+	 * Gets the category for one of the letters in CATEGORY_CODES.
+	 * 
+	 * @param code: The letter of the category
+	 * @return the category, or -1 if the letter is not a category
+	 */
+	public static int category(int code) {
+		return (code > 0 && code < 0x80) ? CATEGORY_CODES.indexOf(code) : -1;
+	} // category
+	
 	/**
 	 * Returns whether or not the space is available.
 	 * 
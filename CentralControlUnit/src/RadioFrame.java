@@ -0,0 +1,162 @@
+import java.util.concurrent.ArrayBlockingQueue;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+
+/**
+ * The RadioFrame class holds a single XBee API frame that has been read from
+ * the radio. Frames are taken from a fixed pool and handed back with release()
+ * once they have been processed, so receiving a packet does not create any
+ * new objects. The frame data is kept as raw bytes and the values in it are
+ * read as primitives, with the source address given as a long.
+ *
+ * The frame data starts with the API identifier. For a ZigBee receive packet
+ * (0x90) this is followed by the 64-bit source address, the 16-bit source
+ * address, the receive options and then the payload. A ZigBee transmit
+ * request (0x10) has the frame id, the 64-bit destination address, the 16-bit
+ * destination address, the broadcast radius and the options before its
+ * payload.
+ *
+ * @author Elliot Dean
+ */
+public class RadioFrame {
+
+	/** The API identifiers of the frames that are used */
+	public static final int TRANSMIT_REQUEST = 0x10;
+	public static final int TRANSMIT_STATUS = 0x8B;
+	public static final int RECEIVE_PACKET = 0x90;
+
+	/** The largest amount of frame data that can be held */
+	static final int MAX_LENGTH = 256;
+
+	/** The position of the payload in a receive packet */
+	private static final int PAYLOAD_OFFSET = 12;
+
+	/** The position of the payload in a transmit request */
+	private static final int REQUEST_PAYLOAD_OFFSET = 14;
+
+	/** The unescaped frame data, starting with the API identifier */
+	final byte[] data;
+
+	/** The number of bytes of frame data */
+	int length;
+
+	/** The pool that the frame is returned to when released */
+	private final ArrayBlockingQueue<RadioFrame> pool;
+
+	/**
+	 * Creates an empty frame that belongs to a pool.
+	 *
+	 * @param pool: The pool that the frame is returned to when released
+	 */
+	RadioFrame(ArrayBlockingQueue<RadioFrame> pool) {
+		this.data = new byte[MAX_LENGTH];
+		this.pool = pool;
+	} // RadioFrame
+
+	/**
+	 * Gets the API identifier of the frame.
+	 *
+	 * @return the API identifier
+	 */
+	public int getApiId() {
+		return this.data[0] & 0xFF;
+	} // getApiId
+
+	/**
+	 * Gets the 64-bit address of the radio that sent a receive packet.
+	 *
+	 * @return the source address
+	 */
+	public long getSource() {
+		long source = 0;
+		for (int i = 1; i <= 8; i++)
+			source = (source << 8) | (this.data[i] & 0xFF);
+		return source;
+	} // getSource
+
+	/**
+	 * Gets the frame id of a transmit request.
+	 *
+	 * @return the frame id, or 0 if no status was asked for
+	 */
+	public int getFrameId() {
+		return this.data[1] & 0xFF;
+	} // getFrameId
+
+	/**
+	 * Gets the 64-bit address that a transmit request is sent to.
+	 *
+	 * @return the destination address
+	 */
+	public long getDestination() {
+		long destination = 0;
+		for (int i = 2; i <= 9; i++)
+			destination = (destination << 8) | (this.data[i] & 0xFF);
+		return destination;
+	} // getDestination
+
+	/**
+	 * Gets the number of payload bytes in a receive packet or transmit
+	 * request.
+	 *
+	 * @return the payload length
+	 */
+	public int getPayloadLength() {
+		return Math.max(0, this.length - this.payloadOffset());
+	} // getPayloadLength
+
+	/**
+	 * Gets a single byte of the payload of a receive packet or transmit
+	 * request.
+	 *
+	 * @param index: The position of the byte within the payload
+	 * @return the byte as an unsigned value
+	 */
+	public int getPayload(int index) {
+		return this.data[this.payloadOffset() + index] & 0xFF;
+	} // getPayload
+
+	/**
+	 * Returns the frame to its pool. The frame must not be used afterwards.
+	 */
+	public void release() {
+		this.pool.offer(this);
+	} // release
+
+	/**
+	 * Gets the position of the payload in the frame data.
+	 */
+	private int payloadOffset() {
+		return (this.getApiId() == TRANSMIT_REQUEST)
+				? REQUEST_PAYLOAD_OFFSET : PAYLOAD_OFFSET;
+	} // payloadOffset
+
+	/**
+	 * Converts an xbee-api address to a long.
+	 *
+	 * @param address: The address to convert
+	 * @return the address as a long
+	 */
+	public static long toLong(XBeeAddress64 address) {
+		long value = 0;
+		for (int b : address.getAddress())
+			value = (value << 8) | (b & 0xFF);
+		return value;
+	} // toLong
+
+	/**
+	 * Converts a long address to an xbee-api address.
+	 *
+	 * @param address: The address to convert
+	 * @return the address as an XBeeAddress64
+	 */
+	public static XBeeAddress64 toAddress64(long address) {
+		int[] bytes = new int[8];
+		for (int i = 7; i >= 0; i--) {
+			bytes[i] = (int) (address & 0xFF);
+			address >>>= 8;
+		} // for - each byte, lowest first
+		return new XBeeAddress64(bytes);
+	} // toAddress64
+
+} // RadioFrame - Class
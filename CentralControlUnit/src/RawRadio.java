@@ -0,0 +1,235 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import gnu.io.CommPortIdentifier;
+import gnu.io.SerialPort;
+
+/**
+ * The RawRadio class talks to an XBee in API mode without the xbee-api
+ * library. Incoming frames are decoded by a FrameDecoder on a reader thread
+ * into pooled frames, and outgoing transmit requests are encoded into a buffer
+ * that is reused for every message, so neither direction creates objects for
+ * each packet.
+ *
+ * Received packets are queued for the main program loop, which takes them
+ * with poll() and must release each one once it is done with it. Transmit
+ * status frames are matched to the waiting transmit() call by frame id.
+ *
+ * @author Elliot Dean
+ */
+public class RawRadio implements FrameDecoder.Handler {
+
+	/** The number of pooled frames for received packets */
+	static final int POOL_SIZE = 64;
+
+	/** The stream that frames are written to */
+	private final OutputStream out;
+
+	/** The serial port, if the radio was opened on one */
+	private final SerialPort port;
+
+	/** Received packets waiting for the main program loop */
+	private final ArrayBlockingQueue<RadioFrame> received;
+
+	/** The delivery status received for each frame id, or -1 if none */
+	private final int[] statuses;
+
+	/** The buffer that outgoing frames are encoded into */
+	private final byte[] encoded;
+
+	/** The frame id that was used last */
+	private int lastFrameId;
+
+	/** Whether the reader has stopped */
+	private volatile boolean closed;
+
+	/**
+	 * Opens a radio on a serial port at 9600 baud.
+	 *
+	 * @param portName: The name of the serial port
+	 * @return the opened radio
+	 * @throws IOException if the port could not be opened
+	 */
+	public static RawRadio open(String portName) throws IOException {
+		try {
+			SerialPort port = (SerialPort) CommPortIdentifier
+					.getPortIdentifier(portName).open("CentralControlUnit", 2000);
+			port.setSerialPortParams(9600, SerialPort.DATABITS_8,
+					SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+			return new RawRadio(port.getInputStream(), port.getOutputStream(),
+					port);
+		} catch (Exception e) {
+			throw new IOException("Unable to open " + portName, e);
+		} // try-catch
+	} // open
+
+	/**
+	 * Creates a radio that reads and writes frames on the given streams.
+	 *
+	 * @param in: The stream that frames are read from
+	 * @param out: The stream that frames are written to
+	 */
+	public RawRadio(InputStream in, OutputStream out) {
+		this(in, out, null);
+	} // RawRadio
+
+	private RawRadio(InputStream in, OutputStream out, SerialPort port) {
+		this.out = out;
+		this.port = port;
+		this.received = new ArrayBlockingQueue<RadioFrame>(POOL_SIZE);
+		this.statuses = new int[256];
+		this.encoded = new byte[2 * (RadioFrame.MAX_LENGTH + 4)];
+
+		Thread reader = new Thread(new FrameDecoder(
+				new BufferedInputStream(in), this, POOL_SIZE), "RadioReader");
+		reader.setDaemon(true);
+		reader.start();
+	} // RawRadio
+
+	/**
+	 * Waits for the next received packet.
+	 *
+	 * @param timeout: The longest time to wait, in milliseconds
+	 * @return the packet, or null if none arrived in time
+	 * @throws InterruptedException
+	 */
+	public RadioFrame poll(long timeout) throws InterruptedException {
+		return this.received.poll(timeout, TimeUnit.MILLISECONDS);
+	} // poll
+
+	/**
+	 * Sends a payload to a radio and waits for its transmit status. Only one
+	 * transmission is waited on at a time.
+	 *
+	 * @param destination: The 64-bit address of the radio
+	 * @param payload: The bytes to send, each held in an int
+	 * @param timeout: The longest time to wait for the status, in ms
+	 * @return true if the payload was delivered
+	 * @throws IOException if the frame could not be written
+	 */
+	public synchronized boolean transmit(long destination, int[] payload,
+			int timeout) throws IOException {
+
+		int frameId;
+		synchronized (this.statuses) {
+			this.lastFrameId = this.lastFrameId % 255 + 1;
+			frameId = this.lastFrameId;
+			this.statuses[frameId] = -1;
+		} // synchronized
+
+		this.writeTransmitRequest(frameId, destination, payload);
+
+		long deadline = System.currentTimeMillis() + timeout;
+		synchronized (this.statuses) {
+			while (this.statuses[frameId] < 0 && !this.closed) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return false;
+				try {
+					this.statuses.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				} // try-catch
+			} // while - no status yet
+			return this.statuses[frameId] == 0;
+		} // synchronized
+
+	} // transmit
+
+	/**
+	 * Closes the radio's serial port, which also stops the reader.
+	 */
+	public void close() {
+		this.closed = true;
+		if (this.port != null)
+			this.port.close();
+		else {
+			try {
+				this.out.close();
+			} catch (IOException e) {
+				// Already closed
+			} // try-catch
+		} // else - not a serial port
+	} // close
+
+	@Override
+	public void receive(RadioFrame frame) {
+		if (frame.getApiId() != RadioFrame.RECEIVE_PACKET
+				|| !this.received.offer(frame))
+			frame.release(); // Not a packet, or somehow no room for it
+	} // receive
+
+	@Override
+	public void transmitStatus(int frameId, int deliveryStatus) {
+		synchronized (this.statuses) {
+			this.statuses[frameId] = deliveryStatus;
+			this.statuses.notifyAll();
+		} // synchronized
+	} // transmitStatus
+
+	@Override
+	public void closed(IOException e) {
+		if (!this.closed && e != null)
+			EventLog.error("radio_closed", "error", e.getMessage());
+		synchronized (this.statuses) {
+			this.closed = true;
+			this.statuses.notifyAll();
+		} // synchronized
+	} // closed
+
+	/**
+	 * Encodes a ZigBee transmit request into the reusable buffer, escaping
+	 * it as needed, and writes it to the stream.
+	 */
+	private void writeTransmitRequest(int frameId, long destination,
+			int[] payload) throws IOException {
+
+		int length = 14 + payload.length;
+		int position = 0;
+		this.encoded[position++] = (byte) FrameDecoder.START_DELIMITER;
+		position = this.escape(position, length >> 8);
+		position = this.escape(position, length & 0xFF);
+
+		int checksum = RadioFrame.TRANSMIT_REQUEST + frameId;
+		position = this.escape(position, RadioFrame.TRANSMIT_REQUEST);
+		position = this.escape(position, frameId);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			int b = (int) (destination >>> shift) & 0xFF;
+			checksum += b;
+			position = this.escape(position, b);
+		} // for - each byte of the address
+		checksum += 0xFF + 0xFE;
+		position = this.escape(position, 0xFF); // Unknown 16-bit address
+		position = this.escape(position, 0xFE);
+		position = this.escape(position, 0); // Broadcast radius
+		position = this.escape(position, 0); // Options
+		for (int b : payload) {
+			checksum += b & 0xFF;
+			position = this.escape(position, b & 0xFF);
+		} // for - each byte of the payload
+		position = this.escape(position, 0xFF - (checksum & 0xFF));
+
+		this.out.write(this.encoded, 0, position);
+		this.out.flush();
+
+	} // writeTransmitRequest
+
+	/**
+	 * Adds a byte to the buffer, escaping it if needed.
+	 */
+	private int escape(int position, int b) {
+		if (b == FrameDecoder.START_DELIMITER || b == FrameDecoder.ESCAPE
+				|| b == FrameDecoder.XON || b == FrameDecoder.XOFF) {
+			this.encoded[position++] = (byte) FrameDecoder.ESCAPE;
+			b ^= 0x20;
+		} // if - reserved value
+		this.encoded[position++] = (byte) b;
+		return position;
+	} // escape
+
+} // RawRadio - Class
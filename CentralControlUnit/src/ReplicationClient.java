@@ -0,0 +1,204 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+
+/**
+ * The ReplicationClient class is run by a standby Central Control Unit. It
+ * connects to whichever of its peers is currently the primary and applies the
+ * primary's stream of state changes so that the standby always holds an up to
+ * date copy of the lot. It answers the primary regularly, so that the primary
+ * knows it still has a standby. If the primary cannot be reached for long
+ * enough, the standby takes over the radio role.
+ *
+ * When several standbys are running, each one is given a rank. A standby waits
+ * one failover timeout for each rank above it before taking over, so that the
+ * standby with rank 0 is promoted first and the others will find it as the new
+ * primary when they look for one.
+ *
+ * @author Elliot Dean
+ */
+public class ReplicationClient {
+
+	/** Time without hearing from the primary before it is lost, in ms */
+	static final int FAILOVER_TIMEOUT = 3000;
+
+	/** Time to wait for a connection to a peer, in milliseconds */
+	static final int CONNECT_TIMEOUT = 500;
+
+	/** The standby Central Control Unit being kept up to date */
+	private final CentralControlUnit CCU;
+
+	/** The replication addresses of every other Central Control Unit */
+	private final List<InetSocketAddress> peers;
+
+	/** The order in which this standby takes over, starting at 0 */
+	private final int rank;
+
+	/** The highest epoch that this standby has seen */
+	private long epoch;
+
+	/** The sequence number of the last record applied */
+	private long sequence;
+
+	/**
+	 * Creates a replication client for a standby Central Control Unit.
+	 *
+	 * @param CCU: The standby Central Control Unit
+	 * @param peers: The replication addresses of the other units
+	 * @param rank: The order in which this standby takes over
+	 * @param epoch: The highest epoch that this unit knows of
+	 */
+	public ReplicationClient(CentralControlUnit CCU,
+			List<InetSocketAddress> peers, int rank, long epoch) {
+		this.CCU = CCU;
+		this.peers = peers;
+		this.rank = rank;
+		this.epoch = epoch;
+	} // ReplicationClient
+
+	/**
+	 * Follows the primary until it is lost and this standby's turn to take
+	 * over has come. The epoch that the new primary should use is returned.
+	 *
+	 * @return the epoch for this unit to use as the new primary
+	 */
+	public long follow() {
+
+		long lastHeard = System.currentTimeMillis();
+		long promotionDelay = (long) FAILOVER_TIMEOUT * (this.rank + 1);
+
+		while (System.currentTimeMillis() - lastHeard < promotionDelay) {
+
+			for (InetSocketAddress peer : this.peers) {
+				if (this.followPeer(peer))
+					lastHeard = System.currentTimeMillis();
+			} // for each - peer that could be the primary
+
+			try {
+				Thread.sleep(CONNECT_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} // try-catch
+
+		} // while - still waiting for a primary
+
+		this.fencePeers(this.epoch + 1);
+		return this.epoch + 1;
+
+	} // follow
+
+	/**
+	 * Connects to a single peer and, if it is a current primary, applies its
+	 * records until the connection is lost.
+	 *
+	 * @param peer: The replication address of the peer
+	 * @return true if the peer was followed as the primary
+	 */
+	private boolean followPeer(InetSocketAddress peer) {
+
+		Socket socket = new Socket();
+		boolean followed = false;
+		try {
+
+			socket.connect(peer, CONNECT_TIMEOUT);
+			socket.setSoTimeout(FAILOVER_TIMEOUT);
+			socket.setTcpNoDelay(true);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+
+			out.writeByte(ReplicationServer.FOLLOWER_HELLO);
+			out.writeLong(this.epoch);
+			out.flush();
+
+			long answered = 0;
+			while (true) {
+
+				byte type = in.readByte();
+				long recordSequence = in.readLong();
+
+				if (type == ReplicationServer.HEARTBEAT) {
+					long primaryEpoch = in.readLong();
+					if (primaryEpoch < this.epoch)
+						break; // An old primary that has been replaced
+					if (!followed)
+						EventLog.info("following_primary", "peer", peer,
+								"epoch", primaryEpoch);
+					this.epoch = primaryEpoch;
+					followed = true;
+				} // if - heartbeat
+				else {
+					String key = in.readUTF();
+					int value = in.readInt();
+					if (type == ReplicationServer.SPACE_STATE)
+						this.CCU.applySpaceState(key, value, in.readLong());
+					else if (type == ReplicationServer.ENTRANCE_ID)
+						this.CCU.applyEntranceId(Integer.parseInt(key), value);
+				} // else - state change
+				this.sequence = recordSequence;
+
+				long now = System.currentTimeMillis();
+				if (type == ReplicationServer.HEARTBEAT || now - answered
+						>= ReplicationServer.HEARTBEAT_INTERVAL) {
+					out.writeByte(ReplicationServer.FOLLOWER_ACK);
+					out.writeLong(this.sequence);
+					out.flush();
+					answered = now;
+				} // if - time to answer the primary
+
+			} // while - following the primary
+
+		} catch (SocketTimeoutException e) {
+			EventLog.warning("primary_timed_out", "peer", peer);
+		} catch (IOException e) {
+			if (followed)
+				EventLog.warning("primary_lost", "peer", peer,
+						"sequence", this.sequence);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// The connection is already gone
+			} // try-catch
+		} // try-catch-finally
+
+		return followed;
+	} // followPeer
+
+	/**
+	 * Tells every peer that a new epoch has started so that an old primary
+	 * that is still running will step down.
+	 *
+	 * @param newEpoch: The epoch of the new primary
+	 */
+	private void fencePeers(long newEpoch) {
+		for (InetSocketAddress peer : this.peers) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(peer, CONNECT_TIMEOUT);
+				DataOutputStream out = new DataOutputStream(
+						socket.getOutputStream());
+				out.writeByte(ReplicationServer.FOLLOWER_HELLO);
+				out.writeLong(newEpoch);
+				out.flush();
+			} catch (IOException e) {
+				// Peer is not a running primary
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// The connection is already gone
+				} // try-catch
+			} // try-catch-finally
+		} // for each - peer
+	} // fencePeers
+
+} // ReplicationClient - Class
@@ -0,0 +1,347 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ReplicationServer class is run by the Central Control Unit that
+ * currently holds the radio role (the primary) and streams every change to the
+ * lot state to any standby Central Control Units that connect to it. When a
+ * standby connects it is first sent a full snapshot of the lot state, after
+ * which each change is sent as it happens. Since every record holds the full
+ * new value of what changed, records can safely be applied more than once.
+ *
+ * Each record starts with a single type byte and a sequence number:
+ * 		'H' = heartbeat, followed by the primary's epoch
+ * 		'S' = space state, followed by the space identifier, its
+ * OccupancyHistory state and, for a reserved space, the time left before its
+ * reservation runs out in milliseconds (or -1 otherwise)
+ * 		'E' = entrance message identifier, followed by the entrance number and
+ * the last message identifier that was processed for it
+ * A standby answers with an 'A' and the sequence number of the last record
+ * it applied, after every heartbeat and at least every HEARTBEAT_INTERVAL.
+ *
+ * The epoch is used to fence off old primaries. Every time a standby takes
+ * over it uses an epoch one higher than the last one it saw, and sends it to
+ * every peer as it is promoted. A standby also sends its own epoch whenever it
+ * connects, and if that epoch is higher than the server's then the server
+ * knows that it has been replaced and tells the Central Control Unit to step
+ * down. A primary that has lost its standbys keeps the radio role, so the lot
+ * stays up while a standby is restarted. A standby that stops answering for a
+ * failover timeout is only disconnected.
+ *
+ * @author Elliot Dean
+ */
+public class ReplicationServer {
+
+	static final byte HEARTBEAT = 'H';
+	static final byte SPACE_STATE = 'S';
+	static final byte ENTRANCE_ID = 'E';
+	static final byte FOLLOWER_HELLO = 'F';
+	static final byte FOLLOWER_ACK = 'A';
+
+	/** How often a heartbeat is sent to an idle standby, in milliseconds */
+	static final long HEARTBEAT_INTERVAL = 500;
+
+	/** The Central Control Unit whose state is being replicated */
+	private final CentralControlUnit CCU;
+
+	/** The epoch of this primary */
+	private final long epoch;
+
+	/** The socket that standbys connect to */
+	private final ServerSocket serverSocket;
+
+	/** The queues of records waiting to be sent to each standby */
+	private final LinkedList<LinkedBlockingQueue<Record>> followers;
+
+	/** The sequence number of the last record that was published */
+	private long sequence;
+
+	/**
+	 * Creates a replication server and starts accepting standbys.
+	 *
+	 * @param CCU: The Central Control Unit whose state is replicated
+	 * @param port: The TCP port to accept standbys on
+	 * @param epoch: The epoch of this primary
+	 * @throws IOException if the port could not be opened
+	 */
+	public ReplicationServer(CentralControlUnit CCU, int port, long epoch)
+			throws IOException {
+		this.CCU = CCU;
+		this.epoch = epoch;
+		this.followers = new LinkedList<LinkedBlockingQueue<Record>>();
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.setReuseAddress(true);
+		this.serverSocket.bind(new InetSocketAddress(port));
+
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptFollowers();
+			} // run
+		}, "ReplicationServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	} // ReplicationServer
+
+	/**
+	 * Adds a space state record to the replication log.
+	 *
+	 * @param space: The space whose state has changed
+	 * @param state: The new OccupancyHistory state of the space
+	 * @param deadline: The time that the space's reservation runs out, or -1
+	 * if it is not reserved
+	 */
+	public synchronized void publishSpace(ParkingSpace space, int state,
+			long deadline) {
+		this.publish(new Record(SPACE_STATE, space.getId(), state, deadline));
+	} // publishSpace
+
+	/**
+	 * Adds an entrance message identifier record to the replication log.
+	 *
+	 * @param controller: The entrance controller number
+	 * @param lastId: The last message identifier processed for the entrance
+	 */
+	public synchronized void publishEntranceId(int controller, int lastId) {
+		this.publish(new Record(ENTRANCE_ID, Integer.toString(controller),
+				lastId, -1));
+	} // publishEntranceId
+
+	/**
+	 * Stops accepting standbys and disconnects the ones that are connected.
+	 */
+	public synchronized void close() {
+		try {
+			this.serverSocket.close();
+		} catch (IOException e) {
+			EventLog.error("replication_close_failed",
+					"error", e.getMessage());
+		} // try-catch
+		for (LinkedBlockingQueue<Record> queue : this.followers)
+			queue.offer(Record.CLOSE);
+		this.followers.clear();
+	} // close
+
+	/**
+	 * Gets the epoch of this primary.
+	 *
+	 * @return the epoch
+	 */
+	public long getEpoch() {
+		return this.epoch;
+	} // getEpoch
+
+	/**
+	 * Gives a record the next sequence number and queues it for every
+	 * connected standby. Must be called while holding the server's lock.
+	 *
+	 * @param record: The record to publish
+	 */
+	private void publish(Record record) {
+		record.sequence = ++this.sequence;
+		for (LinkedBlockingQueue<Record> queue : this.followers)
+			queue.offer(record);
+	} // publish
+
+	/**
+	 * Accepts standbys until the server is closed, starting a separate thread
+	 * to stream records to each of them.
+	 */
+	private void acceptFollowers() {
+		while (!this.serverSocket.isClosed()) {
+			try {
+				final Socket socket = this.serverSocket.accept();
+				Thread follower = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						serveFollower(socket);
+					} // run
+				}, "ReplicationFollower-" + socket.getRemoteSocketAddress());
+				follower.setDaemon(true);
+				follower.start();
+			} catch (IOException e) {
+				if (!this.serverSocket.isClosed())
+					EventLog.error("standby_accept_failed",
+							"error", e.getMessage());
+			} // try-catch
+		} // while - server open
+	} // acceptFollowers
+
+	/**
+	 * Checks the epoch of a newly connected standby, sends it a snapshot of
+	 * the lot and then streams every following record to it until the
+	 * connection is lost or the standby stops answering.
+	 *
+	 * @param socket: The connection to the standby
+	 */
+	private void serveFollower(Socket socket) {
+
+		LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+		try {
+
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(socket.getOutputStream()));
+
+			// A standby that has seen a newer epoch means we were replaced
+			if (in.readByte() != FOLLOWER_HELLO)
+				return;
+			long followerEpoch = in.readLong();
+			if (followerEpoch > this.epoch) {
+				EventLog.info("stepping_down", "epoch", followerEpoch);
+				this.CCU.stepDown();
+				return;
+			} // if - fenced
+
+			// The snapshot and registration must not miss a record
+			synchronized (this) {
+				if (this.serverSocket.isClosed())
+					return;
+				this.writeHeartbeat(out, this.sequence);
+				for (ParkingSpace space : this.CCU.spaces)
+					this.write(out, this.snapshot(space), this.sequence);
+				for (int i = 0; i < this.CCU.lastEntranceId.length; i++)
+					this.write(out, new Record(ENTRANCE_ID,
+							Integer.toString(i), this.CCU.lastEntranceId[i],
+							-1), this.sequence);
+				this.followers.add(queue);
+			} // synchronized - snapshot
+			out.flush();
+
+			long answered = System.currentTimeMillis();
+			while (true) {
+				while (in.available() > 0) {
+					if (in.readByte() != FOLLOWER_ACK)
+						throw new IOException("Unexpected standby message");
+					in.readLong();
+					answered = System.currentTimeMillis();
+				} // while - answers waiting
+				if (System.currentTimeMillis() - answered
+						> ReplicationClient.FAILOVER_TIMEOUT) {
+					EventLog.warning("standby_timed_out", "standby",
+							socket.getRemoteSocketAddress());
+					break;
+				} // if - standby stopped answering
+
+				Record record = queue.poll(HEARTBEAT_INTERVAL,
+						TimeUnit.MILLISECONDS);
+				if (record == Record.CLOSE)
+					break;
+				else if (record == null)
+					this.writeHeartbeat(out, this.sequence);
+				else {
+					this.write(out, record, record.sequence);
+					while ((record = queue.poll()) != null
+							&& record != Record.CLOSE)
+						this.write(out, record, record.sequence);
+					if (record == Record.CLOSE)
+						break;
+				} // else - send every waiting record together
+				out.flush();
+			} // while - streaming records
+
+		} catch (IOException e) {
+			EventLog.warning("standby_disconnected", "error", e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			synchronized (this) {
+				this.followers.remove(queue);
+			} // synchronized
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// The connection is already gone
+			} // try-catch
+		} // try-catch-finally
+
+	} // serveFollower
+
+	/**
+	 * Writes a heartbeat record holding this primary's epoch.
+	 *
+	 * @param out: The stream to the standby
+	 * @param sequence: The sequence number of the last published record
+	 * @throws IOException
+	 */
+	private void writeHeartbeat(DataOutputStream out, long sequence)
+			throws IOException {
+		out.writeByte(HEARTBEAT);
+		out.writeLong(sequence);
+		out.writeLong(this.epoch);
+	} // writeHeartbeat
+
+	/**
+	 * Creates a space state record from the current state of a space.
+	 *
+	 * @param space: The space
+	 * @return the record
+	 */
+	private Record snapshot(ParkingSpace space) {
+		int state = this.CCU.counters.stateOf(space.getId());
+		if (state < 0)
+			state = space.isAvailable() ? OccupancyHistory.AVAILABLE
+					: OccupancyHistory.OCCUPIED;
+		Long deadline = this.CCU.reservations.get(space.getId());
+		return new Record(SPACE_STATE, space.getId(), state,
+				(state == OccupancyHistory.RESERVED && deadline != null)
+						? deadline : -1);
+	} // snapshot
+
+	/**
+	 * Writes a single record. The deadline of a space state is written as
+	 * the time left before it, so that the clocks of the two units do not
+	 * need to agree.
+	 *
+	 * @param out: The stream to the standby
+	 * @param record: The record to write
+	 * @param sequence: The sequence number to write with the record
+	 * @throws IOException
+	 */
+	private void write(DataOutputStream out, Record record, long sequence)
+			throws IOException {
+		out.writeByte(record.type);
+		out.writeLong(sequence);
+		out.writeUTF(record.key);
+		out.writeInt(record.value);
+		if (record.type == SPACE_STATE)
+			out.writeLong((record.deadline < 0) ? -1 : Math.max(0,
+					record.deadline - this.CCU.clock.millis()));
+	} // write
+
+	/**
+	 * A single entry of the replication log.
+	 */
+	private static class Record {
+
+		/** Marks the end of a standby's queue */
+		static final Record CLOSE = new Record((byte) 0, "", 0, -1);
+
+		final byte type;
+		final String key;
+		final int value;
+		/** The time a space's reservation runs out, or -1 */
+		final long deadline;
+		long sequence;
+
+		Record(byte type, String key, int value, long deadline) {
+			this.type = type;
+			this.key = key;
+			this.value = value;
+			this.deadline = deadline;
+		} // Record
+
+	} // Record - Class
+
+} // ReplicationServer - Class
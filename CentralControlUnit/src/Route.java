@@ -0,0 +1,61 @@
+/**
+ * The Route class represents the trip that a driver makes to reach a lot
+ * destination: driving from an entrance to a parking space and then walking
+ * from the space to the destination. The cost of parking in a space is the
+ * length of the drive plus the length of the walk, so the best space for a
+ * driver depends on which entrance they came in through. A route without an
+ * entrance only counts the walk, which is used when the entrance is not known.
+ * 
+ * @author Elliot Dean
+ */
+public class Route {
+
+	/** The entrance that the driver comes in through, or null if not known */
+	private final Entrance entrance;
+	
+	/** The destination that the driver is going to */
+	private final Destination destination;
+	
+	/**
+	 * Creates a route from an entrance to a destination.
+	 * 
+	 * @param entrance: The entrance, or null to only count the walk
+	 * @param destination: The destination
+	 */
+	public Route(Entrance entrance, Destination destination) {
+		this.entrance = entrance;
+		this.destination = destination;
+	} // Route
+	
+	/**
+	 * Finds the cost of parking in a space on this route, which is the drive
+	 * distance from the entrance plus the walk distance to the destination.
+	 * 
+	 * @param space: The parking space
+	 * @return the cost of the route through the space
+	 */
+	public double cost(ParkingSpace space) {
+		double walk = this.destination.distance(space);
+		return (this.entrance == null) 
+				? walk : walk + this.entrance.distance(space);
+	} // cost
+	
+	/**
+	 * Gets the entrance that the route starts from.
+	 * 
+	 * @return the entrance, or null if the route only counts the walk
+	 */
+	public Entrance getEntrance() {
+		return this.entrance;
+	} // getEntrance
+	
+	/**
+	 * Gets the destination that the route ends at.
+	 * 
+	 * @return the destination
+	 */
+	public Destination getDestination() {
+		return this.destination;
+	} // getDestination
+	
+} // Route - Class
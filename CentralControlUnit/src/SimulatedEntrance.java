@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SimulatedEntrance class stands in for an entrance controller on a
+ * SimulatedNetwork. It sends the same "Vehicle Entering" message as the
+ * EntranceController program and waits for the Central Control Unit's list
+ * of suggested spaces, but returns the list instead of drawing it on a
+ * display.
+ *
+ * @author Elliot Dean
+ */
+public class SimulatedEntrance implements SimulatedNetwork.Node {
+
+	private final SimulatedNetwork network;
+	private final long address;
+	private final int controllerId;
+	private int nextEntranceId = 0;
+	private final LinkedBlockingQueue<int[]> replies;
+
+	/**
+	 * Creates an entrance controller and joins it to the network.
+	 *
+	 * @param network: The network that the controller's radio is on
+	 * @param address: The 64-bit address of the controller's radio
+	 * @param controllerId: The entrance number
+	 */
+	public SimulatedEntrance(SimulatedNetwork network, long address,
+			int controllerId) {
+		this.network = network;
+		this.address = address;
+		this.controllerId = controllerId;
+		this.replies = new LinkedBlockingQueue<int[]>();
+		network.join(address, this);
+	} // SimulatedEntrance
+
+	@Override
+	public void receive(int[] payload) {
+		if (payload.length > 0 && payload[0] == 'D')
+			this.replies.add(payload);
+	} // receive
+
+	/**
+	 * Tells the Central Control Unit that a vehicle is entering and waits for
+	 * the coordinates of the suggested spaces, one for each destination.
+	 *
+	 * @param timeout: The longest time to wait for the suggestions, in ms
+	 * @return the coordinates of each suggestion, or null if none arrived
+	 * @throws InterruptedException
+	 */
+	public ArrayList<int[]> getSpaceSuggestions(long timeout)
+			throws InterruptedException {
+		return this.getSpaceSuggestions(timeout, 0);
+	} // getSpaceSuggestions
+
+	/**
+	 * Tells the Central Control Unit that a vehicle that wants a category of
+	 * space is entering and waits for the coordinates of the suggested spaces.
+	 *
+	 * @param timeout: The longest time to wait for the suggestions, in ms
+	 * @param category: The letter of the category, or 0 for any space
+	 * @return the coordinates of each suggestion, or null if none arrived
+	 * @throws InterruptedException
+	 */
+	public ArrayList<int[]> getSpaceSuggestions(long timeout, int category)
+			throws InterruptedException {
+
+		// Creates the "Vehicle Entering" message and updates the counter
+		int[] message = (category == 0)
+				? new int[] {'E', this.nextEntranceId, this.controllerId}
+				: new int[] {'E', this.nextEntranceId, this.controllerId,
+						category};
+		this.nextEntranceId++;
+		if (this.nextEntranceId > 255)
+			this.nextEntranceId = 0;
+
+		long deadline = System.currentTimeMillis() + timeout;
+		this.replies.clear();
+		while (!this.network.send(this.address, message)) {
+			if (System.currentTimeMillis() > deadline)
+				return null;
+		} // while - trying to send the message
+
+		int[] reply = this.replies.poll(
+				Math.max(0, deadline - System.currentTimeMillis()),
+				TimeUnit.MILLISECONDS);
+		if (reply == null)
+			return null;
+
+		ArrayList<int[]> suggestions = new ArrayList<int[]>();
+		for (int i = 1; i + 3 < reply.length; i += 4)
+			suggestions.add(new int[] {(reply[i] << 8) + reply[i + 1],
+					(reply[i + 2] << 8) + reply[i + 3]});
+		return suggestions;
+
+	} // getSpaceSuggestions - category
+
+} // SimulatedEntrance - Class
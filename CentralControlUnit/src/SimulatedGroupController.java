@@ -0,0 +1,283 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The SimulatedGroupController class runs the same program as
+ * GroupController.ino on a SimulatedNetwork, so that a lot can be run without
+ * any Arduino boards. Instead of measuring distances with ultrasonic sensors,
+ * the state of each sensor is set with park() and leave().
+ *
+ * As on the Arduino, the main loop checks for reservation requests, checks
+ * each sensor for a change that lasts for the minimum detection time, clears
+ * any reservations that have timed out and updates the area indicator. Space
+ * updates are sent to the Central Control Unit until they are delivered. The
+ * only difference is that a changed sensor is checked again on a later pass
+ * of the loop instead of the whole loop waiting for it, so a large simulated
+ * lot does not need a thread for every space.
+ *
+ * @author Elliot Dean
+ */
+public class SimulatedGroupController
+		implements SimulatedNetwork.Node, Runnable {
+
+	/** The states of the area indicator */
+	public static final int OFF = 0;
+	public static final int GREEN = 1;
+	public static final int YELLOW = 2;
+
+	// Variables used to tune the operation of the Group Controller
+	long maxReservationTime = 20 * 1000; // Time before reservations time out
+	// Amount of time before a detection is processed
+	long minDetectionTime = 4000;
+	long loopDelay = 5; // Time between passes of the main loop
+
+	private final SimulatedNetwork network;
+	private final long address;
+
+	// The state of each parking space, as kept by GroupController.ino
+	private final boolean[] reserved;
+	private final boolean[] spaceAvailable;
+	private final long[] reservationTime;
+
+	// What each sensor currently sees, and since when
+	private final boolean[] sensorClear;
+	private final long[] changeTime;
+
+	private final ConcurrentLinkedQueue<int[]> messages;
+	private volatile int indicator;
+	private volatile boolean running;
+	final AtomicLong updatesSent = new AtomicLong();
+	final AtomicLong sendAttempts = new AtomicLong();
+
+	/**
+	 * Creates a group controller with every space available and joins it to
+	 * the network.
+	 *
+	 * @param network: The network that the controller's radio is on
+	 * @param address: The 64-bit address of the controller's radio
+	 * @param numberOfSensors: The number of spaces that it monitors
+	 */
+	public SimulatedGroupController(SimulatedNetwork network, long address,
+			int numberOfSensors) {
+		this.network = network;
+		this.address = address;
+		this.reserved = new boolean[numberOfSensors];
+		this.spaceAvailable = new boolean[numberOfSensors];
+		this.reservationTime = new long[numberOfSensors];
+		this.sensorClear = new boolean[numberOfSensors];
+		this.changeTime = new long[numberOfSensors];
+		this.messages = new ConcurrentLinkedQueue<int[]>();
+		for (int i = 0; i < numberOfSensors; i++) {
+			this.spaceAvailable[i] = true;
+			this.sensorClear[i] = true;
+		} // for - initialize arrays
+		network.join(address, this);
+	} // SimulatedGroupController
+
+	/**
+	 * Starts the controller's main loop on its own thread.
+	 */
+	public void start() {
+		this.running = true;
+		Thread thread = new Thread(this, "SimulatedGroupController");
+		thread.setDaemon(true);
+		thread.start();
+	} // start
+
+	/**
+	 * Stops the controller's main loop.
+	 */
+	public void stop() {
+		this.running = false;
+	} // stop
+
+	/**
+	 * Makes the sensor for a space detect a vehicle.
+	 *
+	 * @param space: The space number
+	 */
+	public void park(int space) {
+		this.setSensor(space, false);
+	} // park
+
+	/**
+	 * Makes the sensor for a space stop detecting a vehicle.
+	 *
+	 * @param space: The space number
+	 */
+	public void leave(int space) {
+		this.setSensor(space, true);
+	} // leave
+
+	/**
+	 * Checks if a space is currently reserved by the controller.
+	 *
+	 * @param space: The space number
+	 * @return true if the space is reserved
+	 */
+	public boolean isReserved(int space) {
+		synchronized (this) {
+			return this.reserved[space];
+		} // synchronized
+	} // isReserved
+
+	/**
+	 * Gets the current state of the area indicator.
+	 *
+	 * @return OFF, GREEN or YELLOW
+	 */
+	public int getIndicator() {
+		return this.indicator;
+	} // getIndicator
+
+	/**
+	 * Gets the 64-bit address of the controller's radio.
+	 *
+	 * @return the address
+	 */
+	public long getAddress() {
+		return this.address;
+	} // getAddress
+
+	@Override
+	public void receive(int[] payload) {
+		this.messages.add(payload);
+	} // receive
+
+	/**
+	 * The main program loop, which runs until the controller is stopped.
+	 */
+	@Override
+	public void run() {
+		while (this.running) {
+			this.checkMessages();
+			this.checkSpaces();
+			this.checkReservationTimes();
+			this.updateIndicators();
+			try {
+				Thread.sleep(this.loopDelay);
+			} catch (InterruptedException e) {
+				return;
+			} // try-catch
+		} // while - running
+	} // run
+
+	/**
+	 * Handles any messages from the Central Control Unit. The expected
+	 * message types are as follows:
+	 *
+	 * "Reservation Request" - The specified space should be reserved for a set
+	 * amount of time.
+	 * 		- Byte 0: 'R'
+	 * 		- Byte 1: The space number
+	 */
+	private void checkMessages() {
+		int[] message;
+		while ((message = this.messages.poll()) != null) {
+			if (message.length >= 2 && message[0] == 'R'
+					&& message[1] < this.reserved.length) {
+				synchronized (this) {
+					this.reserved[message[1]] = true;
+					this.reservationTime[message[1]] =
+							System.currentTimeMillis();
+				} // synchronized
+			} // if - Reservation request message
+		} // while - packets to parse
+	} // checkMessages
+
+	/**
+	 * Checks whether any sensor has seen a change for at least the minimum
+	 * detection time. If one has, the state of its space is updated and sent
+	 * to the Central Control Unit.
+	 */
+	private void checkSpaces() {
+		for (int i = 0; i < this.spaceAvailable.length; i++) {
+
+			boolean isAvailable;
+			long changedAt;
+			synchronized (this) {
+				isAvailable = this.sensorClear[i];
+				changedAt = this.changeTime[i];
+			} // synchronized
+
+			if (isAvailable != this.spaceAvailable[i] &&
+					System.currentTimeMillis() - changedAt
+					>= this.minDetectionTime) {
+				this.spaceAvailable[i] = isAvailable;
+				this.sendUpdate(i, isAvailable);
+				synchronized (this) {
+					if (this.reserved[i] && !isAvailable)
+						this.reserved[i] = false;
+				} // synchronized
+			} // if - state changed and double checked
+
+		} // for - each sensor
+	} // checkSpaces
+
+	/**
+	 * Clears any reservations that have been set too long and tells the
+	 * Central Control Unit that those spaces are available again.
+	 */
+	private void checkReservationTimes() {
+		for (int i = 0; i < this.reserved.length; i++) {
+			boolean timedOut;
+			synchronized (this) {
+				timedOut = this.reserved[i] && System.currentTimeMillis()
+						- this.reservationTime[i] >= this.maxReservationTime;
+				if (timedOut)
+					this.reserved[i] = false;
+			} // synchronized
+			if (timedOut)
+				this.sendUpdate(i, true);
+		} // for - each space
+	} // checkReservationTimes
+
+	/**
+	 * Shows yellow if there are any reserved spaces, green if there are any
+	 * available spaces but none reserved, or no light otherwise.
+	 */
+	private void updateIndicators() {
+		int state = OFF;
+		synchronized (this) {
+			for (int i = 0; i < this.reserved.length; i++) {
+				if (this.reserved[i])
+					state = YELLOW;
+				else if (this.spaceAvailable[i] && state == OFF)
+					state = GREEN;
+			} // for - each space
+		} // synchronized
+		this.indicator = state;
+	} // updateIndicators
+
+	/**
+	 * Sends a "Space Update" message to the Central Control Unit, trying
+	 * again until it is delivered. The structure of the message is as
+	 * follows:
+	 * 		- Byte 0: 'S'
+	 * 		- Byte 1: The space number
+	 * 		- Byte 2: 'A' if the space is available, 'O' otherwise
+	 */
+	private void sendUpdate(int spaceNumber, boolean isAvailable) {
+		int[] payload = {'S', spaceNumber, isAvailable ? 'A' : 'O'};
+		try {
+			do {
+				this.sendAttempts.incrementAndGet();
+			} while (!this.network.send(this.address, payload)
+					&& this.running);
+			this.updatesSent.incrementAndGet();
+		} catch (InterruptedException e) {
+			this.running = false;
+		} // try-catch
+	} // sendUpdate
+
+	/**
+	 * Sets what the sensor for a space sees.
+	 */
+	private synchronized void setSensor(int space, boolean clear) {
+		if (this.sensorClear[space] != clear) {
+			this.sensorClear[space] = clear;
+			this.changeTime[space] = System.currentTimeMillis();
+		} // if - sensor changed
+	} // setSensor
+
+} // SimulatedGroupController - Class
@@ -0,0 +1,458 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rapplogic.xbee.XBeeConnection;
+
+/**
+ * The SimulatedNetwork class stands in for the XBee radios of a Smart Parking
+ * Lot so that the Central Control Unit can be run without any hardware. The
+ * Central Control Unit is given the coordinator connection in place of its
+ * serial port and talks to it with the same API frames (escaped mode, AP=2)
+ * that a real coordinator uses, with either the xbee-api library or a
+ * RawRadio. Simulated group controllers and entrance controllers join the
+ * network with their 64-bit address and exchange payloads with the
+ * coordinator through method calls.
+ *
+ * Every packet takes a set amount of time to cross the network and may be
+ * lost at random. A transmit request from the coordinator is answered with a
+ * transmit status once it has been delivered, or with a failure if it was
+ * lost or no radio has the destination address. The coordinator also answers
+ * the AT commands that the xbee-api library sends when it is opened, as an
+ * XBee Series 2 in API mode 2.
+ *
+ * @author Elliot Dean
+ */
+public class SimulatedNetwork {
+
+	/** The address that radios send to in order to reach the coordinator */
+	public static final long COORDINATOR = 0;
+
+	/** The API identifiers of AT command frames and their responses */
+	static final int AT_COMMAND = 0x08;
+	static final int AT_COMMAND_RESPONSE = 0x88;
+
+	/** The value of the hardware version (HV) of a Series 2 XBee */
+	static final int SERIES_2 = 0x19;
+
+	/** The delivery statuses that are sent back to the coordinator */
+	static final int DELIVERED = 0x00;
+	static final int NETWORK_ACK_FAILURE = 0x21;
+	static final int ADDRESS_NOT_FOUND = 0x24;
+
+	/**
+	 * The Node interface is implemented by each simulated radio on the
+	 * network.
+	 */
+	public interface Node {
+
+		/**
+		 * Called when a payload from the coordinator reaches the radio.
+		 *
+		 * @param payload: The payload that was sent
+		 */
+		void receive(int[] payload);
+
+	} // Node - Interface
+
+	/** The time that each packet takes to cross the network, in ms */
+	private final long latency;
+
+	/** The chance of any packet being lost, from 0 to 1 */
+	private volatile double lossRate;
+
+	/** Each radio on the network, by address */
+	private final ConcurrentHashMap<Long, Node> nodes;
+
+	/** Delivers packets once they have crossed the network */
+	private final ScheduledExecutorService air;
+
+	/** The bytes sent to and from the coordinator's serial port */
+	private final Pipe toCoordinator;
+	private final Pipe fromCoordinator;
+
+	/** The connection that the Central Control Unit uses */
+	private final XBeeConnection coordinator;
+
+	private final Random random;
+	final AtomicLong packets = new AtomicLong();
+	final AtomicLong lost = new AtomicLong();
+
+	/**
+	 * Creates a network with only a coordinator.
+	 *
+	 * @param latency: The time that each packet takes to arrive, in ms
+	 * @param lossRate: The chance of any packet being lost, from 0 to 1
+	 */
+	public SimulatedNetwork(long latency, double lossRate) {
+		this.latency = latency;
+		this.lossRate = lossRate;
+		this.nodes = new ConcurrentHashMap<Long, Node>();
+		this.random = new Random(1);
+		this.air = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "SimulatedAir");
+						thread.setDaemon(true);
+						return thread;
+					} // newThread
+				});
+
+		this.coordinator = new XBeeConnection() {
+			@Override
+			public InputStream getInputStream() {
+				return toCoordinator.input;
+			} // getInputStream
+			@Override
+			public OutputStream getOutputStream() {
+				return fromCoordinator.output;
+			} // getOutputStream
+			@Override
+			public void close() {
+				toCoordinator.close();
+				fromCoordinator.close();
+			} // close
+		};
+		this.toCoordinator = new Pipe(this.coordinator);
+		this.fromCoordinator = new Pipe(null);
+
+		Thread reader = new Thread(new FrameDecoder(this.fromCoordinator.input,
+				new FrameDecoder.Handler() {
+					@Override
+					public void receive(RadioFrame frame) {
+						try {
+							if (frame.getApiId() == RadioFrame.TRANSMIT_REQUEST)
+								transmitFromCoordinator(frame);
+							else if (frame.getApiId() == AT_COMMAND)
+								answerAtCommand(frame);
+						} finally {
+							frame.release();
+						} // try-finally
+					} // receive
+					@Override
+					public void transmitStatus(int frameId, int status) {
+						// Only radios send these
+					} // transmitStatus
+					@Override
+					public void closed(IOException e) {
+						air.shutdownNow();
+					} // closed
+				}, 16), "SimulatedCoordinator");
+		reader.setDaemon(true);
+		reader.start();
+	} // SimulatedNetwork
+
+	/**
+	 * Gets the connection to give to the Central Control Unit in place of a
+	 * serial port.
+	 *
+	 * @return the coordinator's connection
+	 */
+	public XBeeConnection getCoordinator() {
+		return this.coordinator;
+	} // getCoordinator
+
+	/**
+	 * Adds a radio to the network, or replaces the radio with its address.
+	 *
+	 * @param address: The 64-bit address of the radio
+	 * @param node: Receives the payloads sent to the radio
+	 */
+	public void join(long address, Node node) {
+		this.nodes.put(address, node);
+	} // join
+
+	/**
+	 * Removes a radio from the network, as if it had lost power.
+	 *
+	 * @param address: The 64-bit address of the radio
+	 */
+	public void leave(long address) {
+		this.nodes.remove(address);
+	} // leave
+
+	/**
+	 * Changes the chance of packets being lost.
+	 *
+	 * @param lossRate: The chance of any packet being lost, from 0 to 1
+	 */
+	public void setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+	} // setLossRate
+
+	/**
+	 * Sends a payload from a radio to the coordinator and waits for it to
+	 * cross the network, like a transmit request followed by its status.
+	 *
+	 * @param source: The 64-bit address of the sending radio
+	 * @param payload: The payload to send
+	 * @return true if the payload was delivered
+	 * @throws InterruptedException
+	 */
+	public boolean send(long source, int[] payload)
+			throws InterruptedException {
+
+		Thread.sleep(this.latency);
+		this.packets.incrementAndGet();
+		if (this.isLost())
+			return false;
+
+		int[] frame = new int[12 + payload.length];
+		frame[0] = RadioFrame.RECEIVE_PACKET;
+		for (int i = 8; i >= 1; i--) {
+			frame[i] = (int) (source & 0xFF);
+			source >>>= 8;
+		} // for - each byte of the address, lowest first
+		frame[9] = 0xFF; // Unknown 16-bit address
+		frame[10] = 0xFE;
+		frame[11] = 0x01; // Packet acknowledged
+		System.arraycopy(payload, 0, frame, 12, payload.length);
+		return this.writeToCoordinator(frame);
+
+	} // send
+
+	/**
+	 * Closes the coordinator's connection.
+	 */
+	public void close() {
+		this.coordinator.close();
+	} // close
+
+	/**
+	 * Handles a transmit request written by the Central Control Unit, giving
+	 * the payload to its radio and the transmit status to the coordinator
+	 * once it has crossed the network.
+	 */
+	private void transmitFromCoordinator(RadioFrame frame) {
+
+		final int frameId = frame.getFrameId();
+		final long destination = frame.getDestination();
+		final int[] payload = new int[frame.getPayloadLength()];
+		for (int i = 0; i < payload.length; i++)
+			payload[i] = frame.getPayload(i);
+		this.packets.incrementAndGet();
+
+		this.air.schedule(new Runnable() {
+			@Override
+			public void run() {
+				Node node = nodes.get(destination);
+				int status = DELIVERED;
+				if (node == null)
+					status = ADDRESS_NOT_FOUND;
+				else if (isLost())
+					status = NETWORK_ACK_FAILURE;
+				else
+					node.receive(payload);
+				if (frameId != 0)
+					writeToCoordinator(new int[] {RadioFrame.TRANSMIT_STATUS,
+							frameId, 0xFF, 0xFE, 0, status, 0});
+			} // run
+		}, this.latency, TimeUnit.MILLISECONDS);
+
+	} // transmitFromCoordinator
+
+	/**
+	 * Answers an AT command sent to the coordinator. Only the API mode (AP)
+	 * and hardware version (HV) have values, and any other command is simply
+	 * accepted.
+	 */
+	private void answerAtCommand(RadioFrame frame) {
+
+		int first = frame.data[2] & 0xFF;
+		int second = frame.data[3] & 0xFF;
+		int[] value = new int[0];
+		if (first == 'A' && second == 'P')
+			value = new int[] {2};
+		else if (first == 'H' && second == 'V')
+			value = new int[] {SERIES_2, 0x4B};
+
+		final int[] response = new int[5 + value.length];
+		response[0] = AT_COMMAND_RESPONSE;
+		response[1] = frame.getFrameId();
+		response[2] = first;
+		response[3] = second;
+		response[4] = 0; // OK
+		System.arraycopy(value, 0, response, 5, value.length);
+
+		// Answering straight away can beat xbee-api to waiting for it
+		this.air.schedule(new Runnable() {
+			@Override
+			public void run() {
+				writeToCoordinator(response);
+			} // run
+		}, this.latency, TimeUnit.MILLISECONDS);
+
+	} // answerAtCommand
+
+	/**
+	 * Decides whether a packet is lost.
+	 */
+	private boolean isLost() {
+		boolean isLost;
+		synchronized (this.random) {
+			isLost = this.random.nextDouble() < this.lossRate;
+		} // synchronized
+		if (isLost)
+			this.lost.incrementAndGet();
+		return isLost;
+	} // isLost
+
+	/**
+	 * Escapes frame data and writes it to the coordinator's serial port as a
+	 * single frame.
+	 *
+	 * @return false if the coordinator's connection has been closed
+	 */
+	private boolean writeToCoordinator(int[] data) {
+
+		byte[] encoded = new byte[2 * (data.length + 4)];
+		int position = 0;
+		encoded[position++] = (byte) FrameDecoder.START_DELIMITER;
+		position = escape(encoded, position, data.length >> 8);
+		position = escape(encoded, position, data.length & 0xFF);
+		int checksum = 0;
+		for (int b : data) {
+			checksum += b;
+			position = escape(encoded, position, b);
+		} // for - each byte of frame data
+		position = escape(encoded, position, 0xFF - (checksum & 0xFF));
+
+		try {
+			this.toCoordinator.output.write(encoded, 0, position);
+			return true;
+		} catch (IOException e) {
+			return false;
+		} // try-catch
+
+	} // writeToCoordinator
+
+	/**
+	 * Adds a byte to a buffer, escaping it if needed.
+	 */
+	private static int escape(byte[] buffer, int position, int b) {
+		if (b == FrameDecoder.START_DELIMITER || b == FrameDecoder.ESCAPE
+				|| b == FrameDecoder.XON || b == FrameDecoder.XOFF) {
+			buffer[position++] = (byte) FrameDecoder.ESCAPE;
+			b ^= 0x20;
+		} // if - reserved value
+		buffer[position++] = (byte) b;
+		return position;
+	} // escape
+
+	/**
+	 * An in-memory serial line. Whole writes are added at once, so frames
+	 * written by different threads are never mixed together. The xbee-api
+	 * library waits on its connection for data to arrive, so the connection
+	 * is notified after every write.
+	 */
+	private static class Pipe {
+
+		final Object notified;
+		final byte[] buffer = new byte[64 * 1024];
+		int head;
+		int count;
+		boolean closed;
+
+		final InputStream input = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				synchronized (Pipe.this) {
+					while (count == 0 && !closed)
+						waitForData();
+					if (count == 0)
+						return -1;
+					int b = buffer[head] & 0xFF;
+					head = (head + 1) % buffer.length;
+					count--;
+					Pipe.this.notifyAll();
+					return b;
+				} // synchronized
+			} // read
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0)
+					return 0;
+				synchronized (Pipe.this) {
+					int c = this.read();
+					if (c < 0)
+						return -1;
+					b[off] = (byte) c;
+					int n = 1;
+					while (n < len && count > 0)
+						b[off + n++] = (byte) this.read();
+					return n;
+				} // synchronized
+			} // read
+			@Override
+			public int available() {
+				synchronized (Pipe.this) {
+					return count;
+				} // synchronized
+			} // available
+		};
+
+		final OutputStream output = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				this.write(new byte[] {(byte) b}, 0, 1);
+			} // write
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				synchronized (Pipe.this) {
+					for (int i = 0; i < len; i++) {
+						while (count == buffer.length && !closed)
+							waitForData();
+						if (closed)
+							throw new IOException("Pipe closed");
+						buffer[(head + count) % buffer.length] = b[off + i];
+						count++;
+					} // for - each byte
+					Pipe.this.notifyAll();
+				} // synchronized
+				if (notified != null) {
+					synchronized (notified) {
+						notified.notifyAll();
+					} // synchronized
+				} // if - someone waiting on the connection
+			} // write
+		};
+
+		/**
+		 * @param notified: Notified after every write, or null
+		 */
+		Pipe(Object notified) {
+			this.notified = notified;
+		} // Pipe
+
+		void close() {
+			synchronized (this) {
+				this.closed = true;
+				this.notifyAll();
+			} // synchronized
+			if (this.notified != null) {
+				synchronized (this.notified) {
+					this.notified.notifyAll();
+				} // synchronized
+			} // if - someone waiting on the connection
+		} // close
+
+		private void waitForData() throws IOException {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			} // try-catch
+		} // waitForData
+
+	} // Pipe - Class
+
+} // SimulatedNetwork - Class
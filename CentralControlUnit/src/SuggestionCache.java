@@ -0,0 +1,451 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The SuggestionCache class keeps a suggestion ready for every entrance, so
+ * that a vehicle arriving at an entrance can be answered without searching
+ * the lot. For each route from the entrance to a destination it keeps the
+ * available general spaces that cost the least, best first. From those it
+ * chooses a different first choice space for each destination, along with a
+ * second choice space that is not the first choice of any destination, so
+ * each route keeps at least one more space than there are destinations. The
+ * "Display spaces" message for the first choices is kept encoded, and only
+ * the coordinates of a destination whose first choice has changed are
+ * written again.
+ *
+ * The spaces of each route are changed as spaces become available or are
+ * taken, without a search. If a route is left with fewer than MIN_CANDIDATES
+ * spaces, or too few to give its destination a first choice, while there may
+ * be others that it does not know about, it is marked to be refilled, and the
+ * Central Control Unit refills it from the zones after it has answered the
+ * vehicle.
+ *
+ * Like the zones, the cache skips spaces whose group controller cannot be
+ * reached. Whenever a radio's circuit opens, the spaces of every controller
+ * that has become unreachable are taken out before the cache is next used.
+ *
+ * The cache is only used by the main program loop.
+ *
+ * @author Elliot Dean
+ */
+public class SuggestionCache {
+
+	/** The fewest spaces kept for each route when it is full */
+	static final int CANDIDATES = 4;
+
+	/** The fewest spaces a route can have before it is refilled */
+	static final int MIN_CANDIDATES = 2;
+
+	/** The suggestion kept for each entrance number */
+	private final HashMap<Integer, Board> boards;
+
+	/** The health of the lot's radio links */
+	private final LinkHealth health;
+
+	/** The most spaces kept for each route */
+	private int capacity;
+
+	/** The circuit openings counted when spaces were last taken out */
+	private long openings;
+
+	/**
+	 * Creates a cache without any entrances.
+	 *
+	 * @param health: The health of the lot's radio links
+	 */
+	public SuggestionCache(LinkHealth health) {
+		this.boards = new HashMap<Integer, Board>();
+		this.health = health;
+		this.openings = health.getOpenings();
+		this.capacity = CANDIDATES;
+	} // SuggestionCache
+
+	/**
+	 * Starts again with a new set of routes. Every route is marked to be
+	 * refilled, and can keep one more space than there are destinations.
+	 *
+	 * @param routes: The routes of each entrance number, in destination order
+	 */
+	public void rebuild(HashMap<Integer, List<Route>> routes) {
+		this.boards.clear();
+		this.capacity = CANDIDATES;
+		for (List<Route> list : routes.values())
+			this.capacity = Math.max(this.capacity, list.size() + 1);
+		for (Map.Entry<Integer, List<Route>> entry : routes.entrySet())
+			this.boards.put(entry.getKey(), new Board(entry.getValue(),
+					this.capacity));
+	} // rebuild
+
+	/**
+	 * Gets the most spaces kept for each route, which is the number of spaces
+	 * that a refill should search for.
+	 *
+	 * @return the number of spaces
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	} // getCapacity
+
+	/**
+	 * Changes the cache for a space that has changed state.
+	 *
+	 * @param space: The space that has changed
+	 * @param state: The new OccupancyHistory state of the space
+	 */
+	public void spaceChanged(ParkingSpace space, int state) {
+		boolean available = (state == OccupancyHistory.AVAILABLE);
+		if (available && !space.isIn(ParkingSpace.GENERAL))
+			return;
+		boolean reachable = this.isReachable(space);
+		for (Board board : this.boards.values()) {
+			boolean changed = false;
+			for (Candidates candidates : board.candidates) {
+				if (!available)
+					changed |= candidates.remove(space);
+				else if (reachable)
+					changed |= candidates.offer(space);
+				else
+					candidates.complete = false; // Not kept while unreachable
+			} // for each - destination
+			if (changed)
+				board.choose();
+		} // for each - entrance
+	} // spaceChanged
+
+	/**
+	 * Gets the routes that have too few spaces and may be refilled.
+	 *
+	 * @param minimum: The fewest spaces a route should have
+	 * @param entrance: The entrance number, or null for every entrance
+	 * @return the routes to refill
+	 */
+	public List<Route> routesBelow(int minimum, Integer entrance) {
+		this.evictUnreachable();
+		ArrayList<Route> low = new ArrayList<Route>();
+		for (Map.Entry<Integer, Board> entry : this.boards.entrySet()) {
+			if (entrance != null && !entrance.equals(entry.getKey()))
+				continue;
+			for (Candidates candidates : entry.getValue().candidates)
+				if (candidates.refill || (candidates.size < minimum
+						&& !candidates.complete))
+					low.add(candidates.route);
+		} // for each - entrance
+		return low;
+	} // routesBelow
+
+	/**
+	 * Replaces the spaces of a route with the results of a search.
+	 *
+	 * @param route: The route that was searched
+	 * @param spaces: Up to getCapacity() of the best available spaces, best
+	 * first
+	 */
+	public void refill(Route route, List<ParkingSpace> spaces) {
+		for (Board board : this.boards.values()) {
+			for (Candidates candidates : board.candidates) {
+				if (candidates.route == route) {
+					candidates.fill(spaces);
+					board.choose();
+				} // if - route found
+			} // for each - destination
+		} // for each - entrance
+	} // refill
+
+	/**
+	 * Checks whether an entrance has a first choice for every destination
+	 * whose group controller can be reached, and none of its routes are
+	 * waiting to be refilled.
+	 *
+	 * @param entrance: The entrance number
+	 * @return true if the suggestion can be used
+	 */
+	public boolean isReady(int entrance) {
+		this.evictUnreachable();
+		Board board = this.board(entrance);
+		if (board == null)
+			return false;
+		for (int i = 0; i < board.first.length; i++)
+			if (board.candidates[i].refill || board.first[i] == null
+					|| !this.isReachable(board.first[i]))
+				return false;
+		return true;
+	} // isReady
+
+	/**
+	 * Gets a copy of an entrance's first choices, which stays the same as
+	 * the cache changes.
+	 *
+	 * @param entrance: The entrance number
+	 * @return the first choice space of each destination
+	 */
+	public ParkingSpace[] getFirstChoices(int entrance) {
+		return this.board(entrance).first.clone();
+	} // getFirstChoices
+
+	/**
+	 * Gets an entrance's "Display spaces" message, copied into a buffer that
+	 * is only changed by the next call for the same entrance.
+	 *
+	 * @param entrance: The entrance number
+	 * @return the message for the first choices
+	 */
+	public int[] getReply(int entrance) {
+		Board board = this.board(entrance);
+		System.arraycopy(board.reply, 0, board.sent, 0, board.reply.length);
+		return board.sent;
+	} // getReply
+
+	/**
+	 * Gets the first choice space of an entrance for a destination.
+	 *
+	 * @param entrance: The entrance number
+	 * @param destination: The index of the destination
+	 * @return the space, or null if there is none
+	 */
+	public ParkingSpace getFirstChoice(int entrance, int destination) {
+		Board board = this.board(entrance);
+		return (board == null || destination >= board.first.length) ? null
+				: board.first[destination];
+	} // getFirstChoice
+
+	/**
+	 * Gets the second choice space of an entrance for a destination.
+	 *
+	 * @param entrance: The entrance number
+	 * @param destination: The index of the destination
+	 * @return the space, or null if there is none
+	 */
+	public ParkingSpace getSecondChoice(int entrance, int destination) {
+		Board board = this.board(entrance);
+		return (board == null || destination >= board.second.length) ? null
+				: board.second[destination];
+	} // getSecondChoice
+
+	/**
+	 * Gets the board of an entrance, using the routes that only count the
+	 * walk if the entrance is not in the lot file.
+	 */
+	private Board board(int entrance) {
+		Board board = this.boards.get(entrance);
+		return (board == null)
+				? this.boards.get(CentralControlUnit.ANY_ENTRANCE) : board;
+	} // board
+
+	/**
+	 * Takes the spaces of unreachable group controllers out of every route if
+	 * a radio's circuit has opened since they were last taken out.
+	 */
+	private void evictUnreachable() {
+		long openings = this.health.getOpenings();
+		if (openings == this.openings)
+			return;
+		this.openings = openings;
+		for (Board board : this.boards.values()) {
+			boolean changed = false;
+			for (Candidates candidates : board.candidates)
+				for (int i = candidates.size - 1; i >= 0; i--)
+					if (!this.isReachable(candidates.spaces[i])) {
+						candidates.remove(candidates.spaces[i]);
+						candidates.complete = false;
+						changed = true;
+					} // if - controller cannot be reached
+			if (changed)
+				board.choose();
+		} // for each - entrance
+	} // evictUnreachable
+
+	/**
+	 * Checks whether a space's group controller can be reached.
+	 */
+	private boolean isReachable(ParkingSpace space) {
+		return this.health.isReachable(space.getController().getAddress64());
+	} // isReachable
+
+	/**
+	 * Writes the coordinates of a space into a "Display spaces" message.
+	 */
+	private static void encode(int[] reply, int destination,
+			ParkingSpace space) {
+		int x = (space == null) ? 0 : space.getX();
+		int y = (space == null) ? 0 : space.getY();
+		reply[destination*4 + 1] = (x >> 8) & 0xFF;
+		reply[destination*4 + 2] = x & 0xFF;
+		reply[destination*4 + 3] = (y >> 8) & 0xFF;
+		reply[destination*4 + 4] = y & 0xFF;
+	} // encode
+
+	/**
+	 * The routes of a single entrance and the suggestion chosen from them.
+	 */
+	private static class Board {
+
+		final Candidates[] candidates;
+		final ParkingSpace[] first;
+		final ParkingSpace[] second;
+		/** The encoded message for the first choices */
+		final int[] reply;
+		/** The copy of the message that was last handed out */
+		final int[] sent;
+
+		Board(List<Route> routes, int capacity) {
+			this.candidates = new Candidates[routes.size()];
+			for (int i = 0; i < routes.size(); i++)
+				this.candidates[i] = new Candidates(routes.get(i), capacity);
+			this.first = new ParkingSpace[routes.size()];
+			this.second = new ParkingSpace[routes.size()];
+			this.reply = new int[routes.size()*4 + 1];
+			this.reply[0] = 'D';
+			this.sent = new int[this.reply.length];
+		} // Board
+
+		/**
+		 * Chooses the first and second choice of each destination again from
+		 * the spaces of its route, writing any first choice that changed into
+		 * the message. A route that has run out of spaces for its first choice
+		 * is marked to be refilled unless it already holds every available
+		 * space.
+		 */
+		void choose() {
+
+			for (int i = 0; i < this.candidates.length; i++) {
+				ParkingSpace chosen = null;
+				Candidates route = this.candidates[i];
+				for (int j = 0; j < route.size && chosen == null; j++)
+					if (indexOf(this.first, i, route.spaces[j]) < 0)
+						chosen = route.spaces[j];
+				if (chosen == null && !route.complete)
+					route.refill = true;
+				if (this.first[i] != chosen) {
+					this.first[i] = chosen;
+					encode(this.reply, i, chosen);
+				} // if - first choice changed
+			} // for - each destination
+
+			for (int i = 0; i < this.candidates.length; i++) {
+				ParkingSpace chosen = null;
+				Candidates route = this.candidates[i];
+				for (int j = 0; j < route.size && chosen == null; j++)
+					if (indexOf(this.first, this.first.length,
+							route.spaces[j]) < 0 && indexOf(this.second, i,
+							route.spaces[j]) < 0)
+						chosen = route.spaces[j];
+				this.second[i] = chosen;
+			} // for - each destination
+
+		} // choose
+
+		/**
+		 * Finds a space among the first few entries of an array.
+		 */
+		private static int indexOf(ParkingSpace[] spaces, int length,
+				ParkingSpace space) {
+			for (int i = 0; i < length; i++)
+				if (spaces[i] == space)
+					return i;
+			return -1;
+		} // indexOf
+
+	} // Board - Class
+
+	/**
+	 * The available spaces that cost the least on a single route, best
+	 * first.
+	 */
+	private static class Candidates {
+
+		final Route route;
+		final ParkingSpace[] spaces;
+		final double[] costs;
+		int size;
+		/** true if every available space on the route is kept */
+		boolean complete;
+		/** true if the route needs to be searched before it is used */
+		boolean refill;
+
+		Candidates(Route route, int capacity) {
+			this.route = route;
+			this.spaces = new ParkingSpace[capacity];
+			this.costs = new double[capacity];
+			this.refill = true;
+		} // Candidates
+
+		/**
+		 * Adds a space that has become available if it is one of the best.
+		 * A space that is worse than all of the kept spaces is only added if
+		 * every available space is known, since there may be better spaces
+		 * that are not kept.
+		 *
+		 * @return true if the space was added
+		 */
+		boolean offer(ParkingSpace space) {
+
+			double cost = this.route.cost(space);
+			if (this.size == this.spaces.length || !this.complete) {
+				if (this.size == 0 || cost >= this.costs[this.size - 1])
+					return false;
+			} // if - may be worse than a space that is not kept
+			for (int i = 0; i < this.size; i++)
+				if (this.spaces[i] == space)
+					return false;
+
+			if (this.size == this.spaces.length) {
+				this.size--;
+				this.complete = false;
+			} // if - no room, so the worst is let go
+			int i = this.size;
+			while (i > 0 && this.costs[i - 1] > cost) {
+				this.spaces[i] = this.spaces[i - 1];
+				this.costs[i] = this.costs[i - 1];
+				i--;
+			} // while - making room for the space
+			this.spaces[i] = space;
+			this.costs[i] = cost;
+			this.size++;
+			return true;
+
+		} // offer
+
+		/**
+		 * Takes out a space that is no longer available, marking the route to
+		 * be refilled if it has too few spaces left.
+		 *
+		 * @return true if the space was kept
+		 */
+		boolean remove(ParkingSpace space) {
+
+			int i = 0;
+			while (i < this.size && this.spaces[i] != space)
+				i++;
+			if (i == this.size)
+				return false;
+			this.size--;
+			for (; i < this.size; i++) {
+				this.spaces[i] = this.spaces[i + 1];
+				this.costs[i] = this.costs[i + 1];
+			} // for - each later space
+			this.spaces[this.size] = null;
+			if (this.size < MIN_CANDIDATES && !this.complete)
+				this.refill = true;
+			return true;
+
+		} // remove
+
+		/**
+		 * Replaces the spaces with the results of a search.
+		 */
+		void fill(List<ParkingSpace> best) {
+			this.size = Math.min(best.size(), this.spaces.length);
+			for (int i = 0; i < this.spaces.length; i++) {
+				this.spaces[i] = (i < this.size) ? best.get(i) : null;
+				this.costs[i] = (i < this.size)
+						? this.route.cost(best.get(i)) : 0;
+			} // for - each kept space
+			this.complete = best.size() < this.spaces.length;
+			this.refill = false;
+		} // fill
+
+	} // Candidates - Class
+
+} // SuggestionCache - Class
@@ -0,0 +1,431 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The EventLog class records diagnostic events without holding up the thread
+ * that reports them. Each event has a level, a name and any number of named
+ * values, and is written as a single line such as:
+ * 		2014-04-02T13:05:22.418 W unknown_packet source=0013a20040a1b2c3 type=X
+ *
+ * Reporting an event only places it in a ring buffer, which any number of
+ * threads can do at once without taking a lock. A single writer thread takes
+ * the events out, formats them and writes them to the console and to a log
+ * file, which is rolled over to a new file once it grows too large. If the
+ * buffer is ever full the event is dropped and counted rather than waiting,
+ * and an event that is reported too many times in a short time is only
+ * written up to a limit, with the number of repeats that were left out
+ * written once the time is up.
+ *
+ * The values of an event are formatted on the writer thread, so they should
+ * not be changed after they are reported.
+ *
+ * The class is kept in the Common source folder, which the Central Control
+ * Unit and the Entrance Controller both build along with their own sources.
+ *
+ * @author Elliot Dean
+ */
+public class EventLog {
+
+	/** The levels of an event */
+	static final char INFO = 'I', WARNING = 'W', ERROR = 'E';
+
+	/** The number of events the buffer holds, which must be a power of two */
+	static final int CAPACITY = 1 << 13;
+
+	/** The most times an event is written within a single repeat window */
+	static final int MAX_REPEATS = 10;
+
+	/** The length of a repeat window, in milliseconds */
+	static final long REPEAT_WINDOW = 1000;
+
+	/** The size a log file may grow to before it is rolled over, in bytes */
+	static final long MAX_FILE_SIZE = 1 << 20;
+
+	/** The number of rolled over log files that are kept */
+	static final int MAX_FILES = 5;
+
+	/** How long the writer waits when there is nothing to write */
+	static final long IDLE_WAIT = 50 * 1000000L;
+
+	private static final EventLog log = new EventLog();
+
+	/** The buffered events, each at its sequence number modulo the capacity */
+	private final AtomicReferenceArray<Event> events;
+	/** The sequence number of the next event to be written */
+	private final AtomicLong head;
+	/** The sequence number of the next event to be reported */
+	private final AtomicLong tail;
+	/** The number of events dropped because the buffer was full */
+	private final AtomicLong dropped;
+	/** The recent repeats of each event name */
+	private final ConcurrentHashMap<String, Repeats> repeats;
+
+	private volatile Thread writer;
+	private volatile boolean closing;
+	private volatile boolean console;
+	private volatile File directory;
+	private volatile String name;
+
+	/** The open log file, only used by the writer thread */
+	private Writer file;
+	private File current;
+	private long fileSize;
+
+	private EventLog() {
+		this.events = new AtomicReferenceArray<Event>(CAPACITY);
+		this.head = new AtomicLong();
+		this.tail = new AtomicLong();
+		this.dropped = new AtomicLong();
+		this.repeats = new ConcurrentHashMap<String, Repeats>();
+		this.console = true;
+	} // EventLog
+
+	/**
+	 * Starts writing events to log files as well as the console. Events that
+	 * were written before the log was opened are only on the console.
+	 *
+	 * @param directory: The directory to keep the log files in
+	 * @param name: The name of the log files, such as ccu for ccu.log
+	 */
+	public static void open(File directory, String name) {
+		log.directory = directory;
+		log.name = name;
+		log.start();
+	} // open
+
+	/**
+	 * Sets whether events are written to the console.
+	 *
+	 * @param console: true to write events to the console
+	 */
+	public static void setConsole(boolean console) {
+		log.console = console;
+	} // setConsole
+
+	/**
+	 * Reports an event that is part of normal operation.
+	 *
+	 * @param event: The name of the event
+	 * @param values: The name of each value followed by the value
+	 */
+	public static void info(String event, Object... values) {
+		log.report(INFO, event, values);
+	} // info
+
+	/**
+	 * Reports an event that may be a problem.
+	 *
+	 * @param event: The name of the event
+	 * @param values: The name of each value followed by the value
+	 */
+	public static void warning(String event, Object... values) {
+		log.report(WARNING, event, values);
+	} // warning
+
+	/**
+	 * Reports an event that is a problem.
+	 *
+	 * @param event: The name of the event
+	 * @param values: The name of each value followed by the value
+	 */
+	public static void error(String event, Object... values) {
+		log.report(ERROR, event, values);
+	} // error
+
+	/**
+	 * Places an event in the buffer, unless it has been repeated too many
+	 * times or the buffer is full.
+	 */
+	private void report(char level, String name, Object[] values) {
+
+		long time = System.currentTimeMillis();
+		Repeats repeat = this.repeats.get(name);
+		if (repeat == null) {
+			Repeats created = new Repeats(time);
+			repeat = this.repeats.putIfAbsent(name, created);
+			if (repeat == null)
+				repeat = created;
+		} // if - first time the event was reported
+		int skipped = repeat.roll(time);
+		if (skipped > 0)
+			this.add(new Event(time, WARNING, "repeats_skipped",
+					new Object[] {"event", name, "count", skipped}));
+		if (!repeat.allow())
+			return;
+
+		this.add(new Event(time, level, name, values));
+		this.start();
+
+	} // report
+
+	/**
+	 * Claims the next place in the buffer and fills it.
+	 */
+	private void add(Event event) {
+		long sequence;
+		do {
+			sequence = this.tail.get();
+			if (sequence - this.head.get() >= CAPACITY) {
+				this.dropped.incrementAndGet();
+				return;
+			} // if - buffer full
+		} while (!this.tail.compareAndSet(sequence, sequence + 1));
+		this.events.set((int) (sequence & (CAPACITY - 1)), event);
+	} // add
+
+	/**
+	 * Starts the writer thread if it has not been started yet.
+	 */
+	private void start() {
+		if (this.writer != null)
+			return;
+		synchronized (this) {
+			if (this.writer != null)
+				return;
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					write();
+				} // run
+			}, "EventLog");
+			writer.setDaemon(true);
+			writer.start();
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					close();
+				} // run
+			});
+			this.writer = writer;
+		} // synchronized - log
+	} // start
+
+	/**
+	 * Asks the writer thread to write everything that is left and waits for
+	 * it to finish.
+	 */
+	private void close() {
+		this.closing = true;
+		LockSupport.unpark(this.writer);
+		try {
+			this.writer.join(2000);
+		} catch (InterruptedException e) {
+			return;
+		} // try-catch
+	} // close
+
+	/**
+	 * Takes events out of the buffer and writes them until the log is
+	 * closed.
+	 */
+	private void write() {
+
+		SimpleDateFormat format =
+				new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+		StringBuilder line = new StringBuilder(256);
+		StringBuilder text = new StringBuilder(1 << 16);
+		while (true) {
+
+			boolean last = this.closing;
+			long time = System.currentTimeMillis();
+			long sequence = this.head.get();
+			while (sequence < this.tail.get()) {
+				int index = (int) (sequence & (CAPACITY - 1));
+				Event event = this.events.get(index);
+				if (event == null)
+					break;
+				this.events.set(index, null);
+				this.head.lazySet(++sequence);
+				this.format(format, line, text, event);
+			} // while - events waiting
+
+			long lost = this.dropped.getAndSet(0);
+			if (lost > 0)
+				this.format(format, line, text, new Event(time, WARNING,
+						"events_dropped", new Object[] {"count", lost}));
+			for (Map.Entry<String, Repeats> entry : this.repeats.entrySet()) {
+				int skipped = entry.getValue().roll(time);
+				if (skipped > 0)
+					this.format(format, line, text, new Event(time, WARNING,
+							"repeats_skipped", new Object[] {"event",
+							entry.getKey(), "count", skipped}));
+			} // for each - event name
+
+			if (text.length() > 0) {
+				this.output(text);
+				text.setLength(0);
+			} // if - anything to write
+			else if (last)
+				break;
+			else
+				LockSupport.parkNanos(IDLE_WAIT);
+
+		} // while - not closed
+		this.closeFile();
+
+	} // write
+
+	/**
+	 * Formats an event as a line of text.
+	 */
+	private void format(SimpleDateFormat format, StringBuilder line,
+			StringBuilder text, Event event) {
+
+		line.setLength(0);
+		line.append(format.format(new Date(event.time))).append(' ')
+				.append(event.level).append(' ').append(event.name);
+		for (int i = 0; i + 1 < event.values.length; i += 2) {
+			line.append(' ').append(event.values[i]).append('=');
+			String value = String.valueOf(event.values[i + 1]);
+			if (value.isEmpty() || value.indexOf(' ') >= 0
+					|| value.indexOf('"') >= 0)
+				line.append('"').append(value.replace("\"", "\\\""))
+						.append('"');
+			else
+				line.append(value);
+		} // for - each value
+		text.append(line).append(System.lineSeparator());
+
+	} // format
+
+	/**
+	 * Writes formatted events to the console and the log file.
+	 */
+	private void output(StringBuilder text) {
+
+		if (this.console)
+			System.out.print(text);
+		if (this.directory == null)
+			return;
+
+		try {
+			if (this.file == null || this.fileSize >= MAX_FILE_SIZE)
+				this.openFile();
+			this.file.append(text);
+			this.file.flush();
+			this.fileSize += text.length();
+		} catch (IOException e) {
+			System.err.println("Error writing " + this.current + ": "
+					+ e.getMessage());
+			this.closeFile();
+		} // try-catch
+
+	} // output
+
+	/**
+	 * Opens the log file, first rolling it over if it is too large. The
+	 * oldest rolled over file is deleted and the others are each renamed to
+	 * the next number.
+	 */
+	private void openFile() throws IOException {
+
+		this.closeFile();
+		this.directory.mkdirs();
+		this.current = new File(this.directory, this.name + ".log");
+		if (this.current.length() >= MAX_FILE_SIZE) {
+			new File(this.directory, this.name + "." + MAX_FILES + ".log")
+					.delete();
+			for (int i = MAX_FILES - 1; i >= 1; i--)
+				new File(this.directory, this.name + "." + i + ".log")
+						.renameTo(new File(this.directory,
+								this.name + "." + (i + 1) + ".log"));
+			this.current.renameTo(
+					new File(this.directory, this.name + ".1.log"));
+		} // if - log file full
+		this.fileSize = this.current.length();
+		this.file = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(this.current, true), "UTF-8"), 1 << 16);
+
+	} // openFile
+
+	/**
+	 * Closes the log file if it is open.
+	 */
+	private void closeFile() {
+		if (this.file == null)
+			return;
+		try {
+			this.file.close();
+		} catch (IOException e) {
+			// The file is no longer being written
+		} // try-catch
+		this.file = null;
+	} // closeFile
+
+	/**
+	 * A single reported event.
+	 */
+	private static class Event {
+
+		final long time;
+		final char level;
+		final String name;
+		final Object[] values;
+
+		Event(long time, char level, String name, Object[] values) {
+			this.time = time;
+			this.level = level;
+			this.name = name;
+			this.values = values;
+		} // Event
+
+	} // Event - Class
+
+	/**
+	 * Counts how many times an event has been reported in the current repeat
+	 * window.
+	 */
+	private static class Repeats {
+
+		final AtomicLong windowStart;
+		final AtomicInteger count;
+		final AtomicInteger skipped;
+
+		Repeats(long time) {
+			this.windowStart = new AtomicLong(time);
+			this.count = new AtomicInteger();
+			this.skipped = new AtomicInteger();
+		} // Repeats
+
+		/**
+		 * Starts a new window if the current one is over.
+		 *
+		 * @return the number of repeats skipped in the window that ended, to
+		 * be reported by the one caller that ended it
+		 */
+		int roll(long time) {
+			long start = this.windowStart.get();
+			if (time - start < REPEAT_WINDOW
+					|| !this.windowStart.compareAndSet(start, time))
+				return 0;
+			this.count.set(0);
+			return this.skipped.getAndSet(0);
+		} // roll
+
+		/**
+		 * Counts a repeat.
+		 *
+		 * @return true if the repeat should be written
+		 */
+		boolean allow() {
+			if (this.count.incrementAndGet() <= MAX_REPEATS)
+				return true;
+			this.skipped.incrementAndGet();
+			return false;
+		} // allow
+
+	} // Repeats - Class
+
+} // EventLog - Class
@@ -1,3 +1,4 @@
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -15,6 +16,7 @@ import com.rapplogic.xbee.api.XBee;
 import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.XBeeException;
 import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.XBeeTimeoutException;
 import com.rapplogic.xbee.api.zigbee.ZNetRxResponse;
 import com.rapplogic.xbee.api.zigbee.ZNetTxRequest;
 import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
@@ -26,7 +28,9 @@ import com.rapplogic.xbee.api.zigbee.ZNetTxStatusResponse;
  * and will update with space suggestions for each lot destination each time a
  * vehicle is detected entering the lot at this entrance. The path to the
  * serial port that the XBee is connected to should be supplied as a runtime
- * parameter.
+ * parameter. An entrance that is only used by one kind of vehicle (e.g. an
+ * entrance for permit holders) can be given the letter of the category of
+ * space to ask for as a second parameter.
  * 
  * @author Elliot Dean
  */
@@ -44,7 +48,9 @@ public class EntranceController {
 	
 	int controllerId = 0; // The entrance number
 	int nextEntranceId = 0;
+	int spaceCategory = 0; // The category of space to ask for, or 0 for any
 	long markerDisplayTime = 7000; // Milliseconds to display space markers
+	int replyTimeout = 10000; // Milliseconds to wait before asking again
 	
 	/**
 	 * The program will begin by initializing the necessary objects and
@@ -53,7 +59,8 @@ public class EntranceController {
 	 * the lot and if one is detected it will notify the Central Control Unit
 	 * which will then return a list of coordinates for each suggestion. Those
 	 * coordinates will then be indicated on the display for a set amount of
-	 * time or until another vehicle is detected.
+	 * time or until another vehicle is detected. Diagnostic events are written
+	 * to the console and to log files in the logs directory.
 	 * 
 	 * @throws InterruptedException
 	 * @throws XBeeException 
@@ -61,7 +68,10 @@ public class EntranceController {
 	public static void main(String[] args) 
 			throws InterruptedException, XBeeException {
 		
+		EventLog.open(new File("logs"), "entrance");
 		final EntranceController controller = new EntranceController();
+		if (args.length > 1)
+			controller.spaceCategory = args[1].charAt(0);
 		controller.xBee.open(args[0], 9600);
 		
 		// Creates a separate thread to display the GUI
@@ -133,16 +143,37 @@ public class EntranceController {
 	 * this lot and then waits for the CCU to send back a message containing 
 	 * the coordinates of the suggested spaces. Once this message is received
 	 * the coordinates are packed into an ArrayList and then returned so that
-	 * they may be marked on the display.
+	 * they may be marked on the display. If no suggestions arrive within the
+	 * reply timeout, the CCU is asked again with a new message, since it
+	 * releases the spaces of any suggestions that it could not deliver.
 	 * 
 	 * @return a list of parking space coordinates to be marked on the display
 	 */
 	private ArrayList<int[]> getSpaceSuggestions() {
+		
+		while (true) {
+			this.sendVehicleEntering();
+			ArrayList<int[]> suggestions = this.receiveSuggestions();
+			if (suggestions != null)
+				return suggestions;
+			EventLog.warning("suggestions_timed_out", 
+					"timeout_ms", this.replyTimeout);
+		} // while - asking until suggestions are received
+		
+	} // getSpaceSuggestions
+	
+	/**
+	 * This method sends a "Vehicle Entering" message to the Central Control
+	 * Unit, trying until the radio acknowledges it.
+	 */
+	private void sendVehicleEntering() {
 
 		// Creates the "Vehicle Entering" message and updates the counter
 		ZNetTxRequest message = new ZNetTxRequest(
-				XBeeAddress64.ZNET_COORDINATOR, new int[]{
-						'E', this.nextEntranceId, this.controllerId});
+				XBeeAddress64.ZNET_COORDINATOR, (this.spaceCategory == 0) 
+						? new int[]{'E', this.nextEntranceId, this.controllerId}
+						: new int[]{'E', this.nextEntranceId, this.controllerId,
+								this.spaceCategory});
 		this.nextEntranceId++;
 		if (this.nextEntranceId > 255)
 			this.nextEntranceId = 0;
@@ -157,15 +188,32 @@ public class EntranceController {
 				else
 					throw new XBeeException();
 			} catch (XBeeException e) {
+				EventLog.warning("entrance_send_failed", 
+						"entrance_id", message.getPayload()[1]);
 				continue; // Message failed, try again
 			} // try-catch
 		} // while - trying to send the message
 		
+	} // sendVehicleEntering
+	
+	/**
+	 * This method waits for the "Display spaces" message from the Central
+	 * Control Unit and packs the coordinates it contains into a list.
+	 * 
+	 * @return the space coordinates, or null if the reply timeout passed
+	 */
+	private ArrayList<int[]> receiveSuggestions() {
+		
 		// Receives the list of space coordinates and packs them into the list
-		ArrayList<int[]> suggestions = new ArrayList<int[]>();;
+		ArrayList<int[]> suggestions = new ArrayList<int[]>();
+		long deadline = System.currentTimeMillis() + this.replyTimeout;
 		while (true) {
 			try {
-				XBeeResponse response = this.xBee.getResponse();
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return null;
+				XBeeResponse response = this.xBee.getResponse(
+						(int) remaining);
 				if (response.getApiId() == ApiId.ZNET_RX_RESPONSE) {
 					ZNetRxResponse rxResponse = (ZNetRxResponse)response;
 					if (rxResponse.getData()[0] == 'D') {
@@ -177,14 +225,18 @@ public class EntranceController {
 									rxResponse.getData()[i + 3]});
 						break;
 					} // if - correct response
+					EventLog.warning("unexpected_message", 
+							"type", rxResponse.getData()[0]);
 				} // if - correct ApiId
+			} catch (XBeeTimeoutException e) {
+				return null;
 			} catch (XBeeException e) {
-				System.out.println("Error retreiving space coordinates");
+				EventLog.error("suggestions_failed", "error", e.getMessage());
 			} // try-catch
 		} // while - trying to receive space coordinates
 		
 		return suggestions;
-	} // getSpaceSuggestions
+	} // receiveSuggestions
 	
 	/**
 	 * This method waits for a vehicle to enter the lot, at which point the 
@@ -22,6 +22,12 @@ import javax.swing.JPanel;
  * used to add space markers can be measured from the top-left corner of the
  * source image in pixels.
  * 
+ * If the map has been cut into tiles by the MapTiler program, the tiles in
+ * images/tiles are used in place of the single map image. Tiles are read as
+ * they are needed through a TileCache, and the display zooms in on the area
+ * of the lot around the current suggestions so that their markers can be
+ * seen on a large lot. Otherwise the whole map image is scaled to the screen.
+ * 
  * @author Elliot Dean
  */
 @SuppressWarnings("serial")
@@ -44,6 +50,17 @@ public class EntranceDisplay extends JPanel {
 	private Image lotFullImage;
 	/** Whether the lot full message should be drawn */
 	private boolean displayLotFull = false;
+	/** The tiles of the map, or null if the map image is used instead */
+	private TileCache tiles;
+	/** The dimensions of the screen */
+	private int screenWidth, screenHeight;
+	
+	/** The directory that the map tiles are kept in */
+	static final String TILE_DIRECTORY = "images/tiles";
+	/** The smallest area of the map that will be zoomed in on, in pixels */
+	static final int MIN_ZOOM_SIZE = 200;
+	/** The space left around the suggestions when zoomed in, as a fraction */
+	static final double ZOOM_MARGIN = 0.25;
 	
 	/**
 	 * This method is used to set the dimensions of the map image and
@@ -56,6 +73,23 @@ public class EntranceDisplay extends JPanel {
 		try {
 			
 			lotFullImage = ImageIO.read(new File("images/LotFull.png"));
+			spaces = new ArrayList<int[]>();
+			screenWidth = frame.getWidth();
+			screenHeight = frame.getHeight();
+			
+			// Uses the map tiles if there are any, keeping enough of them in
+			// memory to cover the screen twice over
+			File tileDirectory = new File(TILE_DIRECTORY);
+			if (new File(tileDirectory, TileCache.INDEX_FILE).exists()) {
+				tiles = new TileCache(tileDirectory);
+				int tileSize = tiles.getTileSize();
+				tiles.setCapacity(2 * (screenWidth/tileSize + 2) 
+						* (screenHeight/tileSize + 2));
+				mapWidth = tiles.getWidth();
+				mapHeight = tiles.getHeight();
+				return;
+			} // if - map has been tiled
+			
 			map = ImageIO.read(new File("images/LotMap.png"));
 			if (frame.getWidth() <= frame.getHeight()) {
 				scaledMap = map.getScaledInstance(frame.getWidth(), -1, 
@@ -74,10 +108,9 @@ public class EntranceDisplay extends JPanel {
 			scaledMapHeight = scaledMap.getHeight(null);
 			mapWidth = map.getWidth();
 			scaledMapWidth = scaledMap.getWidth(null);	
-			spaces = new ArrayList<int[]>();
 		
 		} catch (IOException e) {
-			System.out.println(e.getMessage());
+			EventLog.error("map_load_failed", "error", e.getMessage());
 		} // try-catch
 	
 	} // initializeDisplay
@@ -128,6 +161,11 @@ public class EntranceDisplay extends JPanel {
 	public void paint(Graphics g) {
 		super.paintComponents(g);
 		
+		if (this.tiles != null) {
+			this.paintTiles(g);
+			return;
+		} // if - drawing from tiles
+		
 		// Draws the scaled map in the background of the frame
 		g.drawImage(scaledMap, mapLeftEdge, mapTopEdge, null);
 		
@@ -150,6 +188,109 @@ public class EntranceDisplay extends JPanel {
 		
 	} // paint
 	
+	/**
+	 * Draws the part of the map around the current suggestions from its
+	 * tiles, along with the space markers and lot full message.
+	 * 
+	 * @param g: The graphics to draw with
+	 */
+	private void paintTiles(Graphics g) {
+		
+		// Fits the area being shown to the screen
+		int[] region = this.zoomRegion();
+		double scale = Math.min((double) screenWidth / region[2], 
+				(double) screenHeight / region[3]);
+		int left = (int) (screenWidth - region[2] * scale) / 2;
+		int top = (int) (screenHeight - region[3] * scale) / 2;
+		
+		// Draws each tile that covers part of the area
+		int level = tiles.levelFor(scale);
+		int tileSpan = tiles.getTileSize() << level; // Map pixels per tile
+		for (int row = region[1] / tileSpan; 
+				row <= (region[1] + region[3] - 1) / tileSpan; row++) {
+			for (int column = region[0] / tileSpan; 
+					column <= (region[0] + region[2] - 1) / tileSpan; 
+					column++) {
+				
+				BufferedImage tile = tiles.getTile(level, column, row);
+				if (tile == null)
+					continue;
+				int x1 = left + (int) Math.round(
+						(column * tileSpan - region[0]) * scale);
+				int y1 = top + (int) Math.round(
+						(row * tileSpan - region[1]) * scale);
+				int x2 = left + (int) Math.round((column * tileSpan 
+						+ (tile.getWidth() << level) - region[0]) * scale);
+				int y2 = top + (int) Math.round((row * tileSpan 
+						+ (tile.getHeight() << level) - region[1]) * scale);
+				g.drawImage(tile, x1, y1, x2 - x1, y2 - y1, null);
+				
+			} // for - each column
+		} // for - each row
+		
+		// Draws each space marker to the frame
+		int circleRadius = 20;
+		g.setColor(Color.GREEN);
+		for (int[] space : new ArrayList<int[]>(spaces))
+			g.fillOval(left + (int) ((space[0] - region[0]) * scale) 
+					- circleRadius/2, 
+					top + (int) ((space[1] - region[1]) * scale) 
+					- circleRadius/2, 
+					circleRadius, circleRadius);
+		
+		if (this.displayLotFull)
+			g.drawImage(lotFullImage, 
+					screenWidth/2 - lotFullImage.getWidth(null)/2, 
+					screenHeight/2 - lotFullImage.getHeight(null)/2, null);
+		
+	} // paintTiles
+	
+	/**
+	 * Finds the area of the map to show. With no suggestions the whole map is
+	 * shown; otherwise the area around the suggestions is shown, stretched to
+	 * the shape of the screen. If that area would not fit in the map the whole
+	 * map is shown instead.
+	 * 
+	 * @return the x, y, width and height of the area, in map pixels
+	 */
+	private int[] zoomRegion() {
+		
+		int[] whole = {0, 0, mapWidth, mapHeight};
+		ArrayList<int[]> shown = new ArrayList<int[]>(spaces);
+		if (shown.isEmpty())
+			return whole;
+		
+		// Finds the box around every suggestion
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int[] space : shown) {
+			minX = Math.min(minX, space[0]);
+			maxX = Math.max(maxX, space[0]);
+			minY = Math.min(minY, space[1]);
+			maxY = Math.max(maxY, space[1]);
+		} // for - each suggestion
+		
+		// Adds a margin and matches the shape of the screen
+		double width = Math.max(maxX - minX, MIN_ZOOM_SIZE) 
+				* (1 + 2 * ZOOM_MARGIN);
+		double height = Math.max(maxY - minY, MIN_ZOOM_SIZE) 
+				* (1 + 2 * ZOOM_MARGIN);
+		if (width * screenHeight < height * screenWidth)
+			width = height * screenWidth / screenHeight;
+		else
+			height = width * screenHeight / screenWidth;
+		if (width >= mapWidth || height >= mapHeight)
+			return whole;
+		
+		// Centres the area on the suggestions without leaving the map
+		int x = (int) ((minX + maxX - width) / 2);
+		int y = (int) ((minY + maxY - height) / 2);
+		x = Math.max(0, Math.min(x, mapWidth - (int) width));
+		y = Math.max(0, Math.min(y, mapHeight - (int) height));
+		return new int[] {x, y, (int) width, (int) height};
+		
+	} // zoomRegion
+	
 	/**
 	 * This method creates a full-screen window to show on the entrance display
 	 * and returns an instance of the EntranceDisplay object so that it can be
@@ -0,0 +1,126 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The MapTiler program cuts a lot map into square tiles at several sizes so
+ * that an EntranceDisplay can draw any part of it at any zoom without reading
+ * the whole image. It only needs to be run again when the map changes, and it
+ * can be run on any computer before the tiles are copied to the entrance
+ * controllers. The arguments are:
+ * 		sourceImage outputDirectory [tileSize]
+ *
+ * Level 0 is the map at full size, and each level after it is half the size
+ * of the one before it, down to the first level that fits in a single tile.
+ * The tiles of each level are written to a directory named after the level,
+ * and the size of the map is written to an index file.
+ *
+ * @author Elliot Dean
+ */
+public class MapTiler {
+
+	/** The width and height of each tile when none is given, in pixels */
+	static final int DEFAULT_TILE_SIZE = 256;
+
+	/**
+	 * Cuts the map into tiles.
+	 *
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		if (args.length < 2) {
+			System.out.println(
+					"Usage: MapTiler sourceImage outputDirectory [tileSize]");
+			System.exit(1);
+		} // if - missing arguments
+
+		File directory = new File(args[1]);
+		int tileSize = (args.length > 2)
+				? Integer.parseInt(args[2]) : DEFAULT_TILE_SIZE;
+		BufferedImage map = ImageIO.read(new File(args[0]));
+		if (map == null)
+			throw new IOException("Unable to read map image " + args[0]);
+
+		int width = map.getWidth(), height = map.getHeight();
+		int level = 0, tileCount = 0;
+		while (true) {
+
+			tileCount += writeTiles(map, directory, level, tileSize);
+			level++;
+			if (map.getWidth() <= tileSize && map.getHeight() <= tileSize)
+				break;
+			map = half(map);
+
+		} // while - map does not fit in one tile
+
+		Properties index = new Properties();
+		index.setProperty("width", Integer.toString(width));
+		index.setProperty("height", Integer.toString(height));
+		index.setProperty("tileSize", Integer.toString(tileSize));
+		index.setProperty("levels", Integer.toString(level));
+		OutputStream out = new FileOutputStream(
+				new File(directory, TileCache.INDEX_FILE));
+		try {
+			index.store(out, "Written by MapTiler from " + args[0]);
+		} finally {
+			out.close();
+		} // try-finally
+
+		System.out.println("Wrote " + tileCount + " tiles in " + level
+				+ " levels to " + directory);
+
+	} // main
+
+	/**
+	 * Cuts one level of the map into tiles and writes them to disk. The tiles
+	 * along the right and bottom edges are only as large as the map.
+	 *
+	 * @return the number of tiles written
+	 */
+	private static int writeTiles(BufferedImage map, File directory,
+			int level, int tileSize) throws IOException {
+
+		new File(directory, Integer.toString(level)).mkdirs();
+		int count = 0;
+		for (int row = 0; row * tileSize < map.getHeight(); row++) {
+			for (int column = 0; column * tileSize < map.getWidth(); column++) {
+
+				int x = column * tileSize, y = row * tileSize;
+				BufferedImage tile = map.getSubimage(x, y,
+						Math.min(tileSize, map.getWidth() - x),
+						Math.min(tileSize, map.getHeight() - y));
+				ImageIO.write(tile, "png",
+						TileCache.tileFile(directory, level, column, row));
+				count++;
+
+			} // for - each column
+		} // for - each row
+		return count;
+
+	} // writeTiles
+
+	/**
+	 * Scales an image to half of its size, rounding up.
+	 */
+	private static BufferedImage half(BufferedImage image) {
+
+		BufferedImage half = new BufferedImage((image.getWidth() + 1) / 2,
+				(image.getHeight() + 1) / 2, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = half.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, half.getWidth(), half.getHeight(), null);
+		g.dispose();
+		return half;
+
+	} // half
+
+} // MapTiler - Class
@@ -0,0 +1,179 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The TileCache class loads the tiles of a lot map that has been cut up by
+ * the MapTiler program. Tiles are only read from disk the first time that
+ * they are drawn, and only a set number of them are kept in memory at once,
+ * with the tile that was drawn longest ago being dropped first. This keeps
+ * the time taken to start the display and the memory that it uses the same
+ * no matter how large the map is.
+ *
+ * Level 0 holds the map at full size, and each level after it holds the map
+ * at half the size of the one before it, so the coordinates of a tile at a
+ * level are multiplied by 2^level to get back to map coordinates.
+ *
+ * @author Elliot Dean
+ */
+public class TileCache {
+
+	/** The name of the file that describes the tiles */
+	static final String INDEX_FILE = "tiles.properties";
+
+	/** The most tiles kept in memory unless another limit is set */
+	static final int DEFAULT_CAPACITY = 64;
+
+	/** The directory that the tiles are in */
+	private final File directory;
+	/** The dimensions of the full size map */
+	private final int width, height;
+	/** The width and height of each tile, in pixels */
+	private final int tileSize;
+	/** The number of levels that the map has been cut into */
+	private final int levels;
+	/** The loaded tiles, least recently drawn first */
+	private final LinkedHashMap<String, BufferedImage> tiles;
+	/** The most tiles to keep in memory at once */
+	private int capacity;
+
+	/**
+	 * Opens a directory of tiles written by the MapTiler program. Only the
+	 * index file is read; the tiles are read as they are needed.
+	 *
+	 * @param directory: The directory that the tiles are in
+	 * @throws IOException if the index file cannot be read
+	 */
+	@SuppressWarnings("serial")
+	public TileCache(File directory) throws IOException {
+
+		Properties index = new Properties();
+		InputStream in = new FileInputStream(new File(directory, INDEX_FILE));
+		try {
+			index.load(in);
+		} finally {
+			in.close();
+		} // try-finally
+
+		try {
+			this.width = Integer.parseInt(index.getProperty("width"));
+			this.height = Integer.parseInt(index.getProperty("height"));
+			this.tileSize = Integer.parseInt(index.getProperty("tileSize"));
+			this.levels = Integer.parseInt(index.getProperty("levels"));
+		} catch (NumberFormatException e) {
+			throw new IOException("Badly formed tile index in " + directory);
+		} // try-catch
+
+		this.directory = directory;
+		this.capacity = DEFAULT_CAPACITY;
+		this.tiles = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, BufferedImage> eldest) {
+				return this.size() > capacity;
+			} // removeEldestEntry
+		};
+
+	} // TileCache
+
+	/**
+	 * Gets a tile, reading it from disk if it is not already in memory.
+	 *
+	 * @param level: The level of the tile
+	 * @param column: The column of the tile, from the left edge of the map
+	 * @param row: The row of the tile, from the top edge of the map
+	 * @return the tile, or null if there is no such tile
+	 */
+	public synchronized BufferedImage getTile(int level, int column, int row) {
+
+		String key = level + "/" + column + "_" + row;
+		if (this.tiles.containsKey(key))
+			return this.tiles.get(key);
+
+		BufferedImage tile = null;
+		File file = tileFile(this.directory, level, column, row);
+		try {
+			if (file.exists())
+				tile = ImageIO.read(file);
+		} catch (IOException e) {
+			EventLog.error("tile_read_failed", "file", file,
+					"error", e.getMessage());
+		} // try-catch
+		this.tiles.put(key, tile);
+		return tile;
+
+	} // getTile
+
+	/**
+	 * Sets the most tiles to keep in memory at once. This should be enough to
+	 * cover the screen, or tiles will be read again every time it is drawn.
+	 *
+	 * @param capacity: The number of tiles
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+	} // setCapacity
+
+	/**
+	 * Finds the smallest level that still has enough detail to draw the map
+	 * at a scale without stretching the tiles.
+	 *
+	 * @param scale: The size that the map is drawn at, 1.0 being full size
+	 * @return the level to draw the map from
+	 */
+	public int levelFor(double scale) {
+		int level = 0;
+		while (level + 1 < this.levels && scale * (2 << level) <= 1.0)
+			level++;
+		return level;
+	} // levelFor
+
+	/**
+	 * Gets the file that a tile is kept in.
+	 *
+	 * @param directory: The directory that the tiles are in
+	 * @param level: The level of the tile
+	 * @param column: The column of the tile
+	 * @param row: The row of the tile
+	 * @return the tile's file
+	 */
+	static File tileFile(File directory, int level, int column, int row) {
+		return new File(new File(directory, Integer.toString(level)),
+				column + "_" + row + ".png");
+	} // tileFile
+
+	/**
+	 * Gets the width of the full size map.
+	 *
+	 * @return the width in pixels
+	 */
+	public int getWidth() {
+		return this.width;
+	} // getWidth
+
+	/**
+	 * Gets the height of the full size map.
+	 *
+	 * @return the height in pixels
+	 */
+	public int getHeight() {
+		return this.height;
+	} // getHeight
+
+	/**
+	 * Gets the width and height of each tile.
+	 *
+	 * @return the tile size in pixels
+	 */
+	public int getTileSize() {
+		return this.tileSize;
+	} // getTileSize
+
+} // TileCache - Class